@@ -1,8 +1,9 @@
 lexer grammar JavaScriptLexer;
 
-tokens { COMMENT, SEPARATOR, WHITE_SPACE, NULL, BOOL, ID, STRING}
+tokens { COMMENT, SEPARATOR, WHITE_SPACE, NULL, BOOL, ID, STRING, NUMBER}
 
-MultiLineComment:               '/*' .*? '*/'             -> type(COMMENT);
+// an unterminated comment runs to the end of the input, in one token
+MultiLineComment:               '/*' .*? ('*/' | EOF)     -> type(COMMENT);
 SingleLineComment:              '//' ~[\r\n\u2028\u2029]* -> type(COMMENT);
 Comma:                          (',' | ':')               -> type(SEPARATOR);
 OBJECT_START:                   '{'                       ;
@@ -12,8 +13,13 @@ LineTerminator:                 [\r\n\u2028\u2029]            -> type(WHITE_SPAC
 NullLiteral:                    'null'                    -> type(NULL);
 BooleanLiteral:                 ('true'|'false')          -> type(BOOL);
 Identifier:                     IdentifierStart IdentifierPart* -> type(ID);
+// a number is one token, with its sign: its digits are not keys or values
+NumericLiteral:                 '-'? (DecimalLiteral | HexIntegerLiteral | OctalIntegerLiteral | BinaryIntegerLiteral) 'n'? -> type(NUMBER);
 /// String Literals
 StringLiteral:                 ('"' DoubleStringCharacter* '"' | '\'' SingleStringCharacter* '\'') -> type(STRING);
+// an unterminated string is not rescanned from each of its quotes: it runs
+// to the end of its line (or to an invalid escape) in one token
+UnterminatedStringLiteral:     ('"' DoubleStringCharacter* | '\'' SingleStringCharacter*) -> type(OTHERS);
 OTHERS:                         .;
 // Fragment rules
 
@@ -77,6 +83,28 @@ fragment HexDigit
     : [_0-9a-fA-F]
     ;
 
+fragment DecimalLiteral
+    : DecimalDigits '.' [0-9_]* ExponentPart?
+    | '.' [0-9] [0-9_]* ExponentPart?
+    | DecimalDigits ExponentPart?
+    ;
+
+fragment DecimalDigits
+    : [0-9] [0-9_]*
+    ;
+
+fragment HexIntegerLiteral
+    : '0' [xX] [0-9a-fA-F_]+
+    ;
+
+fragment OctalIntegerLiteral
+    : '0' [oO] [0-7_]+
+    ;
+
+fragment BinaryIntegerLiteral
+    : '0' [bB] [01_]+
+    ;
+
 fragment DecimalIntegerLiteral
     : '0'
     | [1-9] [0-9_]*
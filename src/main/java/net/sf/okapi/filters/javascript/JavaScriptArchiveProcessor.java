@@ -0,0 +1,353 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.RawDocument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Extracts from and merges into the JavaScript files of a zip or tar.gz
+ * archive without unpacking it to disk. The archive is read as a stream;
+ * each selected entry is read into memory and processed on a thread pool
+ * while the next ones are read, with at most twice as many entries in
+ * memory as there are threads. Results are delivered, and merged archives
+ * written, in the order of the input archive.
+ */
+public class JavaScriptArchiveProcessor implements AutoCloseable {
+    public enum Format {
+        ZIP, TAR_GZ;
+
+        /**
+         * @return the format for the extension of the file name (.zip,
+         * .tar.gz or .tgz).
+         */
+        public static Format fromFileName(String name) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".zip")) {
+                return ZIP;
+            }
+            if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+                return TAR_GZ;
+            }
+            throw new OkapiException("Unknown archive format: " + name);
+        }
+    }
+
+    /**
+     * Receives the events of one archive entry, extracted without skeleton.
+     */
+    public interface EntryHandler {
+        void handle(String entryName, List<Event> events);
+    }
+
+    /**
+     * Sets the target of a text unit for a merge. Called from several
+     * threads at once.
+     */
+    public interface Translator {
+        void translate(String entryName, ITextUnit textUnit, LocaleId target);
+    }
+
+    // an archive entry with its content
+    static final class Entry {
+        final String name;
+        final boolean directory;
+        final long lastModified;
+        // tar permissions, 0 for the default
+        int mode;
+        byte[] data;
+        // the tar blocks of an entry other than a file or directory, such
+        // as a link, written back as they are
+        byte[] blocks;
+
+        Entry(String name, boolean directory, long lastModified) {
+            this.name = name;
+            this.directory = directory;
+            this.lastModified = lastModified;
+        }
+
+        boolean isFile() {
+            return !directory && blocks == null;
+        }
+    }
+
+    private interface EntryReader {
+        Entry next() throws IOException;
+    }
+
+    private interface EntryWriter {
+        void write(Entry entry, byte[] data) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static class PendingEntry<T> {
+        final Entry entry;
+        final Future<T> result;
+
+        PendingEntry(Entry entry, Future<T> result) {
+            this.entry = entry;
+            this.result = result;
+        }
+    }
+
+    private final Parameters params;
+    private final ExecutorService executor;
+    private final int window;
+    private final Queue<JavaScriptFilter> filters = new ConcurrentLinkedQueue<>();
+    private Predicate<String> entrySelector = name -> name.toLowerCase(Locale.ROOT).endsWith(".js");
+
+    /**
+     * @param params  the filter parameters, or null for the defaults
+     * @param threads number of entries processed at once
+     */
+    public JavaScriptArchiveProcessor(Parameters params, int threads) {
+        this.params = params;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "js-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.window = 2 * threads;
+    }
+
+    /**
+     * Sets which file entries are processed, by name. The default is the
+     * names ending with ".js". Other entries are copied as they are by
+     * {@link #merge}.
+     */
+    public void setEntrySelector(Predicate<String> entrySelector) {
+        this.entrySelector = entrySelector;
+    }
+
+    /**
+     * Extracts the selected entries of an archive. The handler is called on
+     * this thread, in archive order.
+     */
+    public void extract(InputStream archive, Format format, String encoding, LocaleId source,
+                        EntryHandler handler) {
+        Deque<PendingEntry<List<Event>>> pending = new ArrayDeque<>();
+        try {
+            EntryReader reader = reader(archive, format);
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (!entry.isFile() || !entrySelector.test(entry.name)) {
+                    continue;
+                }
+                Entry e = entry;
+                pending.addLast(new PendingEntry<>(e, executor.submit(() -> extract(e, encoding, source))));
+                if (pending.size() >= window) {
+                    PendingEntry<List<Event>> oldest = pending.removeFirst();
+                    handler.handle(oldest.entry.name, result(oldest));
+                }
+            }
+            while (!pending.isEmpty()) {
+                PendingEntry<List<Event>> oldest = pending.removeFirst();
+                handler.handle(oldest.entry.name, result(oldest));
+            }
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot read the archive.", e);
+        } finally {
+            cancel(pending);
+        }
+    }
+
+    /**
+     * Merges the selected entries of an archive into a new archive of the
+     * same format, encoded like the input. The other entries, including tar
+     * links and the other special entries, are copied.
+     * The output stream is finished but not closed.
+     */
+    public void merge(InputStream archive, Format format, OutputStream output, String encoding, LocaleId source,
+                      LocaleId target, Translator translator) {
+        Deque<PendingEntry<byte[]>> pending = new ArrayDeque<>();
+        try {
+            EntryReader reader = reader(archive, format);
+            EntryWriter writer = writer(output, format);
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                Entry e = entry;
+                Future<byte[]> result;
+                if (!entry.isFile() || !entrySelector.test(entry.name)) {
+                    result = CompletableFuture.completedFuture(entry.data);
+                } else {
+                    result = executor.submit(() -> merge(e, encoding, source, target, translator));
+                }
+                pending.addLast(new PendingEntry<>(e, result));
+                if (pending.size() >= window) {
+                    PendingEntry<byte[]> oldest = pending.removeFirst();
+                    writer.write(oldest.entry, result(oldest));
+                }
+            }
+            while (!pending.isEmpty()) {
+                PendingEntry<byte[]> oldest = pending.removeFirst();
+                writer.write(oldest.entry, result(oldest));
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot read or write the archive.", e);
+        } finally {
+            cancel(pending);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        JavaScriptFilter filter;
+        while ((filter = filters.poll()) != null) {
+            filter.close();
+        }
+    }
+
+    private List<Event> extract(Entry entry, String encoding, LocaleId source) {
+        JavaScriptFilter filter = borrowFilter();
+        List<Event> events = new ArrayList<>();
+        try {
+            // the filter detects the BOM and encoding of the entry itself
+            filter.open(new RawDocument(new ByteArrayInputStream(entry.data), encoding, source), false);
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+        } finally {
+            filter.close();
+        }
+        filters.offer(filter);
+        return events;
+    }
+
+    private byte[] merge(Entry entry, String encoding, LocaleId source, LocaleId target, Translator translator) {
+        JavaScriptFilter filter = borrowFilter();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(entry.data.length);
+        try (IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(target, encoding);
+            writer.setOutput(output);
+            filter.open(new RawDocument(new ByteArrayInputStream(entry.data), encoding, source, target));
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    translator.translate(entry.name, event.getTextUnit(), target);
+                }
+                writer.handleEvent(event);
+            }
+        } finally {
+            filter.close();
+        }
+        filters.offer(filter);
+        return output.toByteArray();
+    }
+
+    private JavaScriptFilter borrowFilter() {
+        JavaScriptFilter filter = filters.poll();
+        if (filter == null) {
+            filter = new JavaScriptFilter();
+            if (params != null) {
+                filter.setParameters(params);
+            }
+        }
+        return filter;
+    }
+
+    private static <T> T result(PendingEntry<T> pending) {
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while processing the archive.", e);
+        } catch (ExecutionException e) {
+            throw new OkapiException(String.format("Cannot process the archive entry '%s'.", pending.entry.name),
+                    e.getCause());
+        }
+    }
+
+    private static void cancel(Deque<? extends PendingEntry<?>> pending) {
+        for (PendingEntry<?> p : pending) {
+            p.result.cancel(true);
+        }
+    }
+
+    private static EntryReader reader(InputStream archive, Format format) throws IOException {
+        if (format == Format.ZIP) {
+            ZipInputStream zip = new ZipInputStream(new BufferedInputStream(archive));
+            return () -> {
+                ZipEntry zipEntry = zip.getNextEntry();
+                if (zipEntry == null) {
+                    return null;
+                }
+                Entry entry = new Entry(zipEntry.getName(), zipEntry.isDirectory(), zipEntry.getTime());
+                entry.data = zip.readAllBytes();
+                return entry;
+            };
+        }
+        return new JavaScriptTar.Reader(new GZIPInputStream(new BufferedInputStream(archive), 65536))::next;
+    }
+
+    private static EntryWriter writer(OutputStream output, Format format) throws IOException {
+        if (format == Format.ZIP) {
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(output));
+            return new EntryWriter() {
+                @Override
+                public void write(Entry entry, byte[] data) throws IOException {
+                    ZipEntry zipEntry = new ZipEntry(entry.directory && !entry.name.endsWith("/")
+                            ? entry.name + "/" : entry.name);
+                    if (entry.lastModified >= 0) {
+                        zipEntry.setTime(entry.lastModified);
+                    }
+                    zip.putNextEntry(zipEntry);
+                    zip.write(data);
+                    zip.closeEntry();
+                }
+
+                @Override
+                public void finish() throws IOException {
+                    zip.finish();
+                    zip.flush();
+                }
+            };
+        }
+        GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(output), 65536);
+        JavaScriptTar.Writer tar = new JavaScriptTar.Writer(gzip);
+        return new EntryWriter() {
+            @Override
+            public void write(Entry entry, byte[] data) throws IOException {
+                tar.write(entry, data);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                tar.finish();
+                gzip.finish();
+                gzip.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,284 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import net.sf.okapi.common.resource.RawDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts many documents on a thread pool and records each completed
+ * document in a checkpoint journal, so that a run stopped by a crash can
+ * be restarted where it stopped.
+ * <p>
+ * A journal record holds the SHA-256 of the document, of the serialized
+ * {@link Parameters} and of the output written for the document. A
+ * restarted run skips a document only if all three still match: the
+ * document and the parameters are unchanged and the output is intact.
+ * <p>
+ * The documents are read ahead of the threads, see
+ * {@link #setReadAhead(int, long)}, so that the threads do not wait on
+ * slow storage.
+ */
+public class JavaScriptBatchExtractor implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptBatchExtractor.class);
+
+    /**
+     * Writes the output of one document, from a worker thread.
+     */
+    public interface OutputHandler {
+        /**
+         * @return the file written for the document; it is hashed for the
+         * journal.
+         */
+        Path write(Path document, List<Event> events) throws IOException;
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Result {
+        private final int processed;
+        private final int skipped;
+        private final Map<Path, Exception> failures;
+
+        Result(int processed, int skipped, Map<Path, Exception> failures) {
+            this.processed = processed;
+            this.skipped = skipped;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return the number of documents extracted by this run.
+         */
+        public int getProcessed() {
+            return processed;
+        }
+
+        /**
+         * @return the number of documents completed by an earlier run.
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the documents that failed, with their error. They are not
+         * journaled and are retried by the next run.
+         */
+        public Map<Path, Exception> getFailures() {
+            return failures;
+        }
+    }
+
+    private final Parameters params;
+    private final byte[] parametersHash;
+    private final JavaScriptCheckpointJournal journal;
+    private final Queue<JavaScriptFilter> filters = new ConcurrentLinkedQueue<>();
+    private int readAheadDepth = 16;
+    private long readAheadMemory = 64L * 1024 * 1024;
+
+    /**
+     * Opens or creates the journal at the given path.
+     *
+     * @param params the filter parameters, or null for the defaults
+     */
+    public JavaScriptBatchExtractor(Parameters params, Path journal) {
+        this.params = params == null ? new Parameters() : params;
+        this.parametersHash = sha256(this.params.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            this.journal = new JavaScriptCheckpointJournal(journal);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot open the checkpoint journal " + journal, e);
+        }
+    }
+
+    /**
+     * Sets how far the documents are read ahead of the threads extracting
+     * them: at most the given number of documents, held in at most the
+     * given number of bytes. Larger documents are read by the thread
+     * extracting them. A depth of 0 turns the read-ahead off.
+     */
+    public void setReadAhead(int depth, long memoryLimit) {
+        this.readAheadDepth = depth;
+        this.readAheadMemory = memoryLimit;
+    }
+
+    /**
+     * Extracts the documents not completed yet, with the given number of
+     * threads, and waits for them.
+     */
+    public Result run(List<Path> documents, String encoding, LocaleId source, int threads, OutputHandler handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        Map<Path, Future<?>> tasks = new LinkedHashMap<>();
+        JavaScriptReadAhead readAhead = readAheadDepth > 0
+                ? new JavaScriptReadAhead(documents, readAheadDepth, readAheadMemory) : null;
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Path document = documents.get(i);
+                int index = i;
+                tasks.put(document, executor.submit(() -> {
+                    JavaScriptReadAhead.Document content = readAhead == null ? null : readAhead.take(index);
+                    boolean completed;
+                    try {
+                        completed = process(document, content, encoding, source, handler);
+                    } finally {
+                        if (content != null) {
+                            content.close();
+                        }
+                    }
+                    if (completed) {
+                        processed.incrementAndGet();
+                    } else {
+                        skipped.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            Map<Path, Exception> failures = new LinkedHashMap<>();
+            for (Map.Entry<Path, Future<?>> task : tasks.entrySet()) {
+                try {
+                    task.getValue().get();
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    logger.warn("Cannot extract {}", task.getKey(), cause);
+                    failures.put(task.getKey(), cause);
+                }
+            }
+            return new Result(processed.get(), skipped.get(), failures);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while waiting for the batch.", e);
+        } finally {
+            executor.shutdownNow();
+            if (readAhead != null) {
+                readAhead.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        JavaScriptFilter filter;
+        while ((filter = filters.poll()) != null) {
+            filter.close();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot close the checkpoint journal.", e);
+        }
+    }
+
+    // false if the document was completed by an earlier run; the content
+    // is null if it was not read ahead
+    private boolean process(Path document, JavaScriptReadAhead.Document content, String encoding,
+            LocaleId source, OutputHandler handler) throws IOException {
+        String key = document.toAbsolutePath().normalize().toString();
+        InputStream input;
+        byte[] documentHash;
+        if (content == null) {
+            byte[] bytes = Files.readAllBytes(document);
+            input = new ByteArrayInputStream(bytes);
+            documentHash = sha256(bytes);
+        } else {
+            MessageDigest digest = newDigest();
+            content.digest(digest);
+            input = content.getInputStream();
+            documentHash = digest.digest();
+        }
+        if (isCompleted(journal.get(key), documentHash)) {
+            return false;
+        }
+
+        List<Event> events = new ArrayList<>();
+        JavaScriptFilter filter = filters.poll();
+        if (filter == null) {
+            filter = new JavaScriptFilter();
+            filter.setParameters(params);
+        }
+        try {
+            filter.open(new RawDocument(input, encoding, source), false);
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+        } finally {
+            filter.close();
+            if (content != null) {
+                // read in full by open, the buffers can be reused
+                content.close();
+            }
+        }
+        filters.offer(filter);
+
+        Path output = handler.write(document, events);
+        String outputKey = output == null ? "" : output.toAbsolutePath().normalize().toString();
+        byte[] outputHash = output == null ? new byte[0] : sha256(output);
+        journal.append(new JavaScriptCheckpointJournal.Record(key, documentHash, parametersHash, outputKey,
+                outputHash));
+        return true;
+    }
+
+    private boolean isCompleted(JavaScriptCheckpointJournal.Record record, byte[] documentHash) throws IOException {
+        if (record == null || !Arrays.equals(record.documentHash, documentHash)
+                || !Arrays.equals(record.parametersHash, parametersHash)) {
+            return false;
+        }
+        if (record.output.isEmpty()) {
+            return true;
+        }
+        Path output = Path.of(record.output);
+        return Files.isRegularFile(output) && Arrays.equals(record.outputHash, sha256(output));
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] sha256(byte[] content) {
+        return newDigest().digest(content);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
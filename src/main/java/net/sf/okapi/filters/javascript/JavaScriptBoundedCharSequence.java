@@ -0,0 +1,78 @@
+package net.sf.okapi.filters.javascript;
+
+/**
+ * Wraps the text a regex is matched against and counts the characters the
+ * regex engine reads, so that a match can be stopped once it has taken too
+ * many steps or too long. Backtracking re-reads characters, which makes the
+ * count a good measure of the work done.
+ */
+class JavaScriptBoundedCharSequence implements CharSequence {
+    // how often the clock is read, in steps
+    private static final int TIME_CHECK_MASK = 0x3FF;
+
+    /**
+     * Thrown from {@link #charAt(int)} when the budget is exhausted.
+     */
+    static class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final long stepLimit;
+    private final long timeLimitNanos;
+    private String text;
+    private long steps;
+    private long deadline;
+
+    /**
+     * @param stepLimit   maximum number of characters read per match, or 0
+     * @param timeLimitMs maximum duration of a match in milliseconds, or 0
+     */
+    JavaScriptBoundedCharSequence(long stepLimit, long timeLimitMs) {
+        this.stepLimit = stepLimit;
+        this.timeLimitNanos = timeLimitMs * 1_000_000L;
+        this.text = "";
+    }
+
+    /**
+     * Starts a new match on the given text with a full budget.
+     */
+    JavaScriptBoundedCharSequence reset(String text) {
+        this.text = text;
+        this.steps = 0;
+        if (timeLimitNanos > 0) {
+            deadline = System.nanoTime() + timeLimitNanos;
+        }
+        return this;
+    }
+
+    @Override
+    public char charAt(int index) {
+        steps++;
+        if (stepLimit > 0 && steps > stepLimit) {
+            throw new BudgetExceededException(String.format("more than %d steps", stepLimit));
+        }
+        if (timeLimitNanos > 0 && (steps & TIME_CHECK_MASK) == 0 && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException(String.format("more than %d ms", timeLimitNanos / 1_000_000L));
+        }
+        return text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
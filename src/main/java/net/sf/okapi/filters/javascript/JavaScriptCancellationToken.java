@@ -0,0 +1,60 @@
+package net.sf.okapi.filters.javascript;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets another thread stop the processing of a document, or bounds it with
+ * a deadline. Pass it to {@link JavaScriptFilter#open(net.sf.okapi.common.resource.RawDocument, boolean,
+ * JavaScriptCancellationToken)}; the filter checks it every few hundred
+ * tokens while parsing and on every event afterwards, and throws a
+ * {@link JavaScriptCancelledException} once it is cancelled or expired.
+ */
+public final class JavaScriptCancellationToken {
+    private final boolean hasDeadline;
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token without deadline, cancelled by {@link #cancel()} only.
+     */
+    public JavaScriptCancellationToken() {
+        this.hasDeadline = false;
+        this.deadline = 0;
+    }
+
+    private JavaScriptCancellationToken(long timeoutNanos) {
+        this.hasDeadline = true;
+        this.deadline = System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * Creates a token that expires after the given time from now.
+     */
+    public static JavaScriptCancellationToken withTimeout(long timeout, TimeUnit unit) {
+        return new JavaScriptCancellationToken(unit.toNanos(timeout));
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || isDeadlineExceeded();
+    }
+
+    public boolean isDeadlineExceeded() {
+        return hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws JavaScriptCancelledException if the token is cancelled or expired.
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new JavaScriptCancelledException("The processing was cancelled.", false);
+        }
+        if (isDeadlineExceeded()) {
+            throw new JavaScriptCancelledException("The processing deadline was exceeded.", true);
+        }
+    }
+}
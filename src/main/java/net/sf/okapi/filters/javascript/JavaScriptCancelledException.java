@@ -0,0 +1,25 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.exceptions.OkapiUserCanceledException;
+
+/**
+ * Thrown when a {@link JavaScriptCancellationToken} stops the processing of
+ * a document. The filter has released the document when this is thrown.
+ */
+public class JavaScriptCancelledException extends OkapiUserCanceledException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean deadlineExceeded;
+
+    public JavaScriptCancelledException(String message, boolean deadlineExceeded) {
+        super(message);
+        this.deadlineExceeded = deadlineExceeded;
+    }
+
+    /**
+     * @return true if the token expired, false if it was cancelled.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+}
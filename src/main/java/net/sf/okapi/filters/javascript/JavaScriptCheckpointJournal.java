@@ -0,0 +1,203 @@
+package net.sf.okapi.filters.javascript;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the documents completed by
+ * {@link JavaScriptBatchExtractor}.
+ * <p>
+ * Each record is written as its length, a CRC-32C of its payload and the
+ * payload, in a single write. A crash can only leave a torn last record,
+ * which is detected by its length or checksum and cut off when the journal
+ * is opened again.
+ * <p>
+ * Appends from several threads share the flushes to disk: a thread waiting
+ * to flush its record finds it already flushed when another thread forced
+ * the file after it was written.
+ */
+class JavaScriptCheckpointJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptCheckpointJournal.class);
+    private static final int MAGIC = 0x4A53434A;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    // larger records are taken as garbage from a torn write
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    static final class Record {
+        final String document;
+        final byte[] documentHash;
+        final byte[] parametersHash;
+        final String output;
+        final byte[] outputHash;
+
+        Record(String document, byte[] documentHash, byte[] parametersHash, String output, byte[] outputHash) {
+            this.document = document;
+            this.documentHash = documentHash;
+            this.parametersHash = parametersHash;
+            this.output = output;
+            this.outputHash = outputHash;
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(document);
+            writeBytes(out, documentHash);
+            writeBytes(out, parametersHash);
+            out.writeUTF(output);
+            writeBytes(out, outputHash);
+            return bytes.toByteArray();
+        }
+
+        static Record fromBytes(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            return new Record(in.readUTF(), readBytes(in), readBytes(in), in.readUTF(), readBytes(in));
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+            out.writeShort(value.length);
+            out.write(value);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] value = new byte[in.readUnsignedShort()];
+            in.readFully(value);
+            return value;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    // number of records written and flushed to disk
+    private long written;
+    private long flushed;
+
+    /**
+     * Opens or creates a journal and reads its records, cutting off a torn
+     * last record.
+     */
+    JavaScriptCheckpointJournal(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the last record of the document, or null if it has none.
+     */
+    Record get(String document) {
+        return records.get(document);
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * Appends a record and returns once it is on disk.
+     */
+    void append(Record record) throws IOException {
+        byte[] payload = record.toBytes();
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+        long sequence;
+        synchronized (this) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, channel.size());
+            }
+            sequence = ++written;
+        }
+        synchronized (flushLock) {
+            if (flushed < sequence) {
+                long target;
+                synchronized (this) {
+                    target = written;
+                }
+                channel.force(false);
+                flushed = target;
+            }
+        }
+        records.put(record.document, record);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_LENGTH) {
+            // new journal, or one torn before its header was complete
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header, HEADER_LENGTH - header.remaining());
+            }
+            channel.force(true);
+            return;
+        }
+        ByteBuffer header = read(0, HEADER_LENGTH);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a checkpoint journal, or an unsupported version.");
+        }
+
+        long position = HEADER_LENGTH;
+        while (position + 8 <= size) {
+            ByteBuffer prefix = read(position, 8);
+            int length = prefix.getInt();
+            int checksum = prefix.getInt();
+            if (length < 0 || length > MAX_RECORD_LENGTH || position + 8 + length > size) {
+                break;
+            }
+            byte[] payload = read(position + 8, length).array();
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            Record record = Record.fromBytes(payload);
+            records.put(record.document, record);
+            position += 8 + length;
+        }
+        if (position < size) {
+            logger.warn("Dropping {} bytes of torn records at the end of the checkpoint journal.", size - position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the checkpoint journal.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
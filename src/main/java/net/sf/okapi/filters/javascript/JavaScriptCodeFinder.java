@@ -0,0 +1,316 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.encoder.EncoderContext;
+import net.sf.okapi.common.encoder.EncoderManager;
+import net.sf.okapi.common.filters.InlineCodeFinder;
+import net.sf.okapi.common.resource.Code;
+import net.sf.okapi.common.resource.TextFragment;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs an {@link InlineCodeFinder} on extracted text. Texts that contain
+ * none of the characters a rule match must start with are skipped, and the
+ * results for repeated texts are served from a bounded per-document cache.
+ * Safe for concurrent use.
+ */
+class JavaScriptCodeFinder {
+    private static final int CACHE_SIZE = 1024;
+
+    private final InlineCodeFinder codeFinder;
+    // null when the rules are too complex to derive a prefilter from
+    private final String triggerChars;
+    private final Map<String, TextFragment> cache;
+
+    public JavaScriptCodeFinder(InlineCodeFinder codeFinder) {
+        this.codeFinder = codeFinder;
+        this.triggerChars = triggerChars(codeFinder.getRules());
+        this.cache = new LinkedHashMap<String, TextFragment>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TextFragment> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Converts the inline codes found in the text, and encodes their data
+     * and display text with the current encoder of the given manager.
+     */
+    public void process(TextFragment text, EncoderManager encoderManager) {
+        String source = text.getCodedText();
+        if (!mayMatch(source)) {
+            return;
+        }
+
+        TextFragment cached;
+        synchronized (cache) {
+            cached = cache.get(source);
+        }
+        if (cached != null) {
+            text.setCodedText(cached.getCodedText(), cached.getClonedCodes(), false);
+            return;
+        }
+
+        codeFinder.process(text);
+        // Pre-emptively re-encode anything we parsed out, since it won't happen otherwise
+        for (Code code : text.getCodes()) {
+            code.setData(encoderManager.encode(code.getData(), EncoderContext.TEXT));
+            String codeDisplayText = code.getDisplayText();
+            if (codeDisplayText != null) {
+                code.setDisplayText(encoderManager.encode(codeDisplayText, EncoderContext.TEXT));
+            }
+        }
+        TextFragment copy = text.clone();
+        synchronized (cache) {
+            cache.put(source, copy);
+        }
+    }
+
+    boolean mayMatch(String text) {
+        if (triggerChars == null) {
+            return true;
+        }
+        for (int i = 0; i < triggerChars.length(); i++) {
+            if (text.indexOf(triggerChars.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the characters a match of any of the rules must start with.
+     *
+     * @return the characters, or null if a rule can start with any character
+     * or is too complex to analyze.
+     */
+    static String triggerChars(List<String> rules) {
+        Set<Character> chars = new TreeSet<>();
+        for (String rule : rules) {
+            if (!addFirstChars(rule, chars)) {
+                return null;
+            }
+        }
+        if (chars.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(chars.size());
+        for (Character c : chars) {
+            sb.append(c.charValue());
+        }
+        return sb.toString();
+    }
+
+    private static boolean addFirstChars(String re, Set<Character> chars) {
+        for (String branch : splitAlternatives(re)) {
+            if (!addBranchFirstChars(branch, chars)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean addBranchFirstChars(String branch, Set<Character> chars) {
+        int i = 0;
+        // start anchors do not consume any character
+        while (i < branch.length() && branch.charAt(i) == '^') {
+            i++;
+        }
+        if (i >= branch.length()) {
+            return false;
+        }
+
+        Set<Character> atom = new TreeSet<>();
+        int end;
+        char c = branch.charAt(i);
+        switch (c) {
+            case '\\':
+                if (i + 1 >= branch.length() || !addEscape(branch.charAt(i + 1), atom)) {
+                    return false;
+                }
+                end = i + 2;
+                break;
+            case '[':
+                end = parseClass(branch, i, atom);
+                break;
+            case '(':
+                int close = findGroupEnd(branch, i);
+                if (close < 0) {
+                    return false;
+                }
+                String inner = branch.substring(i + 1, close);
+                if (inner.startsWith("?:")) {
+                    inner = inner.substring(2);
+                } else if (inner.startsWith("?")) {
+                    // look-around or inline flags
+                    return false;
+                }
+                if (!addFirstChars(inner, atom)) {
+                    return false;
+                }
+                end = close + 1;
+                break;
+            case '.':
+            case '$':
+            case ')':
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                return false;
+            default:
+                atom.add(c);
+                end = i + 1;
+                break;
+        }
+        if (end < 0) {
+            return false;
+        }
+
+        // a quantifier allowing zero occurrences makes the first atom optional
+        if (end < branch.length()) {
+            char q = branch.charAt(end);
+            if (q == '?' || q == '*' || branch.startsWith("{0", end)) {
+                return false;
+            }
+        }
+        chars.addAll(atom);
+        return true;
+    }
+
+    private static boolean addEscape(char e, Set<Character> chars) {
+        switch (e) {
+            case 't':
+                chars.add('\t');
+                return true;
+            case 'n':
+                chars.add('\n');
+                return true;
+            case 'r':
+                chars.add('\r');
+                return true;
+            case 'f':
+                chars.add('\f');
+                return true;
+            default:
+                if (Character.isLetterOrDigit(e)) {
+                    // character classes, boundaries, back references...
+                    return false;
+                }
+                chars.add(e);
+                return true;
+        }
+    }
+
+    // returns the index after the closing ']', or -1
+    private static int parseClass(String re, int start, Set<Character> chars) {
+        int i = start + 1;
+        if (i < re.length() && re.charAt(i) == '^') {
+            return -1;
+        }
+        while (i < re.length()) {
+            char c = re.charAt(i);
+            if (c == ']') {
+                return i == start + 1 ? -1 : i + 1;
+            }
+            if (c == '[' || c == '&') {
+                return -1;
+            }
+            if (c == '\\') {
+                if (i + 1 >= re.length() || !addEscape(re.charAt(i + 1), chars)) {
+                    return -1;
+                }
+                i += 2;
+                continue;
+            }
+            if (i + 2 < re.length() && re.charAt(i + 1) == '-' && re.charAt(i + 2) != ']') {
+                char last = re.charAt(i + 2);
+                if (last == '\\' || last < c || last - c > 255) {
+                    return -1;
+                }
+                for (char r = c; r <= last; r++) {
+                    chars.add(r);
+                }
+                i += 3;
+                continue;
+            }
+            chars.add(c);
+            i++;
+        }
+        return -1;
+    }
+
+    // returns the index of the ')' closing the group opened at start, or -1
+    private static int findGroupEnd(String re, int start) {
+        int depth = 0;
+        for (int i = start; i < re.length(); i++) {
+            char c = re.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(re, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // returns the index of the ']' closing the class opened at start, or -1
+    private static int skipClass(String re, int start) {
+        int i = start + 1;
+        if (i < re.length() && re.charAt(i) == '^') {
+            i++;
+        }
+        // a leading ']' is a literal
+        if (i < re.length() && re.charAt(i) == ']') {
+            i++;
+        }
+        for (; i < re.length(); i++) {
+            char c = re.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> splitAlternatives(String re) {
+        List<String> branches = new ArrayList<>();
+        int depth = 0;
+        int from = 0;
+        for (int i = 0; i < re.length(); i++) {
+            char c = re.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                int end = skipClass(re, i);
+                i = end < 0 ? re.length() : end;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                branches.add(re.substring(from, i));
+                from = i + 1;
+            }
+        }
+        branches.add(re.substring(from));
+        return branches;
+    }
+}
@@ -0,0 +1,249 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.RawDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running extraction and merge service. Requests are read from an
+ * input stream and answered on an output stream using the framing of
+ * {@link JavaScriptDaemonProtocol}, so a build tool can start one JVM and
+ * send it many bundles through {@link JavaScriptDaemonClient}.
+ * <p>
+ * Requests run concurrently. Each one borrows a filter from a pool keyed by
+ * the serialized {@link Parameters}; a filter is only used by one request at
+ * a time and is dropped if the request fails.
+ */
+public class JavaScriptDaemon {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptDaemon.class);
+    private static final String WARM_UP = "define({ key: \"Value <b>bold</b>\", list: [1, 'two'] });";
+
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, Queue<JavaScriptFilter>> pools;
+
+    public JavaScriptDaemon(int threads) {
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.pools = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Runs one extraction with the default parameters so that classes are
+     * loaded and the lexer and rules are compiled before the first request.
+     */
+    public void warmUp() {
+        JavaScriptDaemonProtocol.Request request = new JavaScriptDaemonProtocol.Request();
+        request.operation = JavaScriptDaemonProtocol.EXTRACT;
+        request.content = WARM_UP.getBytes(StandardCharsets.UTF_8);
+        handle(request);
+    }
+
+    /**
+     * Serves requests until the end of the input stream, then waits for the
+     * pending requests to be answered.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+        Phaser pending = new Phaser(1);
+        byte[] frame;
+        while ((frame = JavaScriptDaemonProtocol.readFrame(input)) != null) {
+            JavaScriptDaemonProtocol.Request request;
+            try {
+                request = JavaScriptDaemonProtocol.Request.fromFrame(frame);
+            } catch (IOException e) {
+                // only this request fails, answered if its id can be read
+                logger.warn("Malformed request frame of {} bytes", frame.length, e);
+                if (frame.length >= Integer.BYTES) {
+                    int id = ByteBuffer.wrap(frame).getInt();
+                    send(output, JavaScriptDaemonProtocol.Response.error(id, "Malformed request: " + e));
+                }
+                continue;
+            }
+            pending.register();
+            executor.execute(() -> {
+                try {
+                    JavaScriptDaemonProtocol.Response response;
+                    try {
+                        response = handle(request);
+                    } catch (Throwable e) {
+                        // errors too: the client waits for an answer to every request
+                        logger.error("Request {} failed", request.id, e);
+                        response = JavaScriptDaemonProtocol.Response.error(request.id, e.toString());
+                    }
+                    send(output, response);
+                } finally {
+                    pending.arriveAndDeregister();
+                }
+            });
+        }
+        pending.arriveAndAwaitAdvance();
+    }
+
+    private static void send(DataOutputStream output, JavaScriptDaemonProtocol.Response response) {
+        try {
+            byte[] frame = response.toFrame();
+            synchronized (output) {
+                JavaScriptDaemonProtocol.writeFrame(output, frame);
+            }
+        } catch (IOException e) {
+            logger.error("Cannot send the response to request {}", response.id, e);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Queue<JavaScriptFilter> pool : pools.values()) {
+            JavaScriptFilter filter;
+            while ((filter = pool.poll()) != null) {
+                filter.close();
+            }
+        }
+    }
+
+    JavaScriptDaemonProtocol.Response handle(JavaScriptDaemonProtocol.Request request) {
+        Queue<JavaScriptFilter> pool = pools.computeIfAbsent(request.parameters, k -> new ConcurrentLinkedQueue<>());
+        JavaScriptFilter filter = pool.poll();
+        try {
+            if (filter == null) {
+                filter = createFilter(request.parameters);
+            }
+            JavaScriptDaemonProtocol.Response response;
+            switch (request.operation) {
+                case JavaScriptDaemonProtocol.EXTRACT:
+                    response = extract(filter, request);
+                    break;
+                case JavaScriptDaemonProtocol.MERGE:
+                    response = merge(filter, request);
+                    break;
+                default:
+                    pool.offer(filter);
+                    return JavaScriptDaemonProtocol.Response.error(request.id,
+                            "Unknown operation " + request.operation);
+            }
+            pool.offer(filter);
+            return response;
+        } catch (RuntimeException e) {
+            // do not reuse a filter left in an unknown state
+            if (filter != null) {
+                filter.close();
+            }
+            logger.debug("Request {} failed", request.id, e);
+            return JavaScriptDaemonProtocol.Response.error(request.id, e.toString());
+        }
+    }
+
+    private static JavaScriptFilter createFilter(String parameters) {
+        JavaScriptFilter filter = new JavaScriptFilter();
+        if (!parameters.isEmpty()) {
+            Parameters params = new Parameters();
+            params.fromString(parameters);
+            filter.setParameters(params);
+        }
+        return filter;
+    }
+
+    private static JavaScriptDaemonProtocol.Response extract(JavaScriptFilter filter,
+                                                             JavaScriptDaemonProtocol.Request request) {
+        JavaScriptDaemonProtocol.Response response = new JavaScriptDaemonProtocol.Response();
+        response.id = request.id;
+        try {
+            open(filter, request);
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    ITextUnit tu = event.getTextUnit();
+                    response.units.add(new JavaScriptDaemonClient.ExtractedUnit(tu.getId(), tu.getName(),
+                            tu.getSource().getFirstContent().getCodedText()));
+                }
+            }
+        } finally {
+            filter.close();
+        }
+        return response;
+    }
+
+    private static JavaScriptDaemonProtocol.Response merge(JavaScriptFilter filter,
+                                                           JavaScriptDaemonProtocol.Request request) {
+        LocaleId target = LocaleId.fromString(request.targetLocale);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(request.content.length);
+        try (IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(target, request.encoding);
+            writer.setOutput(output);
+            open(filter, request);
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    ITextUnit tu = event.getTextUnit();
+                    String translation = request.translations.get(tu.getId());
+                    if (translation != null) {
+                        tu.createTarget(target, true, IResource.COPY_ALL).getFirstContent()
+                                .setCodedText(translation);
+                    }
+                }
+                writer.handleEvent(event);
+            }
+        } finally {
+            filter.close();
+        }
+        JavaScriptDaemonProtocol.Response response = new JavaScriptDaemonProtocol.Response();
+        response.id = request.id;
+        response.output = output.toByteArray();
+        return response;
+    }
+
+    private static void open(JavaScriptFilter filter, JavaScriptDaemonProtocol.Request request) {
+        LocaleId source = request.sourceLocale.isEmpty() ? LocaleId.ENGLISH : LocaleId.fromString(request.sourceLocale);
+        LocaleId target = request.targetLocale.isEmpty() ? LocaleId.EMPTY : LocaleId.fromString(request.targetLocale);
+        filter.open(new RawDocument(new ByteArrayInputStream(request.content), request.encoding, source, target));
+    }
+
+    /**
+     * Serves requests from stdin to stdout. The optional argument is the
+     * number of worker threads.
+     */
+    public static void main(String[] args) throws IOException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        // stdout carries the frames only
+        PrintStream out = System.out;
+        System.setOut(System.err);
+
+        JavaScriptDaemon daemon = new JavaScriptDaemon(threads);
+        daemon.warmUp();
+        try {
+            daemon.serve(System.in, out);
+        } finally {
+            daemon.shutdown();
+        }
+    }
+}
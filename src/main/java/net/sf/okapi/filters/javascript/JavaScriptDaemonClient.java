@@ -0,0 +1,197 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for {@link JavaScriptDaemon}. Requests can be sent from several
+ * threads at once; each call blocks until its own response comes back.
+ */
+public class JavaScriptDaemonClient implements AutoCloseable {
+    private final DataOutputStream toDaemon;
+    private final DataInputStream fromDaemon;
+    private final Map<Integer, CompletableFuture<JavaScriptDaemonProtocol.Response>> pending;
+    private final AtomicInteger nextId;
+    private final Thread reader;
+    private Process process;
+    private volatile IOException failure;
+
+    /**
+     * A text unit returned by an extraction. The text is the coded text of
+     * the source, to be sent back translated for a merge.
+     */
+    public static class ExtractedUnit {
+        private final String id;
+        private final String name;
+        private final String text;
+
+        public ExtractedUnit(String id, String name, String text) {
+            this.id = id;
+            this.name = name;
+            this.text = text;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    public JavaScriptDaemonClient(InputStream fromDaemon, OutputStream toDaemon) {
+        this.fromDaemon = new DataInputStream(new BufferedInputStream(fromDaemon));
+        this.toDaemon = new DataOutputStream(new BufferedOutputStream(toDaemon));
+        this.pending = new ConcurrentHashMap<>();
+        this.nextId = new AtomicInteger();
+        this.reader = new Thread(this::readResponses, "js-daemon-client");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Starts a daemon in a new JVM using the class path of this one.
+     */
+    public static JavaScriptDaemonClient launch(int threads) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                JavaScriptDaemon.class.getName(), String.valueOf(threads))
+                .redirectError(new File(System.getProperty("java.io.tmpdir"), "okapi-js-daemon.log"))
+                .start();
+        JavaScriptDaemonClient client = new JavaScriptDaemonClient(process.getInputStream(),
+                process.getOutputStream());
+        client.process = process;
+        return client;
+    }
+
+    /**
+     * Extracts the text units of a document.
+     *
+     * @param parameters the filter parameters, or null for the defaults.
+     */
+    public List<ExtractedUnit> extract(Parameters parameters, byte[] content, String encoding, LocaleId source) {
+        JavaScriptDaemonProtocol.Request request = request(JavaScriptDaemonProtocol.EXTRACT, parameters, content,
+                encoding, source);
+        return send(request).units;
+    }
+
+    /**
+     * Merges translations into a document.
+     *
+     * @param translations translated coded text by text unit id; text units
+     *                     without translation keep their source text.
+     * @return the translated document, in the given encoding.
+     */
+    public byte[] merge(Parameters parameters, byte[] content, String encoding, LocaleId source, LocaleId target,
+                        Map<String, String> translations) {
+        JavaScriptDaemonProtocol.Request request = request(JavaScriptDaemonProtocol.MERGE, parameters, content,
+                encoding, source);
+        request.targetLocale = target.toString();
+        request.translations.putAll(translations);
+        return send(request).output;
+    }
+
+    /**
+     * Closes the connection: the daemon answers the pending requests and
+     * stops.
+     */
+    @Override
+    public void close() {
+        try {
+            toDaemon.close();
+            reader.join();
+            if (process != null) {
+                process.waitFor();
+            }
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot close the daemon connection.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private JavaScriptDaemonProtocol.Request request(int operation, Parameters parameters, byte[] content,
+                                                     String encoding, LocaleId source) {
+        JavaScriptDaemonProtocol.Request request = new JavaScriptDaemonProtocol.Request();
+        request.id = nextId.incrementAndGet();
+        request.operation = operation;
+        request.parameters = parameters == null ? "" : parameters.toString();
+        request.content = content;
+        request.encoding = encoding;
+        request.sourceLocale = source.toString();
+        return request;
+    }
+
+    private JavaScriptDaemonProtocol.Response send(JavaScriptDaemonProtocol.Request request) {
+        CompletableFuture<JavaScriptDaemonProtocol.Response> future = new CompletableFuture<>();
+        pending.put(request.id, future);
+        if (failure != null) {
+            future.completeExceptionally(failure);
+        }
+        try {
+            byte[] frame = request.toFrame();
+            synchronized (toDaemon) {
+                JavaScriptDaemonProtocol.writeFrame(toDaemon, frame);
+            }
+            JavaScriptDaemonProtocol.Response response = future.get();
+            if (response.status != JavaScriptDaemonProtocol.OK) {
+                throw new OkapiException("The daemon failed to process the request: " + response.message);
+            }
+            return response;
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot send the request to the daemon.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while waiting for the daemon.", e);
+        } catch (ExecutionException e) {
+            throw new OkapiIOException("Connection to the daemon lost.", e.getCause());
+        } finally {
+            pending.remove(request.id);
+        }
+    }
+
+    private void readResponses() {
+        try {
+            byte[] frame;
+            while ((frame = JavaScriptDaemonProtocol.readFrame(fromDaemon)) != null) {
+                JavaScriptDaemonProtocol.Response response = JavaScriptDaemonProtocol.Response.fromFrame(frame);
+                CompletableFuture<JavaScriptDaemonProtocol.Response> future = pending.get(response.id);
+                if (future != null) {
+                    future.complete(response);
+                }
+            }
+            failPending(new IOException("The daemon closed the connection."));
+        } catch (IOException e) {
+            failPending(e);
+        }
+    }
+
+    private void failPending(IOException e) {
+        failure = e;
+        for (CompletableFuture<JavaScriptDaemonProtocol.Response> future : pending.values()) {
+            future.completeExceptionally(e);
+        }
+    }
+}
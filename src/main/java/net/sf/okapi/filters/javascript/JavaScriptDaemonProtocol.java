@@ -0,0 +1,173 @@
+package net.sf.okapi.filters.javascript;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Framing used between {@link JavaScriptDaemon} and
+ * {@link JavaScriptDaemonClient}. Each frame is a 4-byte length followed by
+ * the payload; strings and byte arrays inside a payload are length-prefixed
+ * too, strings being UTF-8. Responses carry the id of their request and may
+ * come in any order.
+ */
+final class JavaScriptDaemonProtocol {
+    static final int EXTRACT = 1;
+    static final int MERGE = 2;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    private static final int MAX_FRAME_SIZE = 1 << 30;
+
+    private JavaScriptDaemonProtocol() {
+    }
+
+    static class Request {
+        int id;
+        int operation;
+        String parameters = "";
+        String encoding = "UTF-8";
+        String sourceLocale = "";
+        String targetLocale = "";
+        byte[] content = new byte[0];
+        Map<String, String> translations = new LinkedHashMap<>();
+
+        byte[] toFrame() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(id);
+            out.writeInt(operation);
+            writeString(out, parameters);
+            writeString(out, encoding);
+            writeString(out, sourceLocale);
+            writeString(out, targetLocale);
+            writeBytes(out, content);
+            out.writeInt(translations.size());
+            for (Map.Entry<String, String> entry : translations.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            return bytes.toByteArray();
+        }
+
+        static Request fromFrame(byte[] frame) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            Request request = new Request();
+            request.id = in.readInt();
+            request.operation = in.readInt();
+            request.parameters = readString(in);
+            request.encoding = readString(in);
+            request.sourceLocale = readString(in);
+            request.targetLocale = readString(in);
+            request.content = readBytes(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                request.translations.put(readString(in), readString(in));
+            }
+            return request;
+        }
+    }
+
+    static class Response {
+        int id;
+        byte status = OK;
+        String message = "";
+        List<JavaScriptDaemonClient.ExtractedUnit> units = new ArrayList<>();
+        byte[] output = new byte[0];
+
+        static Response error(int id, String message) {
+            Response response = new Response();
+            response.id = id;
+            response.status = ERROR;
+            response.message = message == null ? "" : message;
+            return response;
+        }
+
+        byte[] toFrame() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(output.length + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(id);
+            out.writeByte(status);
+            writeString(out, message);
+            out.writeInt(units.size());
+            for (JavaScriptDaemonClient.ExtractedUnit unit : units) {
+                writeString(out, unit.getId());
+                writeString(out, unit.getName() == null ? "" : unit.getName());
+                writeString(out, unit.getText());
+            }
+            writeBytes(out, output);
+            return bytes.toByteArray();
+        }
+
+        static Response fromFrame(byte[] frame) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            Response response = new Response();
+            response.id = in.readInt();
+            response.status = in.readByte();
+            response.message = readString(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = readString(in);
+                String name = readString(in);
+                response.units.add(new JavaScriptDaemonClient.ExtractedUnit(id, name.isEmpty() ? null : name,
+                        readString(in)));
+            }
+            response.output = readBytes(in);
+            return response;
+        }
+    }
+
+    /**
+     * @return the payload of the next frame, or null at the end of the stream.
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid field length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
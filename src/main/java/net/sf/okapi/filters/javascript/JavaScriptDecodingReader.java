@@ -0,0 +1,155 @@
+package net.sf.okapi.filters.javascript;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the value of a string literal with its escape sequences resolved,
+ * like {@link JavaScriptEventBuilder#decode(String)} but without building
+ * the decoded copy. Keep the escapes in sync with the event builder.
+ */
+class JavaScriptDecodingReader extends Reader {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptDecodingReader.class);
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CharSequence value;
+    private int pos;
+    // the char after the backslash of an unexpected escape sequence
+    private int pending = -1;
+
+    JavaScriptDecodingReader(CharSequence value) {
+        this.value = value;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (pending >= 0) {
+            cbuf[off + n++] = (char) pending;
+            pending = -1;
+        }
+        while (n < len && pos < value.length()) {
+            char ch = value.charAt(pos++);
+            if (ch != '\\' || pos >= value.length()) {
+                cbuf[off + n++] = ch;
+                continue;
+            }
+
+            ch = value.charAt(pos++);
+            switch (ch) {
+                case 'b':
+                    cbuf[off + n++] = '\b';
+                    break;
+                case 'f':
+                    cbuf[off + n++] = '\f';
+                    break;
+                case 'n':
+                    cbuf[off + n++] = '\n';
+                    break;
+                case 'r':
+                    cbuf[off + n++] = '\r';
+                    break;
+                case 't':
+                    cbuf[off + n++] = '\t';
+                    break;
+                case '\\':
+                case '"':
+                case '/':
+                    cbuf[off + n++] = ch;
+                    break;
+                default: // Unexpected escape sequence
+                    logger.warn("Unexpected JavaScript escape sequence '\\{}'.", ch);
+                    cbuf[off + n++] = '\\';
+                    if (n < len) {
+                        cbuf[off + n++] = ch;
+                    } else {
+                        pending = ch;
+                    }
+                    break;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() {
+        pos = value.length();
+        pending = -1;
+    }
+
+    /**
+     * @return the decoded value as a UTF-8 byte stream, encoded as it is read.
+     */
+    InputStream toUtf8Stream() {
+        return new InputStream() {
+            private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE).flip();
+            private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 4).flip();
+            private boolean endOfInput;
+            private boolean finished;
+
+            @Override
+            public int read() throws IOException {
+                if (!bytes.hasRemaining() && !fill()) {
+                    return -1;
+                }
+                return bytes.get() & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!bytes.hasRemaining() && !fill()) {
+                    return -1;
+                }
+                int n = Math.min(len, bytes.remaining());
+                bytes.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public void close() {
+                JavaScriptDecodingReader.this.close();
+            }
+
+            private boolean fill() throws IOException {
+                bytes.clear();
+                while (bytes.position() == 0) {
+                    if (finished) {
+                        bytes.flip();
+                        return false;
+                    }
+                    if (!endOfInput) {
+                        // keeps a high surrogate left over by the encoder
+                        chars.compact();
+                        endOfInput = JavaScriptDecodingReader.this.read(chars) < 0;
+                        chars.flip();
+                    }
+                    encoder.encode(chars, bytes, endOfInput);
+                    if (endOfInput && !chars.hasRemaining()) {
+                        encoder.flush(bytes);
+                        finished = true;
+                    }
+                }
+                bytes.flip();
+                return true;
+            }
+        };
+    }
+}
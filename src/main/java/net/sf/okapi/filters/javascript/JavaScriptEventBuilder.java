@@ -1,21 +1,57 @@
 package net.sf.okapi.filters.javascript;
 
-import net.sf.okapi.common.encoder.EncoderContext;
+import net.sf.okapi.common.Event;
 import net.sf.okapi.common.encoder.EncoderManager;
+import net.sf.okapi.common.exceptions.OkapiBadFilterInputException;
+import net.sf.okapi.common.exceptions.OkapiException;
 import net.sf.okapi.common.filters.EventBuilder;
 import net.sf.okapi.common.filters.IFilter;
 import net.sf.okapi.common.filters.InlineCodeFinder;
-import net.sf.okapi.common.resource.Code;
 import net.sf.okapi.common.resource.ITextUnit;
 import net.sf.okapi.common.resource.TextFragment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
 public class JavaScriptEventBuilder extends EventBuilder {
     private final static Logger logger = LoggerFactory.getLogger(JavaScriptEventBuilder.class);
-    private InlineCodeFinder codeFinder;
+    // TUs post-processed in the background but not yet emitted
+    private static final int POST_PROCESSING_WINDOW = 1024;
+    private JavaScriptCodeFinder codeFinder;
     private boolean escapeForwardSlashes = true;
     private EncoderManager encoderManager;
+    // MIME type the encoder manager was last updated for
+    private String encoderMimeType;
+    private ExecutorService postProcessor;
+    private ThreadLocal<WorkerEncoder> workerEncoders;
+    private Deque<PendingTextUnit> pending;
+
+    private static class PendingTextUnit {
+        final ITextUnit textUnit;
+        final Future<TextFragment> result;
+
+        PendingTextUnit(ITextUnit textUnit, Future<TextFragment> result) {
+            this.textUnit = textUnit;
+            this.result = result;
+        }
+    }
+
+    // encoder manager of a post-processing thread
+    private static class WorkerEncoder {
+        final EncoderManager encoderManager;
+        String mimeType;
+
+        WorkerEncoder(EncoderManager encoderManager) {
+            this.encoderManager = encoderManager;
+        }
+    }
+
     public JavaScriptEventBuilder(String rootId, IFilter subFilter) {
         super(rootId, subFilter);
         codeFinder = null;
@@ -27,44 +63,133 @@ public class JavaScriptEventBuilder extends EventBuilder {
     }
     @Override
     protected ITextUnit postProcessTextUnit(ITextUnit textUnit) {
+        if (postProcessor != null) {
+            submitPostProcessing(textUnit);
+            return textUnit;
+        }
         TextFragment text = textUnit.getSource().getFirstContent();
         String unescaped = unescape(text);
         text.setCodedText(unescaped);
 
         if (codeFinder != null) {
-            encoderManager.updateEncoder(textUnit.getMimeType());
-            codeFinder.process(text);
-            // Pre-emptively re-encode anything we parsed out, since it won't happen otherwise
-            for (Code code : text.getCodes()) {
-                code.setData(encoderManager.encode(code.getData(), EncoderContext.TEXT));
-                String codeDisplayText = code.getDisplayText();
-                if (codeDisplayText != null) {
-                    code.setDisplayText(encoderManager.encode(codeDisplayText, EncoderContext.TEXT));
-                }
+            // resolve the encoder once per document, not for each TU
+            String mimeType = textUnit.getMimeType();
+            if (encoderMimeType == null || !encoderMimeType.equals(mimeType)) {
+                encoderManager.updateEncoder(mimeType);
+                encoderMimeType = mimeType;
             }
+            codeFinder.process(text, encoderManager);
         }
         return textUnit;
     }
 
+    @Override
+    public Event next() {
+        Event event = super.next();
+        if (event != null && event.isTextUnit() && !pending.isEmpty()
+                && pending.peekFirst().textUnit == event.getTextUnit()) {
+            installOldest();
+        }
+        return event;
+    }
+
+    @Override
+    public void reset(String rootId, IFilter subFilter) {
+        // also called by the super constructor, before the fields are initialized
+        if (pending == null) {
+            pending = new ArrayDeque<>();
+        }
+        cancelPostProcessing();
+        super.reset(rootId, subFilter);
+    }
+
+    /**
+     * Post-processes the next TUs on the given executor instead of the
+     * parsing thread, or inline if it is null. The results are put back in
+     * the TUs in document order, at the latest when they are returned by
+     * {@link #next()}.
+     *
+     * @param encoderManagers creates an encoder manager for each worker thread
+     */
+    public void setPostProcessor(ExecutorService postProcessor, Supplier<EncoderManager> encoderManagers) {
+        cancelPostProcessing();
+        this.postProcessor = postProcessor;
+        this.workerEncoders = postProcessor == null ? null
+                : ThreadLocal.withInitial(() -> new WorkerEncoder(encoderManagers.get()));
+    }
+
+    /**
+     * Drops the post-processing still pending, for a document closed before
+     * all its events were read.
+     */
+    public void cancelPostProcessing() {
+        for (PendingTextUnit p : pending) {
+            p.result.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private void submitPostProcessing(ITextUnit textUnit) {
+        // the worker gets its own fragment: the TU may still be read here
+        String codedText = textUnit.getSource().getFirstContent().getCodedText();
+        String mimeType = textUnit.getMimeType();
+        if (pending.size() >= POST_PROCESSING_WINDOW) {
+            installOldest();
+        }
+        pending.addLast(new PendingTextUnit(textUnit,
+                postProcessor.submit(() -> postProcess(codedText, mimeType))));
+    }
+
+    private TextFragment postProcess(String codedText, String mimeType) {
+        TextFragment text = new TextFragment(codedText);
+        text.setCodedText(unescape(text));
+        if (codeFinder != null) {
+            WorkerEncoder encoder = workerEncoders.get();
+            if (encoder.mimeType == null || !encoder.mimeType.equals(mimeType)) {
+                encoder.encoderManager.updateEncoder(mimeType);
+                encoder.mimeType = mimeType;
+            }
+            codeFinder.process(text, encoder.encoderManager);
+        }
+        text.renumberCodes();
+        return text;
+    }
+
+    private void installOldest() {
+        PendingTextUnit p = pending.removeFirst();
+        TextFragment result;
+        try {
+            result = p.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while post-processing text units.", e);
+        } catch (ExecutionException e) {
+            throw new OkapiBadFilterInputException(
+                    String.format("Error post-processing text unit '%s'.", p.textUnit.getId()), e.getCause());
+        }
+        p.textUnit.getSource().getFirstContent().setCodedText(result.getCodedText(), result.getCodes(), false);
+    }
+
     public static String decode(String value) {
         return unescape(new TextFragment(value));
     }
 
     private static String unescape(TextFragment text) {
-        StringBuilder unescaped = new StringBuilder();
+        String codedText = text.getCodedText();
+        // String.indexOf() is an intrinsic that skips the plain runs with vector compares
+        int i = codedText.indexOf('\\');
+        if (i < 0) {
+            return codedText;
+        }
+        StringBuilder unescaped = new StringBuilder(codedText.length());
+        int start = 0;
         char ch;
-        for (int i = 0; i < text.length(); i++) {
-            ch = text.charAt(i);
-            switch(ch) {
-                case '\\':
-                    break;
-                default:
-                    unescaped.append(ch);
-                    continue;
-            }
+        for (; i >= 0; i = codedText.indexOf('\\', start)) {
+            unescaped.append(codedText, start, i);
 
             // previous char was '\'
-            ch = text.charAt(++i);
+            ch = codedText.charAt(++i);
+            start = i + 1;
             switch (ch) {
                 case 'b':
                     unescaped.append('\b');
@@ -93,11 +218,17 @@ public class JavaScriptEventBuilder extends EventBuilder {
                     break;
             }
         }
+        unescaped.append(codedText, start, codedText.length());
 
         return unescaped.toString();
     }
 
+    /**
+     * Sets the code finder for the next document, or null to disable it.
+     * Also starts a new code finder cache.
+     */
     public void setCodeFinder(InlineCodeFinder codeFinder) {
-        this.codeFinder = codeFinder;
+        this.codeFinder = codeFinder == null ? null : new JavaScriptCodeFinder(codeFinder);
+        this.encoderMimeType = null;
     }
 }
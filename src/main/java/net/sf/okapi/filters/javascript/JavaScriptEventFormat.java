@@ -0,0 +1,84 @@
+package net.sf.okapi.filters.javascript;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Layout shared by {@link JavaScriptEventWriter} and
+ * {@link JavaScriptEventReader}.
+ * <p>
+ * A stream starts with a 4-byte magic number and a version byte, followed
+ * by records. Each record is a type byte, its payload length as a varint
+ * and the payload, so that a reader can skip record types it does not
+ * know. Strings in event payloads are varints: 0 for null, 1 for an
+ * inline string (length and UTF-8 bytes follow) or 2 + the index of an
+ * entry of the string table. Table entries are defined by {@link #STRING}
+ * records written before the first event using them, and dropped by a
+ * {@link #RESET} record.
+ */
+final class JavaScriptEventFormat {
+    static final int MAGIC = 0x4A534556;
+    // 2: subfilter records
+    static final int VERSION = 2;
+
+    // control records
+    static final int STRING = 0x40;
+    static final int RESET = 0x41;
+
+    // event records
+    static final int START_DOCUMENT = 1;
+    static final int END_DOCUMENT = 2;
+    static final int START_GROUP = 3;
+    static final int END_GROUP = 4;
+    static final int TEXT_UNIT = 5;
+    static final int DOCUMENT_PART = 6;
+    static final int START_SUBFILTER = 7;
+    static final int END_SUBFILTER = 8;
+
+    static final int NULL_STRING = 0;
+    static final int INLINE_STRING = 1;
+    static final int FIRST_TABLE_STRING = 2;
+
+    // skeletons
+    static final int NO_SKELETON = 0;
+    static final int GENERIC_SKELETON = 1;
+
+    // parents of skeleton parts
+    static final int NO_PARENT = 0;
+    static final int SELF_PARENT = 1;
+    static final int REFERENCED_PARENT = 2;
+
+    // resource flags
+    static final int TRANSLATABLE = 1;
+    static final int PRESERVE_WHITESPACES = 2;
+    static final int REFERENT = 4;
+    static final int UTF8_BOM = 8;
+    static final int MULTILINGUAL = 16;
+    static final int SEGMENTED = 32;
+
+    static final int MAX_RECORD_LENGTH = 1 << 30;
+
+    private JavaScriptEventFormat() {
+    }
+
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in the event stream.");
+    }
+}
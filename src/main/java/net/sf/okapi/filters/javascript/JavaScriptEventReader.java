@@ -0,0 +1,385 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.EventType;
+import net.sf.okapi.common.IParameters;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.ISkeleton;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.annotation.GenericAnnotations;
+import net.sf.okapi.common.annotation.Note;
+import net.sf.okapi.common.annotation.NoteAnnotation;
+import net.sf.okapi.common.encoder.IEncoder;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import net.sf.okapi.common.filters.IFilter;
+import net.sf.okapi.common.filters.IFilterConfigurationMapper;
+import net.sf.okapi.common.resource.BaseNameable;
+import net.sf.okapi.common.resource.BaseReferenceable;
+import net.sf.okapi.common.resource.Code;
+import net.sf.okapi.common.resource.DocumentPart;
+import net.sf.okapi.common.resource.EndSubfilter;
+import net.sf.okapi.common.resource.Ending;
+import net.sf.okapi.common.resource.Property;
+import net.sf.okapi.common.resource.Segment;
+import net.sf.okapi.common.resource.StartDocument;
+import net.sf.okapi.common.resource.StartGroup;
+import net.sf.okapi.common.resource.StartSubfilter;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextFragment;
+import net.sf.okapi.common.resource.TextPart;
+import net.sf.okapi.common.resource.TextUnit;
+import net.sf.okapi.common.skeleton.GenericSkeleton;
+import net.sf.okapi.common.skeleton.GenericSkeletonPart;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static net.sf.okapi.filters.javascript.JavaScriptEventFormat.*;
+
+/**
+ * Replays the events written by {@link JavaScriptEventWriter}, reading the
+ * stream one record at a time. Events come out as they came from
+ * {@link JavaScriptFilter#next()} and can be merged with the filter's
+ * writer; the start document carries a writer created from the restored
+ * parameters. The start documents of subfilters other than this filter get
+ * their writer from the configuration mapper, if one is set.
+ */
+public class JavaScriptEventReader implements AutoCloseable {
+    private final DataInputStream in;
+    private final int version;
+    private final List<String> strings = new ArrayList<>();
+    // referents of the current document, for skeleton parts pointing to them
+    private final Map<String, IResource> referents = new HashMap<>();
+    private IFilterConfigurationMapper mapper;
+    private DataInputStream payload;
+    private Event next;
+    private boolean ended;
+
+    /**
+     * @throws OkapiIOException if the stream is not an event stream or was
+     * written by a newer, incompatible version.
+     */
+    public JavaScriptEventReader(InputStream input) {
+        in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new OkapiIOException("Not a JavaScript event stream.");
+            }
+            version = in.readUnsignedByte();
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot read the event stream.", e);
+        }
+        if (version > VERSION) {
+            throw new OkapiIOException("Unsupported event stream version " + version);
+        }
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the mapper creating the writers of start documents written by
+     * other filters, such as the subfilters of a document.
+     */
+    public void setFilterConfigurationMapper(IFilterConfigurationMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public boolean hasNext() {
+        if (next == null && !ended) {
+            try {
+                next = readEvent();
+            } catch (IOException e) {
+                throw new OkapiIOException("Cannot read the event stream.", e);
+            }
+            ended = next == null;
+        }
+        return next != null;
+    }
+
+    public Event next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Event event = next;
+        next = null;
+        return event;
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot close the event stream.", e);
+        }
+    }
+
+    // null at the end of the stream
+    private Event readEvent() throws IOException {
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                return null;
+            }
+            int length = readVarint(in);
+            if (length < 0 || length > MAX_RECORD_LENGTH) {
+                throw new IOException("Invalid record length " + length);
+            }
+            byte[] bytes = new byte[length];
+            try {
+                in.readFully(bytes);
+            } catch (EOFException e) {
+                throw new IOException("Truncated event stream.", e);
+            }
+            payload = new DataInputStream(new ByteArrayInputStream(bytes));
+            switch (type) {
+                case STRING:
+                    strings.add(new String(bytes, StandardCharsets.UTF_8));
+                    break;
+                case RESET:
+                    strings.clear();
+                    break;
+                case START_DOCUMENT:
+                    return new Event(EventType.START_DOCUMENT, readStartDocument());
+                case END_DOCUMENT:
+                    referents.clear();
+                    return new Event(EventType.END_DOCUMENT, readEnding(new Ending()));
+                case START_GROUP:
+                    StartGroup group = new StartGroup();
+                    readNameable(group);
+                    group.setParentId(readString());
+                    return new Event(EventType.START_GROUP, group);
+                case END_GROUP:
+                    return new Event(EventType.END_GROUP, readEnding(new Ending()));
+                case TEXT_UNIT:
+                    return new Event(EventType.TEXT_UNIT, readTextUnit());
+                case DOCUMENT_PART:
+                    DocumentPart dp = new DocumentPart();
+                    readNameable(dp);
+                    return new Event(EventType.DOCUMENT_PART, dp);
+                case START_SUBFILTER:
+                    return new Event(EventType.START_SUBFILTER, readStartSubfilter());
+                case END_SUBFILTER:
+                    return new Event(EventType.END_SUBFILTER, readEnding(new EndSubfilter()));
+                default:
+                    // added by a later version: skipped
+                    break;
+            }
+        }
+    }
+
+    private StartDocument readStartDocument() throws IOException {
+        StartDocument sd = new StartDocument();
+        readNameable(sd);
+        String encoding = readString();
+        String locale = readString();
+        String lineBreak = readString();
+        String filterId = readString();
+        String paramsClass = readString();
+        String params = readString();
+        int flags = readVarint(payload);
+        sd.setEncoding(encoding, (flags & UTF8_BOM) != 0);
+        sd.setLocale(locale == null ? null : LocaleId.fromString(locale));
+        sd.setLineBreak(lineBreak);
+        sd.setFilterId(filterId);
+        sd.setMultilingual((flags & MULTILINGUAL) != 0);
+        if (paramsClass != null) {
+            IParameters parameters = createParameters(paramsClass);
+            parameters.fromString(params);
+            sd.setFilterParameters(parameters);
+            IFilter filter = null;
+            if (parameters instanceof Parameters) {
+                filter = new JavaScriptFilter();
+            } else if (mapper != null && filterId != null) {
+                filter = mapper.createFilter(filterId);
+            }
+            if (filter != null) {
+                filter.setParameters(parameters);
+                sd.setFilterWriter(filter.createFilterWriter());
+            }
+        }
+        return sd;
+    }
+
+    private StartSubfilter readStartSubfilter() throws IOException {
+        StartDocument sd = readStartDocument();
+        IEncoder encoder = null;
+        String encoderClass = readString();
+        if (encoderClass != null) {
+            encoder = newInstance(encoderClass, IEncoder.class, "an encoder");
+            String paramsClass = readString();
+            String params = readString();
+            IParameters parameters = null;
+            if (paramsClass != null) {
+                parameters = createParameters(paramsClass);
+                parameters.fromString(params);
+            }
+            String encoding = readString();
+            encoder.setOptions(parameters, encoding, readString());
+        }
+        StartSubfilter ssf = new StartSubfilter(null, sd, encoder);
+        readNameable(ssf);
+        ssf.setParentId(readString());
+        return ssf;
+    }
+
+    private Ending readEnding(Ending ending) throws IOException {
+        ending.setId(readString());
+        ending.setSkeleton(readSkeleton(ending));
+        return ending;
+    }
+
+    private TextUnit readTextUnit() throws IOException {
+        TextUnit tu = new TextUnit();
+        readNameable(tu);
+        tu.setSource(readContainer());
+        int targets = readVarint(payload);
+        for (int i = 0; i < targets; i++) {
+            LocaleId locale = LocaleId.fromString(readString());
+            tu.setTarget(locale, readContainer());
+        }
+
+        int count = readVarint(payload);
+        if (count > 0) {
+            NoteAnnotation notes = new NoteAnnotation();
+            for (int i = 0; i < count; i++) {
+                Note note = new Note(readString());
+                String annotates = readString();
+                String priority = readString();
+                note.setAnnotates(annotates == null ? null : Note.Annotates.valueOf(annotates));
+                note.setPriority(priority == null ? null : Note.Priority.valueOf(priority));
+                note.setFrom(readString());
+                note.setXmlLang(readString());
+                notes.add(note);
+            }
+            tu.setAnnotation(notes);
+        }
+        String annotations = readString();
+        if (annotations != null) {
+            tu.setAnnotation(new GenericAnnotations(annotations));
+        }
+        return tu;
+    }
+
+    private void readNameable(BaseNameable resource) throws IOException {
+        resource.setId(readString());
+        resource.setName(readString());
+        resource.setType(readString());
+        resource.setMimeType(readString());
+        int flags = readVarint(payload);
+        int references = readVarint(payload);
+        resource.setIsTranslatable((flags & TRANSLATABLE) != 0);
+        resource.setPreserveWhitespaces((flags & PRESERVE_WHITESPACES) != 0);
+        if (resource instanceof BaseReferenceable) {
+            BaseReferenceable referenceable = (BaseReferenceable) resource;
+            referenceable.setIsReferent((flags & REFERENT) != 0);
+            referenceable.setReferenceCount(references);
+            if (referenceable.isReferent()) {
+                referents.put(resource.getId(), resource);
+            }
+        }
+
+        int properties = readVarint(payload);
+        for (int i = 0; i < properties; i++) {
+            String name = readString();
+            String value = readString();
+            resource.setProperty(new Property(name, value, payload.readBoolean()));
+        }
+        resource.setSkeleton(readSkeleton(resource));
+    }
+
+    private ISkeleton readSkeleton(IResource owner) throws IOException {
+        if (readVarint(payload) == NO_SKELETON) {
+            return null;
+        }
+        GenericSkeleton skeleton = new GenericSkeleton();
+        int count = readVarint(payload);
+        for (int i = 0; i < count; i++) {
+            String data = readString();
+            IResource parent;
+            switch (readVarint(payload)) {
+                case SELF_PARENT:
+                    parent = owner;
+                    break;
+                case REFERENCED_PARENT:
+                    parent = referents.get(readString());
+                    break;
+                default:
+                    parent = null;
+                    break;
+            }
+            String locale = readString();
+            skeleton.add(new GenericSkeletonPart(data, parent, locale == null ? null : LocaleId.fromString(locale)));
+        }
+        return skeleton;
+    }
+
+    private TextContainer readContainer() throws IOException {
+        TextContainer container = new TextContainer();
+        int flags = readVarint(payload);
+        int count = readVarint(payload);
+        List<TextPart> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean segment = payload.readBoolean();
+            String id = readString();
+            String codedText = readString();
+            String codes = readString();
+            TextFragment fragment = new TextFragment(codedText,
+                    codes == null ? new ArrayList<>() : Code.stringToCodes(codes));
+            parts.add(segment ? new Segment(id, fragment) : new TextPart(id, fragment));
+        }
+        container.setParts(parts.toArray(new TextPart[0]));
+        container.setHasBeenSegmentedFlag((flags & SEGMENTED) != 0);
+        return container;
+    }
+
+    private String readString() throws IOException {
+        int index = readVarint(payload);
+        if (index == NULL_STRING) {
+            return null;
+        }
+        if (index == INLINE_STRING) {
+            byte[] bytes = new byte[readVarint(payload)];
+            payload.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        index -= FIRST_TABLE_STRING;
+        if (index >= strings.size()) {
+            throw new IOException("Undefined string " + index + " in the event stream.");
+        }
+        return strings.get(index);
+    }
+
+    // the class is checked before it is initialized: streams come from
+    // other processes
+    static IParameters createParameters(String className) throws IOException {
+        if (Parameters.class.getName().equals(className)) {
+            return new Parameters();
+        }
+        return newInstance(className, IParameters.class, "a filter parameters");
+    }
+
+    private static <T> T newInstance(String className, Class<T> type, String what) throws IOException {
+        try {
+            Class<?> c = Class.forName(className, false, JavaScriptEventReader.class.getClassLoader());
+            if (!type.isAssignableFrom(c)) {
+                throw new IOException("Not " + what + " class: " + className);
+            }
+            return c.asSubclass(type).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot restore " + className, e);
+        }
+    }
+}
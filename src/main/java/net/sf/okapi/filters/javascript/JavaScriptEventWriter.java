@@ -0,0 +1,319 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IParameters;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.ISkeleton;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.annotation.GenericAnnotations;
+import net.sf.okapi.common.annotation.Note;
+import net.sf.okapi.common.annotation.NoteAnnotation;
+import net.sf.okapi.common.encoder.IEncoder;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import net.sf.okapi.common.resource.Code;
+import net.sf.okapi.common.resource.Ending;
+import net.sf.okapi.common.resource.INameable;
+import net.sf.okapi.common.resource.IReferenceable;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.Property;
+import net.sf.okapi.common.resource.StartDocument;
+import net.sf.okapi.common.resource.StartSubfilter;
+import net.sf.okapi.common.resource.TextContainer;
+import net.sf.okapi.common.resource.TextFragment;
+import net.sf.okapi.common.resource.TextPart;
+import net.sf.okapi.common.skeleton.GenericSkeleton;
+import net.sf.okapi.common.skeleton.GenericSkeletonPart;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static net.sf.okapi.filters.javascript.JavaScriptEventFormat.*;
+
+/**
+ * Writes the events of {@link JavaScriptFilter} in a compact binary form,
+ * read back by {@link JavaScriptEventReader}. Document parts, groups and
+ * text units are written with their skeleton, properties, targets, notes
+ * and generic annotations; other annotations are not kept. The start of a
+ * subfilter is written with the start document of the subfilter and the
+ * encoder of its output in the parent document.
+ * <p>
+ * Names, skeleton text and other short strings are written once per stream
+ * and then referred to by their index, which keeps the many repeated
+ * quotes, separators and indentations of a document down to a byte or two.
+ */
+public class JavaScriptEventWriter implements AutoCloseable {
+    // longer strings rarely repeat and are written inline
+    private static final int MAX_TABLE_STRING_LENGTH = 256;
+    private static final int MAX_TABLE_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(1024);
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public JavaScriptEventWriter(OutputStream output) {
+        out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot write the event stream.", e);
+        }
+    }
+
+    /**
+     * Writes an event. No-op events are skipped.
+     *
+     * @throws OkapiException for events of a type this format does not
+     * carry, such as the batch and raw document events of a pipeline.
+     */
+    public void write(Event event) {
+        try {
+            if (strings.size() >= MAX_TABLE_SIZE) {
+                // only between events: the indices of an event are all in the same table
+                writeRecordHeader(RESET, 0);
+                strings.clear();
+            }
+            payloadBytes.reset();
+            int type;
+            switch (event.getEventType()) {
+                case NO_OP:
+                    return;
+                case START_DOCUMENT:
+                    type = START_DOCUMENT;
+                    writeStartDocument(event.getStartDocument());
+                    break;
+                case END_DOCUMENT:
+                    type = END_DOCUMENT;
+                    writeEnding(event.getEnding());
+                    break;
+                case START_GROUP:
+                    type = START_GROUP;
+                    writeNameable(event.getStartGroup());
+                    writeString(event.getStartGroup().getParentId());
+                    break;
+                case END_GROUP:
+                    type = END_GROUP;
+                    writeEnding(event.getEnding());
+                    break;
+                case TEXT_UNIT:
+                    type = TEXT_UNIT;
+                    writeTextUnit(event.getTextUnit());
+                    break;
+                case DOCUMENT_PART:
+                    type = DOCUMENT_PART;
+                    writeNameable(event.getDocumentPart());
+                    break;
+                case START_SUBFILTER:
+                    type = START_SUBFILTER;
+                    writeStartSubfilter(event.getStartSubfilter());
+                    break;
+                case END_SUBFILTER:
+                    type = END_SUBFILTER;
+                    writeEnding(event.getEndSubfilter());
+                    break;
+                default:
+                    throw new OkapiException("Cannot serialize " + event.getEventType() + " events.");
+            }
+            writeRecordHeader(type, payloadBytes.size());
+            payloadBytes.writeTo(out);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot write the event stream.", e);
+        }
+    }
+
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot write the event stream.", e);
+        }
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     */
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot close the event stream.", e);
+        }
+    }
+
+    private void writeStartDocument(StartDocument sd) throws IOException {
+        writeNameable(sd);
+        writeString(sd.getEncoding());
+        writeString(sd.getLocale() == null ? null : sd.getLocale().toString());
+        writeString(sd.getLineBreak());
+        writeString(sd.getFilterId());
+        IParameters params = sd.getFilterParameters();
+        writeString(params == null ? null : params.getClass().getName());
+        writeString(params == null ? null : params.toString());
+        writeVarint(payload, (sd.hasUTF8BOM() ? UTF8_BOM : 0) | (sd.isMultilingual() ? MULTILINGUAL : 0));
+    }
+
+    // the start document and the encoder first: the reader needs them to
+    // create the resource
+    private void writeStartSubfilter(StartSubfilter ssf) throws IOException {
+        writeStartDocument(ssf.getStartDoc());
+        IEncoder encoder = ssf.getParentEncoder();
+        writeString(encoder == null ? null : encoder.getClass().getName());
+        if (encoder != null) {
+            IParameters params = encoder.getParameters();
+            writeString(params == null ? null : params.getClass().getName());
+            writeString(params == null ? null : params.toString());
+            writeString(encoder.getEncoding());
+            writeString(encoder.getLineBreak());
+        }
+        writeNameable(ssf);
+        writeString(ssf.getParentId());
+    }
+
+    private void writeEnding(Ending ending) throws IOException {
+        writeString(ending.getId());
+        writeSkeleton(ending.getSkeleton(), ending);
+    }
+
+    private void writeTextUnit(ITextUnit tu) throws IOException {
+        writeNameable(tu);
+        writeContainer(tu.getSource());
+        Set<LocaleId> locales = tu.getTargetLocales();
+        writeVarint(payload, locales.size());
+        for (LocaleId locale : locales) {
+            writeString(locale.toString());
+            writeContainer(tu.getTarget(locale));
+        }
+
+        NoteAnnotation notes = tu.getAnnotation(NoteAnnotation.class);
+        int count = 0;
+        if (notes != null) {
+            for (Note ignored : notes) {
+                count++;
+            }
+        }
+        writeVarint(payload, count);
+        if (notes != null) {
+            for (Note note : notes) {
+                writeString(note.getNoteText());
+                writeString(note.getAnnotates() == null ? null : note.getAnnotates().name());
+                writeString(note.getPriority() == null ? null : note.getPriority().name());
+                writeString(note.getFrom());
+                writeString(note.getXmLang());
+            }
+        }
+        GenericAnnotations annotations = tu.getAnnotation(GenericAnnotations.class);
+        writeString(annotations == null || annotations.size() == 0 ? null : annotations.toString());
+    }
+
+    // id, names, flags, properties and skeleton
+    private void writeNameable(INameable resource) throws IOException {
+        writeString(resource.getId());
+        writeString(resource.getName());
+        writeString(resource.getType());
+        writeString(resource.getMimeType());
+        int flags = (resource.isTranslatable() ? TRANSLATABLE : 0)
+                | (resource.preserveWhitespaces() ? PRESERVE_WHITESPACES : 0);
+        int references = 0;
+        if (resource instanceof IReferenceable) {
+            IReferenceable referenceable = (IReferenceable) resource;
+            flags |= referenceable.isReferent() ? REFERENT : 0;
+            references = referenceable.getReferenceCount();
+        }
+        writeVarint(payload, flags);
+        writeVarint(payload, references);
+
+        Set<String> names = resource.getPropertyNames();
+        writeVarint(payload, names.size());
+        for (String name : names) {
+            Property property = resource.getProperty(name);
+            writeString(property.getName());
+            writeString(property.getValue());
+            payload.writeBoolean(property.isReadOnly());
+        }
+        writeSkeleton(resource.getSkeleton(), resource);
+    }
+
+    private void writeSkeleton(ISkeleton skeleton, IResource owner) throws IOException {
+        if (skeleton == null) {
+            writeVarint(payload, NO_SKELETON);
+            return;
+        }
+        writeVarint(payload, GENERIC_SKELETON);
+        if (!(skeleton instanceof GenericSkeleton)) {
+            // spilled skeleton text, written as a plain part
+            writeVarint(payload, 1);
+            writeString(skeleton.toString());
+            writeVarint(payload, NO_PARENT);
+            writeString(null);
+            return;
+        }
+        List<GenericSkeletonPart> parts = ((GenericSkeleton) skeleton).getParts();
+        writeVarint(payload, parts.size());
+        for (GenericSkeletonPart part : parts) {
+            writeString(part.toString());
+            IResource parent = part.getParent();
+            if (parent == null) {
+                writeVarint(payload, NO_PARENT);
+            } else if (parent == owner) {
+                writeVarint(payload, SELF_PARENT);
+            } else {
+                writeVarint(payload, REFERENCED_PARENT);
+                writeString(parent.getId());
+            }
+            writeString(part.getLocale() == null ? null : part.getLocale().toString());
+        }
+    }
+
+    private void writeContainer(TextContainer container) throws IOException {
+        List<TextPart> parts = container.getParts();
+        writeVarint(payload, container.hasBeenSegmented() ? SEGMENTED : 0);
+        writeVarint(payload, parts.size());
+        for (TextPart part : parts) {
+            payload.writeBoolean(part.isSegment());
+            writeString(part.getId());
+            TextFragment fragment = part.getContent();
+            writeString(fragment.getCodedText());
+            List<Code> codes = fragment.getCodes();
+            writeString(codes.isEmpty() ? null : Code.codesToString(codes));
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarint(payload, NULL_STRING);
+            return;
+        }
+        if (s.length() > MAX_TABLE_STRING_LENGTH) {
+            writeVarint(payload, INLINE_STRING);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(payload, bytes.length);
+            payload.write(bytes);
+            return;
+        }
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.put(s, index);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeRecordHeader(STRING, bytes.length);
+            out.write(bytes);
+        }
+        writeVarint(payload, FIRST_TABLE_STRING + index);
+    }
+
+    private void writeRecordHeader(int type, int length) throws IOException {
+        out.writeByte(type);
+        writeVarint(out, length);
+    }
+}
@@ -13,27 +13,42 @@ import net.sf.okapi.common.filters.AbstractFilter;
 import net.sf.okapi.common.filters.FilterConfiguration;
 import net.sf.okapi.common.filters.IFilter;
 import net.sf.okapi.common.filters.SubFilter;
+import net.sf.okapi.common.resource.DocumentPart;
 import net.sf.okapi.common.resource.ITextUnit;
 import net.sf.okapi.common.resource.RawDocument;
 import net.sf.okapi.common.skeleton.GenericSkeleton;
 import net.sf.okapi.common.skeleton.ISkeletonWriter;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @UsingParameters(Parameters.class)
 public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandler {
     private static final String MIMETYPE = "application/javascript";
+    // tokens parsed at least each time next() parses on, so that the
+    // spilled skeleton is mapped again for a batch of events, not for each
+    private static final int READ_AHEAD_TOKENS = 4096;
+    // documents passed through by the pre-scan, in all filter instances
+    private static final AtomicLong skippedDocuments = new AtomicLong();
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private boolean hasUtf8Bom;
@@ -42,50 +57,54 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
     private JavaScriptEventBuilder eventBuilder;
     private EncoderManager encoderManager;
     private IFilter subFilter;
-    private Stack<KeyAndType> keyNames;
+    private final JavaScriptKeyPath keyPath;
     private String currentKeyName;
     private JavaScriptKeyTypes currentKeyType;
-    private Pattern exceptions;
+    private JavaScriptRules rules;
     private int subfilterIndex;
     private RawDocument input;
-    // Experimental. No nesting supported.
-    private NoteAnnotation notes = null;
-    private Pattern noteRulesPat = null;
-    private Pattern idRulesPat = null;
-    private Pattern extractionRulesPat = null;
-    private Pattern genericMetaRulesPat = null;
-    private Pattern subfilterRulesPat = null;
-    private String currentId;
-    private List<MetaData> currentGenericMeta;
-    private List<ITextUnit> currentTus;
-    private Stack<Integer> currentArrayIndex;
-    private StringBuilder keylessArrayPath;
+    // the objects being parsed, innermost first, and the TUs found in them
+    private final Deque<Scope> scopes = new ArrayDeque<>();
+    private final List<ITextUnit> scopeTextUnits = new ArrayList<>();
+    // skeleton spilling
+    private JavaScriptSkeletonStore skeletonStore;
+    private int skeletonSpillThreshold;
+    private long skeletonLength;
+    private long pendingSpillOffset;
+    private int pendingSpillLength;
+    // the parser of a document parsed by next(), until its end
+    private JavaScriptVisitor lazyParser;
+    // incremental extraction
+    private JavaScriptFingerprint previousFingerprint;
+    private JavaScriptFingerprint fingerprint;
+    private List<String> removedKeys = Collections.emptyList();
+    // TU post-processing threads, kept between documents
+    private ThreadPoolExecutor postProcessor;
+    private JavaScriptCancellationToken cancellationToken;
+    private JavaScriptMemoryBudget memoryBudget = JavaScriptMemoryBudget.getDefault();
+    private JavaScriptMemoryBudget.Reservation memoryReservation;
 
-    private static class KeyAndType {
-        public KeyAndType(String name, JavaScriptKeyTypes type) {
-            this.name = name;
-            this.type = type;
-        }
-
-        String name;
-        JavaScriptKeyTypes type;
-    }
+    /*
+     * The ID, notes and metadata found in an object. The notes and metadata
+     * are set as read-only annotations shared by every TU of the object and
+     * of the objects nested in it; the ID names the TUs of the object itself.
+     */
+    private static class Scope {
+        // index of its first TU in scopeTextUnits
+        final int firstTextUnit;
+        List<ITextUnit> ownTextUnits;
+        String id;
+        List<Note> notes;
+        GenericAnnotation metadata;
 
-    private static class MetaData {
-        public MetaData(String name, String value) {
-            this.name = name;
-            this.value = value;
+        Scope(int firstTextUnit) {
+            this.firstTextUnit = firstTextUnit;
         }
-
-        String name;
-        String value;
     }
 
     public JavaScriptFilter() {
         super();
-        currentTus = new LinkedList<>();
-        currentArrayIndex = new Stack<>();
-        keylessArrayPath = new StringBuilder();
+        keyPath = new JavaScriptKeyPath();
         setMimeType(MIMETYPE);
         setMultilingual(false);
         setName("okf_js"); //$NON-NLS-1$
@@ -93,8 +112,6 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
         addConfiguration(new FilterConfiguration(getName(), MIMETYPE, getClass().getName(),
                 "JavaScript", "Configuration for JavaScript files", null, ".js;"));
         setParameters(new Parameters());
-
-        currentGenericMeta = new LinkedList<>();
     }
 
     @Override
@@ -105,6 +122,13 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
         if (input != null) {
             input.close();
         }
+        closeSkeletonStore();
+        lazyParser = null;
+        if (eventBuilder != null) {
+            eventBuilder.cancelPostProcessing();
+        }
+        cancellationToken = null;
+        releaseMemory();
     }
 
     @Override
@@ -114,7 +138,56 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
 
     @Override
     public Event next() {
-        return eventBuilder.next();
+        checkCancelled();
+        if (lazyParser != null && (!eventBuilder.hasQueuedEvents() || isHeld())) {
+            parseAhead();
+        }
+        Event event = eventBuilder.next();
+        if (!eventBuilder.hasNext()) {
+            releaseMemory();
+        }
+        return event;
+    }
+
+    /*
+     * Parses on until events can be returned, at least READ_AHEAD_TOKENS
+     * tokens.
+     */
+    private void parseAhead() {
+        try {
+            int tokens = 0;
+            while (tokens++ < READ_AHEAD_TOKENS || !eventBuilder.hasQueuedEvents() || isHeld()) {
+                if (!lazyParser.visitNextToken()) {
+                    lazyParser = null;
+                    handleEnd();
+                    return;
+                }
+            }
+        } catch (JavaScriptCancelledException e) {
+            releaseDocument();
+            throw e;
+        } catch (Exception e) {
+            lazyParser = null;
+            throw new OkapiBadFilterInputException(String.format("Error parsing JSON file: %s", e.getMessage()), e);
+        }
+    }
+
+    // the TUs of an open object get their ID, notes and metadata when it
+    // closes, so no event is returned before that
+    private boolean isHeld() {
+        return !scopes.isEmpty() && rules.hasScopeRules();
+    }
+
+    /**
+     * Sets the budget the documents reserve their memory from, by default
+     * {@link JavaScriptMemoryBudget#getDefault()}.
+     */
+    public void setMemoryBudget(JavaScriptMemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public JavaScriptMemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
     @Override
@@ -124,8 +197,30 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
 
     @Override
     public void open(RawDocument input, boolean generateSkeleton) {
+        open(input, generateSkeleton, null);
+    }
+
+    /**
+     * Opens a document that can be cancelled, or stopped at a deadline,
+     * with the given token. Cancellation is checked while the document is
+     * parsed and by {@link #next()}.
+     * <p>
+     * With a skeleton spill threshold, a UTF-8 document is parsed by
+     * {@link #next()} as its events are read, rather than in this method:
+     * the heap then holds the content of the document and the events not
+     * yet read, but not all of its events. Parsing errors are thrown by
+     * {@link #next()} in that case.
+     *
+     * @param cancellationToken the token, or null for none
+     * @throws JavaScriptCancelledException when cancelled; the document
+     *                                      and its buffered events are released.
+     */
+    public void open(RawDocument input, boolean generateSkeleton, JavaScriptCancellationToken cancellationToken) {
         // save reference for clean up
         this.input = input;
+        this.cancellationToken = cancellationToken;
+        releaseMemory();
+        checkCancelled();
 
         super.open(input, generateSkeleton);
 
@@ -152,52 +247,8 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
             setDocumentName(input.getInputURI().getPath());
         }
 
-        // Pre-compile exceptions or set them to null
-        if (Util.isEmpty(params.getExceptions())) {
-            exceptions = null;
-        } else {
-            exceptions = Pattern.compile(params.getExceptions());
-        }
-
-        // Pre-compile the regex pattern from the noteRules
-        String noteRules = params.getNoteRules();
-        if (!noteRules.isEmpty()) {
-            noteRulesPat = Pattern.compile(noteRules);
-        } else {
-            noteRulesPat = null;
-        }
-
-        // Pre-compile the regex pattern from the idRules
-        String idRules = params.getIdRules();
-        if (!idRules.isEmpty()) {
-            idRulesPat = Pattern.compile(idRules);
-        } else {
-            idRulesPat = null;
-        }
-
-        // Pre-compile the regex pattern from the extractionRules
-        String extractionRules = params.getExtractionRules();
-        if (!extractionRules.isEmpty()) {
-            extractionRulesPat = Pattern.compile(extractionRules);
-        } else {
-            extractionRulesPat = null;
-        }
-
-        // Pre-compile the regex pattern from the genericMetaRules
-        String genericMetaRules = params.getGenericMetaRules();
-        if (!genericMetaRules.isEmpty()) {
-            genericMetaRulesPat = Pattern.compile(genericMetaRules);
-        } else {
-            genericMetaRulesPat = null;
-        }
-
-        // Pre-compile the regex pattern from the subfilterRules
-        String subfilterRules = params.getSubfilterRules();
-        if (!subfilterRules.isEmpty()) {
-            subfilterRulesPat = Pattern.compile(subfilterRules);
-        } else {
-            subfilterRulesPat = null;
-        }
+        // Pre-compile the key path rules
+        rules = new JavaScriptRules(params);
 
         // create EventBuilder with document name as rootId
         if (eventBuilder == null) {
@@ -212,6 +263,14 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
         if (params.getUseCodeFinder()) {
             params.getCodeFinder().compile();
             eventBuilder.setCodeFinder(params.getCodeFinder());
+        } else {
+            eventBuilder.setCodeFinder(null);
+        }
+        if (params.getPostProcessingThreads() > 0) {
+            eventBuilder.setPostProcessor(getPostProcessor(params.getPostProcessingThreads()),
+                    this::createEncoderManager);
+        } else {
+            eventBuilder.setPostProcessor(null, null);
         }
 
         // Initialize the subfilter
@@ -223,18 +282,195 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
         }
         subfilterIndex = 0;
 
-        keyNames = new Stack<>();
+        keyPath.reset(params);
+        scopes.clear();
+        scopeTextUnits.clear();
+        closeSkeletonStore();
+        skeletonSpillThreshold = params.getSkeletonSpillThreshold();
+        skeletonLength = 0;
+        pendingSpillLength = 0;
         currentKeyName = null;
         currentKeyType = JavaScriptKeyTypes.DEFAULT;
+        fingerprint = previousFingerprint == null ? null : new JavaScriptFingerprint();
+        removedKeys = Collections.emptyList();
 
         JavaScriptVisitor parser = new JavaScriptVisitor(this);
+        parser.setCancellationToken(cancellationToken);
         try {
-            parser.visit(reader);
+            if (isUtf8(encoding)) {
+                // lex the bytes directly, only the tokens we use get decoded
+                byte[] content = detector.getInputStream().readAllBytes();
+                if (canSkip(content)) {
+                    skippedDocuments.incrementAndGet();
+                    reserveMemory(content.length * JavaScriptMemoryBudget.PASS_THROUGH_FACTOR, false);
+                    passThrough(new String(content, StandardCharsets.UTF_8));
+                } else {
+                    reserveMemory(content.length);
+                    if (JavaScriptUtf8Lexer.isWellFormed(content, 0, content.length)) {
+                        if (skeletonSpillThreshold > 0) {
+                            // the rest is parsed by next()
+                            handleStart();
+                            parser.start(content, 0, content.length, 0, false);
+                            lazyParser = parser;
+                        } else {
+                            parser.visit(content, 0, content.length);
+                        }
+                    } else {
+                        // let the decoder replace the malformed sequences
+                        parser.visit(new InputStreamReader(new ByteArrayInputStream(content),
+                                StandardCharsets.UTF_8));
+                    }
+                }
+            } else {
+                CharStream stream = CharStreams.fromReader(reader);
+                reserveMemory(stream.size());
+                parser.visit(stream);
+            }
+        } catch (JavaScriptCancelledException e) {
+            releaseDocument();
+            throw e;
         } catch (Exception e) {
             throw new OkapiBadFilterInputException(String.format("Error parsing JSON file: %s", e.getMessage()), e);
         }
     }
 
+    /*
+     * Reserves the memory of a document of the given length, after
+     * switching one too large for the budget to spill its skeleton.
+     */
+    private void reserveMemory(long length) {
+        boolean spilled = skeletonSpillThreshold > 0;
+        long bytes = JavaScriptMemoryBudget.estimate(length, isGenerateSkeleton(), spilled);
+        boolean lowMemory = false;
+        if (isGenerateSkeleton() && memoryBudget.isOversized(bytes)
+                && (!spilled || skeletonSpillThreshold > JavaScriptMemoryBudget.LOW_MEMORY_SPILL_THRESHOLD)) {
+            skeletonSpillThreshold = JavaScriptMemoryBudget.LOW_MEMORY_SPILL_THRESHOLD;
+            bytes = JavaScriptMemoryBudget.estimate(length, true, true);
+            lowMemory = true;
+        }
+        reserveMemory(bytes, lowMemory);
+    }
+
+    private void reserveMemory(long bytes, boolean lowMemory) {
+        memoryReservation = memoryBudget.reserve(bytes, lowMemory, cancellationToken);
+    }
+
+    private void releaseMemory() {
+        if (memoryReservation != null) {
+            memoryReservation.close();
+            memoryReservation = null;
+        }
+    }
+
+    /*
+     * Values that are not extracted can still go to the subfilter or
+     * into the fingerprint, so no document is skipped when those are used.
+     */
+    private boolean canSkip(byte[] content) {
+        if (!params.getPreScan() || subFilter != null || fingerprint != null) {
+            return false;
+        }
+        return !JavaScriptPreScan.canExtract(params)
+                || !JavaScriptPreScan.mayHaveStringValues(content, 0, content.length);
+    }
+
+    // the whole document as a single document part
+    private void passThrough(String content) {
+        handleStart();
+        if (isGenerateSkeleton() && skeletonSpillThreshold > 0 && content.length() >= skeletonSpillThreshold) {
+            spillSkeleton(content);
+        } else {
+            addDocumentPart(content);
+        }
+        handleEnd();
+    }
+
+    /**
+     * @return the number of documents passed through without parsing
+     * because the pre-scan found nothing to extract in them, by all the
+     * filter instances.
+     */
+    public static long getSkippedDocumentCount() {
+        return skippedDocuments.get();
+    }
+
+    private void checkCancelled() {
+        if (cancellationToken != null) {
+            try {
+                cancellationToken.throwIfCancelled();
+            } catch (JavaScriptCancelledException e) {
+                releaseDocument();
+                throw e;
+            }
+        }
+    }
+
+    // drops the document and the events buffered for it
+    private void releaseDocument() {
+        if (eventBuilder != null) {
+            eventBuilder.reset(getParentId(), this);
+        }
+        scopes.clear();
+        scopeTextUnits.clear();
+        fingerprint = null;
+        close();
+    }
+
+    /*
+     * Idle threads time out, so a filter that is no longer used does not
+     * keep any thread alive.
+     */
+    private ThreadPoolExecutor getPostProcessor(int threads) {
+        if (postProcessor == null || postProcessor.getCorePoolSize() != threads) {
+            if (postProcessor != null) {
+                postProcessor.shutdown();
+            }
+            postProcessor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "js-post-processing");
+                thread.setDaemon(true);
+                return thread;
+            });
+            postProcessor.allowCoreThreadTimeOut(true);
+        }
+        return postProcessor;
+    }
+
+    private static boolean isUtf8(String encoding) {
+        try {
+            return StandardCharsets.UTF_8.equals(Charset.forName(encoding));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the fingerprint of the previous version of the document. Values
+     * whose hash did not change since then are kept in the skeleton instead
+     * of being extracted. Use an empty fingerprint to extract everything and
+     * record a first fingerprint, null (the default) to turn this off.
+     */
+    public void setPreviousFingerprint(JavaScriptFingerprint previousFingerprint) {
+        this.previousFingerprint = previousFingerprint;
+    }
+
+    /**
+     * @return the fingerprint of the last opened document, or null if no
+     * previous fingerprint was set. Complete once the document is parsed,
+     * which for a document parsed by {@link #next()} is after its last event.
+     */
+    public JavaScriptFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the keys of the previous fingerprint that are no longer in the
+     * last opened document, once it is parsed.
+     */
+    public List<String> getRemovedKeys() {
+        return removedKeys;
+    }
+
     @Override
     public Parameters getParameters() {
         return params;
@@ -251,12 +487,23 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
     @Override
     public EncoderManager getEncoderManager() {
         if (encoderManager == null) {
-            encoderManager = super.getEncoderManager();
-            encoderManager.setMapping(MIMETYPE, "net.sf.okapi.common.encoder.JSONEncoder");
+            encoderManager = createEncoderManager();
         }
         return encoderManager;
     }
 
+    /**
+     * Creates a new encoder manager configured like the one of this filter,
+     * for writers that cannot share it.
+     */
+    EncoderManager createEncoderManager() {
+        EncoderManager manager = new EncoderManager();
+        manager.setAllKnownMappings();
+        manager.setDefaultOptions(getParameters(), "UTF-8", getNewlineType());
+        manager.setMapping(MIMETYPE, "net.sf.okapi.common.encoder.JSONEncoder");
+        return manager;
+    }
+
     @Override
     protected boolean isUtf8Encoding() {
         return hasUtf8Encoding;
@@ -276,6 +523,15 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
 
     @Override
     public void handleEnd() {
+        if (fingerprint != null) {
+            removedKeys = previousFingerprint.keysNotIn(fingerprint);
+        }
+        flushSpilledSkeleton();
+        // objects and lists left open by a truncated document: closed
+        // without adding text to it
+        while (eventBuilder.isCurrentGroup()) {
+            eventBuilder.endGroup(new GenericSkeleton());
+        }
         // clear out all temp events
         eventBuilder.flushRemainingTempEvents();
         // add the final endDocument event
@@ -284,19 +540,19 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
 
     @Override
     public void handleComment(String c) {
-        eventBuilder.addDocumentPart(c);
+        addDocumentPart(c);
     }
 
     @Override
     public void handleKey(String key, JavaScriptValueTypes valueType, JavaScriptKeyTypes keyType) {
-        eventBuilder.addDocumentPart(String.format("%s%s%s", valueType.getQuoteChar(), key, valueType.getQuoteChar()));
+        addDocumentPart(key, valueType);
         currentKeyName = key;
         currentKeyType = keyType;
     }
 
     @Override
     public void handleWhitespace(String whitespace) {
-        eventBuilder.addDocumentPart(whitespace);
+        addDocumentPart(whitespace);
     }
 
     @Override
@@ -309,121 +565,86 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
         currentKeyType = JavaScriptKeyTypes.DEFAULT;
 
         if (!params.getExtractStandalone() && key == null) {
-            eventBuilder.addDocumentPart(
-                    String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
+            addDocumentPart(value, valueType);
             return;
         }
 
-        // Skip by these value types by default
+        // only strings are extracted: other values are skeleton, without
+        // building their key path or matching any rule
         switch (valueType) {
             case BOOLEAN:
             case NULL:
             case NUMBER:
             case SYMBOL:
-                eventBuilder.addDocumentPart(value);
+            case DEFAULT:
+                addDocumentPart(value);
                 return;
             default:
                 break;
         }
 
         // build the unique path to the current value
-        String fullPathOrKey = buildKeyPath(key);
-
-        // check if we have an IdRule match
-        // only one ID string per extractable string allowed
-        if (idRulesPat != null && fullPathOrKey != null) {
-            Matcher m = idRulesPat.matcher(fullPathOrKey);
-            if (m.matches()) {
-                currentId = value;
-                eventBuilder.addDocumentPart(
-                        String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
-                return;
-            }
-        }
+        String fullPathOrKey = keyPath.build(key);
 
-        // check if we have a note
-        if (noteRulesPat != null && fullPathOrKey != null) {
-            Matcher m = noteRulesPat.matcher(fullPathOrKey);
-            if (m.matches()) {
-                Note n = new Note(value);
-                n.setAnnotates(Note.Annotates.SOURCE);
-                n.setFrom(key);
-
-                if (notes == null) {
-                    notes = new NoteAnnotation();
+        switch (rules.match(fullPathOrKey)) {
+            case ID:
+                // only one ID string per extractable string allowed
+                if (!scopes.isEmpty()) {
+                    scopes.peek().id = value;
                 }
-                // This will be attached to the next TUs until the closing "}".
-                notes.add(n);
-                eventBuilder.addDocumentPart(
-                        String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
-                return;
-            }
-        }
-
-        // check if we have a genericMetaRule match
-        if (genericMetaRulesPat != null && fullPathOrKey != null) {
-            Matcher m = genericMetaRulesPat.matcher(fullPathOrKey);
-            if (m.matches()) {
-                currentGenericMeta.add(new MetaData(fullPathOrKey, value));
-                eventBuilder.addDocumentPart(
-                        String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
+                addDocumentPart(value, valueType);
                 return;
-            }
-        }
-
-        // new extraction rules have priority over extraction exceptions
-        if (extractionRulesPat != null && fullPathOrKey != null) {
-            Matcher m = extractionRulesPat.matcher(fullPathOrKey);
-            if (!m.matches()) {
-                eventBuilder.addDocumentPart(
-                        String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
+            case NOTE:
+                // attached to the TUs of the object at its closing "}"
+                Scope scope = scopes.peek();
+                if (scope != null) {
+                    if (scope.notes == null) {
+                        scope.notes = new ArrayList<>();
+                    }
+                    Note note = new Note(value);
+                    note.setAnnotates(Note.Annotates.SOURCE);
+                    note.setFrom(key);
+                    scope.notes.add(note);
+                }
+                addDocumentPart(value, valueType);
                 return;
-            }
-        } else {
-            // deprecated extraction exceptions
-            // if no extraction rules found fall back on
-            // old extraction logic
-            boolean extract = params.getExtractAllPairs();
-            if (exceptions != null && fullPathOrKey != null) {
-                if (exceptions.matcher(fullPathOrKey).find()) {
-                    // It's an exception, so we reverse the extraction flag
-                    extract = !extract;
+            case METADATA:
+                if (!scopes.isEmpty()) {
+                    if (scopes.peek().metadata == null) {
+                        scopes.peek().metadata = new GenericAnnotation(GenericAnnotationType.MISC_METADATA);
+                    }
+                    scopes.peek().metadata.setString(fullPathOrKey, value);
                 }
-            }
-
-            if (!extract) { // Not to extract
-                eventBuilder.addDocumentPart(
-                        String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
+                addDocumentPart(value, valueType);
                 return;
-            }
+            case SKIP:
+                addDocumentPart(value, valueType);
+                return;
+            default:
+                break;
         }
 
-        if (subFilter != null) {
-            boolean shouldSubfilter = true;
-            if (subfilterRulesPat != null) {
-                shouldSubfilter = subfilterRulesPat.matcher(fullPathOrKey).matches();
-            }
-            if (shouldSubfilter) {
-                callSubfilter(value, valueType, fullPathOrKey);
-                return;
-            }
+        if (subFilter != null && rules.isSubfilterMatch(fullPathOrKey)) {
+            callSubfilter(value, valueType, fullPathOrKey);
+            return;
         }
 
-        switch (valueType) {
-            case DOUBLE_QUOTED_STRING:
-            case SINGLE_QUOTED_STRING:
-                eventBuilder.startTextUnit(new GenericSkeleton(valueType.getQuoteChar()));
-                createTextUnit(value, fullPathOrKey);
-                eventBuilder.endTextUnit(new GenericSkeleton(valueType.getQuoteChar()));
-                break;
-            case SYMBOL:
-            case NUMBER:
-                eventBuilder.startTextUnit(value);
-                createTextUnit(value, fullPathOrKey);
-                eventBuilder.endTextUnit();
-                break;
-            default:
-                break;
+        if (fingerprint != null && isUnchanged(fullPathOrKey, value)) {
+            addDocumentPart(value, valueType);
+            return;
+        }
+
+        // only quoted strings are left
+        flushSpilledSkeleton();
+        if (!isGenerateSkeleton()) {
+            // no skeleton wanted: TEXT_UNITs only, without quote parts
+            eventBuilder.startTextUnit();
+            createTextUnit(value, fullPathOrKey);
+            eventBuilder.endTextUnit();
+        } else {
+            eventBuilder.startTextUnit(new GenericSkeleton(valueType.getQuoteChar()));
+            createTextUnit(value, fullPathOrKey);
+            eventBuilder.endTextUnit(new GenericSkeleton(valueType.getQuoteChar()));
         }
         logger.debug("KEYNAME: {} : {}", fullPathOrKey, value);
     }
@@ -441,11 +662,23 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
             if (params.getUseKeyAsName()) {
                 tu.setName(key);
             }
-            currentTus.add(tu);
+            addToScope(tu);
         }
     }
 
+    /*
+     * Records the value in the fingerprint and tells whether it has the
+     * same hash in the previous version.
+     */
+    private boolean isUnchanged(String keyPath, String value) {
+        long hash = JavaScriptFingerprint.hash(JavaScriptEventBuilder.decode(value));
+        String key = fingerprint.put(keyPath == null ? "" : keyPath, hash);
+        Long previousHash = previousFingerprint.get(key);
+        return previousHash != null && previousHash == hash;
+    }
+
     private void callSubfilter(String value, JavaScriptValueTypes valueType, String parentName) {
+        flushSpilledSkeleton();
         String parentId = eventBuilder.findMostRecentParentId();
         if (parentId == null) {
             parentId = getDocumentId().getLastId();
@@ -456,144 +689,181 @@ public class JavaScriptFilter extends AbstractFilter implements JavaScriptHandle
         subEncoder.setOptions(params, this.getEncoding(), this.getNewlineType());
         try (SubFilter sf = new SubFilter(subFilter, subEncoder, ++subfilterIndex, parentId, parentName)) {
 
-            // RawDocument closed inside the subfilter call
-            List<Event> events = sf.getEvents(new RawDocument(eventBuilder.decode(value), getSrcLoc(), getTrgLoc()));
-            eventBuilder.addFilterEvents(events);
+            // the value is decoded as the subfilter reads it, and its events
+            // are passed on one by one. RawDocument closed with the subfilter
+            sf.open(new RawDocument(new JavaScriptDecodingReader(value).toUtf8Stream(), StandardCharsets.UTF_8.name(),
+                    getSrcLoc(), getTrgLoc()), isGenerateSkeleton());
+            while (sf.hasNext()) {
+                if (cancellationToken != null) {
+                    cancellationToken.throwIfCancelled();
+                }
+                Event event = sf.next();
+                eventBuilder.addFilterEvent(event);
+                if (event.isTextUnit()) {
+                    addToScope(event.getTextUnit());
+                }
+            }
             // Now write out the json skeleton
-            eventBuilder.addToDocumentPart(valueType.getQuoteChar());
-            eventBuilder.addToDocumentPart(sf.createRefCode().toString());
-            eventBuilder.addToDocumentPart(valueType.getQuoteChar());
-
-            // get all the TU's in the filter events
-            currentTus.addAll(events.stream().filter(e -> e.getEventType() == EventType.TEXT_UNIT)
-                    .map(e -> e.getTextUnit()).collect(Collectors.toList()));
+            if (isGenerateSkeleton()) {
+                eventBuilder.addToDocumentPart(valueType.getQuoteChar());
+                eventBuilder.addToDocumentPart(sf.createRefCode().toString());
+                eventBuilder.addToDocumentPart(valueType.getQuoteChar());
+            }
         }
     }
 
     @Override
     public void handleObjectStart() {
-        eventBuilder.startGroup(new GenericSkeleton("{"), "Json Object Start");
-        keyNames.push(new KeyAndType(currentKeyName, currentKeyType));
+        flushSpilledSkeleton();
+        if (isGenerateSkeleton()) {
+            eventBuilder.startGroup(new GenericSkeleton("{"), "Json Object Start");
+        }
+        keyPath.startObject(currentKeyName, currentKeyType);
         currentKeyName = null;
         currentKeyType = JavaScriptKeyTypes.DEFAULT;
+        scopes.push(new Scope(scopeTextUnits.size()));
     }
 
     @Override
     public void handleObjectEnd() {
-        // if this object contained an extractable string
-        // then check for additional metadata
-        // metadata can only be applied if found in a
-        // standalone object with an extractable string
-        if (!currentTus.isEmpty()) {
-            for (ITextUnit tu : currentTus) {
+        // metadata can only be applied if found in an object with
+        // extractable strings
+        Scope scope = scopes.poll();
+        if (scope != null) {
+            List<ITextUnit> textUnits = scopeTextUnits.subList(scope.firstTextUnit, scopeTextUnits.size());
+            if (scope.id != null && scope.ownTextUnits != null) {
                 // ID rule matched use value as name
-                if (currentId != null) {
-                    tu.setName(currentId);
+                for (ITextUnit tu : scope.ownTextUnits) {
+                    tu.setName(scope.id);
                 }
+            }
+            if (scope.notes != null || scope.metadata != null) {
+                annotate(textUnits, scope);
+            }
+            if (scopes.isEmpty()) {
+                textUnits.clear();
+            }
+        }
 
-                if (notes != null) {
-                    tu.setAnnotation(notes);
-                }
+        flushSpilledSkeleton();
+        if (isGenerateSkeleton()) {
+            eventBuilder.endGroup(new GenericSkeleton("}"));
+        }
+        keyPath.endObject();
+    }
+
+    private void addToScope(ITextUnit tu) {
+        Scope scope = scopes.peek();
+        // not kept if nothing can annotate them
+        if (scope != null && rules.hasScopeRules()) {
+            if (scope.ownTextUnits == null) {
+                scope.ownTextUnits = new ArrayList<>();
+            }
+            scope.ownTextUnits.add(tu);
+            scopeTextUnits.add(tu);
+        }
+    }
 
-                if (!currentGenericMeta.isEmpty()) {
-                    GenericAnnotation a = new GenericAnnotation(GenericAnnotationType.MISC_METADATA);
-                    for (MetaData metaData : currentGenericMeta) {
-                        a.setString(metaData.name, metaData.value);
+    // sets the annotations of the scope, read-only and shared, on the TUs
+    // in it
+    private void annotate(List<ITextUnit> textUnits, Scope scope) {
+        // the notes of nested objects come first, joined once for each
+        // distinct set
+        Map<NoteAnnotation, NoteAnnotation> joined = new IdentityHashMap<>();
+        GenericAnnotation metadata = scope.metadata == null ? null
+                : JavaScriptSharedAnnotations.metadata(scope.metadata);
+        for (ITextUnit tu : textUnits) {
+            if (scope.notes != null) {
+                NoteAnnotation nested = tu.getAnnotation(NoteAnnotation.class);
+                NoteAnnotation notes = joined.get(nested);
+                if (notes == null) {
+                    notes = JavaScriptSharedAnnotations.notes(nested, scope.notes);
+                    if (JavaScriptSharedAnnotations.canShareNotes()) {
+                        joined.put(nested, notes);
                     }
-                    GenericAnnotation.addAnnotation(tu, a);
                 }
+                tu.setAnnotation(notes);
+            }
+            if (metadata != null) {
+                GenericAnnotation.addAnnotation(tu, metadata);
             }
         }
-
-        // reset, can only be used once per object
-        notes = null;
-        currentId = null;
-        currentId = null;
-        currentId = null;
-        currentGenericMeta.clear();
-        currentTus.clear();
-
-        eventBuilder.endGroup(new GenericSkeleton("}"));
-        keyNames.pop();
     }
 
     @Override
     public void handleListStart() {
-        // if we are already in an array increment the previous index
-        if (!currentArrayIndex.isEmpty()) {
-            currentArrayIndex.push(currentArrayIndex.pop() + 1);
-        }
-        // push the dummy index to indicate the start of an array
-        currentArrayIndex.add(-1);
-        eventBuilder.startGroup(new GenericSkeleton("["), "Json List Start");
-        keyNames.push(new KeyAndType(currentKeyName, currentKeyType));
+        flushSpilledSkeleton();
+        if (isGenerateSkeleton()) {
+            eventBuilder.startGroup(new GenericSkeleton("["), "Json List Start");
+        }
+        keyPath.startList(currentKeyName, currentKeyType);
         currentKeyName = null;
         currentKeyType = JavaScriptKeyTypes.DEFAULT;
     }
 
     @Override
     public void handleListEnd() {
-        currentArrayIndex.pop();
-        eventBuilder.endGroup(new GenericSkeleton("]"));
-        keyNames.pop();
+        flushSpilledSkeleton();
+        if (isGenerateSkeleton()) {
+            eventBuilder.endGroup(new GenericSkeleton("]"));
+        }
+        keyPath.endList();
     }
 
     @Override
     public void handleSeparator(String separator) {
-        eventBuilder.addDocumentPart(separator);
+        addDocumentPart(separator);
     }
 
-    // build the full path of the key if wanted
-    // otherwise return the original key
-    private String buildKeyPath(String key) {
-        StringBuilder keyPath = new StringBuilder();
-
-        if (!params.getUseFullKeyPath()) {
-            // all values in a list use the immediate parent list key name
-            if (!keyNames.isEmpty() && keyNames.peek().type == JavaScriptKeyTypes.LIST) {
-                return keyNames.peek().name;
-            }
-            return key;
-        }
-
-        // if we don't have a key, and we are inside an array
-        // it must be a keyless array value. Use its index value to create a key
-        if (key == null && !currentArrayIndex.isEmpty()) {
-            StringBuilder arrayKey = new StringBuilder();
-            // increment array index
-            currentArrayIndex.push(currentArrayIndex.pop() + 1);
-            arrayKey.append("array:");
-            Iterator<Integer> it = currentArrayIndex.listIterator();
-            Integer k = it.next();
-            arrayKey.append(k);
-            while (it.hasNext()) {
-                k = it.next();
-                arrayKey.append("/array:");
-                arrayKey.append(k);
+    /*
+     * Skeleton helpers: nothing is formatted or queued when the
+     * filter was opened without skeleton generation.
+     */
+    private void addDocumentPart(String text) {
+        if (isGenerateSkeleton()) {
+            if (skeletonSpillThreshold > 0 && skeletonLength >= skeletonSpillThreshold) {
+                spillSkeleton(text);
+            } else {
+                skeletonLength += text.length();
+                eventBuilder.addDocumentPart(text);
             }
-            key = arrayKey.toString();
         }
+    }
 
-        if (!keyNames.isEmpty()) {
-            Iterator<KeyAndType> it = keyNames.listIterator();
-            while (it.hasNext()) {
-                KeyAndType k = it.next();
-                if (k != null && k.name != null) {
-                    keyPath.append("/").append(k.name);
-                }
-            }
+    private void addDocumentPart(String value, JavaScriptValueTypes valueType) {
+        if (isGenerateSkeleton()) {
+            addDocumentPart(String.format("%s%s%s", valueType.getQuoteChar(), value, valueType.getQuoteChar()));
         }
+    }
 
-        if (key != null && !key.isEmpty()) {
-            keyPath.append("/").append(key);
+    /*
+     * Past the spill threshold, consecutive skeleton parts are appended to
+     * the skeleton store and become a single DocumentPart referencing them.
+     */
+    private void spillSkeleton(String text) {
+        if (skeletonStore == null) {
+            skeletonStore = new JavaScriptSkeletonStore();
+        }
+        long offset = skeletonStore.append(text);
+        if (pendingSpillLength == 0) {
+            pendingSpillOffset = offset;
         }
+        pendingSpillLength += text.length();
+    }
 
-        if (!params.getUseLeadingSlashOnKeyPath()) {
-            if (keyPath.charAt(0) == '/') {
-                keyPath.deleteCharAt(0);
-            }
+    private void flushSpilledSkeleton() {
+        if (pendingSpillLength == 0) {
+            return;
         }
+        DocumentPart dp = eventBuilder.addDocumentPart("");
+        dp.setSkeleton(new JavaScriptSkeletonReference(skeletonStore, pendingSpillOffset, pendingSpillLength));
+        pendingSpillLength = 0;
+    }
 
-        return keyPath.toString();
+    private void closeSkeletonStore() {
+        if (skeletonStore != null) {
+            skeletonStore.close();
+            skeletonStore = null;
+        }
     }
 }
@@ -0,0 +1,167 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.exceptions.OkapiIOException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact fingerprint of the extractable values of a document: the key path
+ * of each value mapped to a 64-bit FNV-1a hash of its decoded text. Used by
+ * {@link JavaScriptFilter#setPreviousFingerprint(JavaScriptFingerprint)} to
+ * extract only what changed since a previous version.
+ * <p>
+ * Repeated key paths get a "#n" suffix from their second occurrence on,
+ * n being the occurrence of the key path, so a key path repeated once more
+ * does not renumber the others.
+ */
+public class JavaScriptFingerprint {
+    private static final int MAGIC = 0x4A534650; // "JSFP"
+    private static final int VERSION = 1;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Map<String, Long> hashes;
+    // the last occurrence numbered for each repeated key path
+    private final Map<String, Integer> occurrences = new HashMap<>();
+
+    public JavaScriptFingerprint() {
+        hashes = new LinkedHashMap<>();
+    }
+
+    private JavaScriptFingerprint(int size) {
+        hashes = new LinkedHashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+    }
+
+    /**
+     * Adds the hash of a value.
+     *
+     * @return the key the hash was stored under, which is the key path
+     * itself unless it was already used.
+     */
+    public String put(String keyPath, long hash) {
+        String key = keyPath;
+        if (hashes.containsKey(key)) {
+            int n = occurrences.getOrDefault(keyPath, 1);
+            // skips a key path that already ends with the suffix
+            do {
+                key = keyPath + "#" + ++n;
+            } while (hashes.containsKey(key));
+            occurrences.put(keyPath, n);
+        }
+        hashes.put(key, hash);
+        return key;
+    }
+
+    /**
+     * @return the hash stored under the key, or null.
+     */
+    public Long get(String key) {
+        return hashes.get(key);
+    }
+
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(hashes.keySet());
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * @return the keys of this fingerprint that are not in the other one,
+     * in document order.
+     */
+    public List<String> keysNotIn(JavaScriptFingerprint other) {
+        List<String> keys = new ArrayList<>();
+        for (String key : hashes.keySet()) {
+            if (!other.hashes.containsKey(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UTF-16 code units of the text.
+     */
+    public static long hash(CharSequence text) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            h ^= c & 0xFF;
+            h *= FNV_PRIME;
+            h ^= c >>> 8;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    public void save(Path path) {
+        try (OutputStream output = Files.newOutputStream(path)) {
+            write(output);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot write the fingerprint " + path, e);
+        }
+    }
+
+    public static JavaScriptFingerprint load(Path path) {
+        try (InputStream input = Files.newInputStream(path)) {
+            return read(input);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot read the fingerprint " + path, e);
+        }
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(hashes.size());
+        for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeLong(entry.getValue());
+        }
+        out.flush();
+    }
+
+    public static JavaScriptFingerprint read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a fingerprint file.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported fingerprint version " + version);
+        }
+        int size = in.readInt();
+        JavaScriptFingerprint fingerprint = new JavaScriptFingerprint(size);
+        byte[] buffer = new byte[256];
+        for (int i = 0; i < size; i++) {
+            int length = in.readInt();
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            in.readFully(buffer, 0, length);
+            fingerprint.hashes.put(new String(buffer, 0, length, StandardCharsets.UTF_8), in.readLong());
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,418 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.exceptions.OkapiBadFilterInputException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Keeps the extractable strings of a UTF-8 document up to date while it is
+ * edited, for previews that follow every keystroke. The strings are the
+ * ones {@link JavaScriptScanner} reports, with their byte range.
+ * <p>
+ * The state of the visitor and of the key path is recorded at checkpoints
+ * every few kilobytes. An edit is lexed again from the last checkpoint
+ * before it, and only until the state at a token boundary past the edit
+ * is the same as at a checkpoint of the previous version: from there on
+ * the document lexes as before. The lexing work of an edit is thus the
+ * size of the edit plus about two checkpoint intervals; the content, the
+ * strings and the checkpoints after the edit are only moved in place.
+ * <p>
+ * No token looks further than a few bytes past its end, except for
+ * identifiers followed by a broken braced Unicode escape of more than a
+ * dozen hex digits; edits within such an escape may not be seen by the
+ * identifier before it.
+ */
+public class JavaScriptIncrementalDocument {
+    private static final int CHECKPOINT_INTERVAL = 4096;
+    // farthest a token looks past its end, see above
+    private static final int LOOKBACK = 16;
+
+    /**
+     * An extractable string.
+     */
+    public static final class Entry {
+        private final String keyPath;
+        private final String value;
+        private final JavaScriptValueTypes quoteType;
+        private final Checkpoint checkpoint;
+        // relative to the checkpoint, so that edits before it do not touch the entry
+        private final int start;
+        private final int length;
+
+        private Entry(String keyPath, String value, JavaScriptValueTypes quoteType, Checkpoint checkpoint,
+                int start, int length) {
+            this.keyPath = keyPath;
+            this.value = value;
+            this.quoteType = quoteType;
+            this.checkpoint = checkpoint;
+            this.start = start;
+            this.length = length;
+        }
+
+        /**
+         * @return the key or key path the filter would use as TextUnit name.
+         */
+        public String getKeyPath() {
+            return keyPath;
+        }
+
+        /**
+         * @return the decoded string value.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        public JavaScriptValueTypes getQuoteType() {
+            return quoteType;
+        }
+
+        /**
+         * @return the byte offset of the quoted value in the current
+         * content, or in the content it was removed from.
+         */
+        public int getStart() {
+            return checkpoint.offset + start;
+        }
+
+        /**
+         * @return the byte offset after the quoted value.
+         */
+        public int getEnd() {
+            return getStart() + length;
+        }
+
+        private boolean sameString(Entry other) {
+            return Objects.equals(keyPath, other.keyPath) && value.equals(other.value)
+                    && quoteType == other.quoteType;
+        }
+
+        @Override
+        public String toString() {
+            return keyPath + "=" + value;
+        }
+    }
+
+    /**
+     * The strings changed by an edit.
+     */
+    public static final class Delta {
+        private final List<Entry> removed;
+        private final List<Entry> added;
+
+        private Delta(List<Entry> removed, List<Entry> added) {
+            this.removed = Collections.unmodifiableList(removed);
+            this.added = Collections.unmodifiableList(added);
+        }
+
+        /**
+         * @return the strings that are gone or were changed, in their
+         * previous form.
+         */
+        public List<Entry> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the strings that are new or were changed, in document
+         * order.
+         */
+        public List<Entry> getAdded() {
+            return added;
+        }
+
+        public boolean isEmpty() {
+            return removed.isEmpty() && added.isEmpty();
+        }
+    }
+
+    // state at a token boundary
+    private static final class Checkpoint {
+        int offset;
+        int entryIndex;
+        final int objectIndex;
+        final boolean expectValue;
+        final String keyName;
+        final JavaScriptKeyTypes keyType;
+        final JavaScriptKeyPath.Snapshot keyPath;
+
+        Checkpoint(int offset, int entryIndex, int objectIndex, boolean expectValue, String keyName,
+                JavaScriptKeyTypes keyType, JavaScriptKeyPath.Snapshot keyPath) {
+            this.offset = offset;
+            this.entryIndex = entryIndex;
+            this.objectIndex = objectIndex;
+            this.expectValue = expectValue;
+            this.keyName = keyName;
+            this.keyType = keyType;
+            this.keyPath = keyPath;
+        }
+    }
+
+    private final Tracker tracker;
+    private byte[] content;
+    private int contentLength;
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private int relexedBytes;
+
+    /**
+     * @param params the filter parameters, or null for the defaults
+     * @param utf8   the content, well-formed UTF-8 without BOM
+     */
+    public JavaScriptIncrementalDocument(Parameters params, byte[] utf8) {
+        if (!JavaScriptUtf8Lexer.isWellFormed(utf8, 0, utf8.length)) {
+            throw new OkapiBadFilterInputException("The content is not well-formed UTF-8.");
+        }
+        tracker = new Tracker(params == null ? new Parameters() : params);
+        content = utf8.clone();
+        contentLength = content.length;
+        Checkpoint start = tracker.checkpoint(0, 0);
+        tracker.start(content, contentLength, start);
+        relex(start, Integer.MAX_VALUE, 0, 0, entries, checkpoints);
+    }
+
+    /**
+     * Replaces a range of the content.
+     *
+     * @param offset   the byte offset of the range
+     * @param length   the length of the range in bytes
+     * @param inserted well-formed UTF-8 to put in its place
+     * @return the strings changed by the edit.
+     */
+    public Delta edit(int offset, int length, byte[] inserted) {
+        if (offset < 0 || length < 0 || offset + length > contentLength) {
+            throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+        }
+        if (isContinuation(offset) || isContinuation(offset + length)
+                || !JavaScriptUtf8Lexer.isWellFormed(inserted, 0, inserted.length)) {
+            throw new OkapiBadFilterInputException("The edit does not leave well-formed UTF-8.");
+        }
+        int delta = inserted.length - length;
+        // moved in place: no new array for each keystroke
+        if (contentLength + delta > content.length) {
+            content = Arrays.copyOf(content, Math.max(contentLength + delta, content.length + content.length / 2));
+        }
+        System.arraycopy(content, offset + length, content, offset + inserted.length, contentLength - offset - length);
+        System.arraycopy(inserted, 0, content, offset, inserted.length);
+        contentLength += delta;
+
+        // the tokens before the checkpoint did not look at the edited bytes
+        int first = 0;
+        while (first + 1 < checkpoints.size() && checkpoints.get(first + 1).offset <= offset - LOOKBACK) {
+            first++;
+        }
+        Checkpoint from = checkpoints.get(first);
+        // checkpoints after the edit, where the lexing can stop
+        int next = first + 1;
+        while (next < checkpoints.size() && checkpoints.get(next).offset < offset + length) {
+            next++;
+        }
+
+        List<Entry> added = new ArrayList<>();
+        List<Checkpoint> created = new ArrayList<>();
+        tracker.start(content, contentLength, from);
+        int converged = relex(from, offset + inserted.length, delta, next, added, created);
+
+        int end = converged < checkpoints.size() ? checkpoints.get(converged).entryIndex : entries.size();
+        List<Entry> replaced = entries.subList(from.entryIndex, end);
+        List<Entry> removed = new ArrayList<>(replaced);
+        replaced.clear();
+        entries.addAll(from.entryIndex, added);
+
+        for (Checkpoint checkpoint : checkpoints.subList(converged, checkpoints.size())) {
+            checkpoint.offset += delta;
+            checkpoint.entryIndex += added.size() - removed.size();
+        }
+        checkpoints.subList(first, converged).clear();
+        checkpoints.addAll(first, created);
+        return diff(removed, added);
+    }
+
+    /**
+     * @return the extractable strings, in document order.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public byte[] getContent() {
+        return Arrays.copyOf(content, contentLength);
+    }
+
+    // bytes lexed by the last edit
+    int getRelexedBytes() {
+        return relexedBytes;
+    }
+
+    /*
+     * Lexes from a checkpoint until the state at a boundary at or after
+     * stopAfter is the same as at the old checkpoint there, or to the end.
+     * Returns the index of that checkpoint, or the number of checkpoints.
+     */
+    private int relex(Checkpoint from, int stopAfter, int delta, int next, List<Entry> added,
+            List<Checkpoint> created) {
+        tracker.entries = added;
+        tracker.checkpoint = from;
+        created.add(from);
+        int position = from.offset;
+        int lastCheckpoint = from.offset;
+        while (true) {
+            if (position >= stopAfter) {
+                while (next < checkpoints.size() && checkpoints.get(next).offset + delta < position) {
+                    next++;
+                }
+                if (next < checkpoints.size() && checkpoints.get(next).offset + delta == position
+                        && tracker.isState(checkpoints.get(next))) {
+                    break;
+                }
+            }
+            if (position - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                Checkpoint checkpoint = tracker.checkpoint(position, from.entryIndex + added.size());
+                created.add(checkpoint);
+                lastCheckpoint = position;
+            }
+            if (!tracker.visitor.visitNextToken()) {
+                next = checkpoints.size();
+                break;
+            }
+            position = tracker.visitor.getTokenEndOffset();
+        }
+        relexedBytes = position - from.offset;
+        return next;
+    }
+
+    // without the strings re-read unchanged on both sides of the edit
+    private static Delta diff(List<Entry> removed, List<Entry> added) {
+        int prefix = 0;
+        while (prefix < removed.size() && prefix < added.size()
+                && removed.get(prefix).sameString(added.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < removed.size() - prefix && suffix < added.size() - prefix
+                && removed.get(removed.size() - 1 - suffix).sameString(added.get(added.size() - 1 - suffix))) {
+            suffix++;
+        }
+        return new Delta(new ArrayList<>(removed.subList(prefix, removed.size() - suffix)),
+                new ArrayList<>(added.subList(prefix, added.size() - suffix)));
+    }
+
+    private boolean isContinuation(int offset) {
+        return offset < contentLength && (content[offset] & 0xC0) == 0x80;
+    }
+
+    /*
+     * Follows the keys like JavaScriptScanner and records the strings it
+     * would report.
+     */
+    private static final class Tracker implements JavaScriptHandler {
+        final JavaScriptVisitor visitor = new JavaScriptVisitor(this);
+        private final JavaScriptRules rules;
+        private final JavaScriptKeyPath keyPath = new JavaScriptKeyPath();
+        private final boolean extractStandalone;
+        private String currentKeyName;
+        private JavaScriptKeyTypes currentKeyType = JavaScriptKeyTypes.DEFAULT;
+        List<Entry> entries;
+        Checkpoint checkpoint;
+
+        Tracker(Parameters params) {
+            rules = new JavaScriptRules(params);
+            keyPath.reset(params);
+            extractStandalone = params.getExtractStandalone();
+        }
+
+        void start(byte[] content, int length, Checkpoint from) {
+            visitor.start(content, from.offset, length - from.offset, from.objectIndex, from.expectValue);
+            currentKeyName = from.keyName;
+            currentKeyType = from.keyType;
+            keyPath.restore(from.keyPath);
+        }
+
+        Checkpoint checkpoint(int offset, int entryIndex) {
+            checkpoint = new Checkpoint(offset, entryIndex, visitor.getObjectIndex(), visitor.isExpectValue(),
+                    currentKeyName, currentKeyType, keyPath.snapshot());
+            return checkpoint;
+        }
+
+        boolean isState(Checkpoint other) {
+            return visitor.getObjectIndex() == other.objectIndex && visitor.isExpectValue() == other.expectValue
+                    && Objects.equals(currentKeyName, other.keyName) && currentKeyType == other.keyType
+                    && keyPath.snapshot().equals(other.keyPath);
+        }
+
+        @Override
+        public void handleStart() {
+        }
+
+        @Override
+        public void handleEnd() {
+        }
+
+        @Override
+        public void handleComment(String c) {
+        }
+
+        @Override
+        public void handleKey(String key, JavaScriptValueTypes valueType, JavaScriptKeyTypes keyType) {
+            currentKeyName = key;
+            currentKeyType = keyType;
+        }
+
+        @Override
+        public void handleSeparator(String separator) {
+        }
+
+        @Override
+        public void handleValue(String value, JavaScriptValueTypes valueType) {
+            String key = currentKeyName;
+            currentKeyName = null;
+            currentKeyType = JavaScriptKeyTypes.DEFAULT;
+
+            if (!extractStandalone && key == null) {
+                return;
+            }
+            if (valueType != JavaScriptValueTypes.DOUBLE_QUOTED_STRING
+                    && valueType != JavaScriptValueTypes.SINGLE_QUOTED_STRING) {
+                return;
+            }
+            String fullPathOrKey = keyPath.build(key);
+            if (rules.match(fullPathOrKey) == JavaScriptRules.Action.EXTRACT) {
+                int start = visitor.getTokenStartOffset();
+                entries.add(new Entry(fullPathOrKey, JavaScriptEventBuilder.decode(value), valueType, checkpoint,
+                        start - checkpoint.offset, visitor.getTokenEndOffset() - start));
+            }
+        }
+
+        @Override
+        public void handleWhitespace(String whitespace) {
+        }
+
+        @Override
+        public void handleObjectStart() {
+            keyPath.startObject(currentKeyName, currentKeyType);
+            currentKeyName = null;
+            currentKeyType = JavaScriptKeyTypes.DEFAULT;
+        }
+
+        @Override
+        public void handleObjectEnd() {
+            keyPath.endObject();
+        }
+
+        @Override
+        public void handleListStart() {
+            keyPath.startList(currentKeyName, currentKeyType);
+            currentKeyName = null;
+            currentKeyType = JavaScriptKeyTypes.DEFAULT;
+        }
+
+        @Override
+        public void handleListEnd() {
+            keyPath.endList();
+        }
+    }
+}
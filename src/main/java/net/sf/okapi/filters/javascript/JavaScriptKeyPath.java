@@ -0,0 +1,164 @@
+package net.sf.okapi.filters.javascript;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Stack;
+
+/**
+ * Tracks the keys of the enclosing objects and lists and builds the key
+ * path used for rule matching and TextUnit names.
+ */
+class JavaScriptKeyPath {
+    private final Stack<KeyAndType> keyNames = new Stack<>();
+    private final Stack<Integer> currentArrayIndex = new Stack<>();
+    private boolean useFullKeyPath;
+    private boolean useLeadingSlashOnKeyPath;
+
+    private static class KeyAndType {
+        public KeyAndType(String name, JavaScriptKeyTypes type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        String name;
+        JavaScriptKeyTypes type;
+    }
+
+    public void reset(Parameters params) {
+        keyNames.clear();
+        currentArrayIndex.clear();
+        useFullKeyPath = params.getUseFullKeyPath();
+        useLeadingSlashOnKeyPath = params.getUseLeadingSlashOnKeyPath();
+    }
+
+    public void startObject(String key, JavaScriptKeyTypes keyType) {
+        keyNames.push(new KeyAndType(key, keyType));
+    }
+
+    public void endObject() {
+        keyNames.pop();
+    }
+
+    public void startList(String key, JavaScriptKeyTypes keyType) {
+        // if we are already in an array increment the previous index
+        if (!currentArrayIndex.isEmpty()) {
+            currentArrayIndex.push(currentArrayIndex.pop() + 1);
+        }
+        // push the dummy index to indicate the start of an array
+        currentArrayIndex.add(-1);
+        keyNames.push(new KeyAndType(key, keyType));
+    }
+
+    public void endList() {
+        currentArrayIndex.pop();
+        keyNames.pop();
+    }
+
+    public int depth() {
+        return keyNames.size();
+    }
+
+    /**
+     * A copy of the enclosing keys and list indices, to restore them later.
+     */
+    static final class Snapshot {
+        private final String[] names;
+        private final JavaScriptKeyTypes[] types;
+        private final Integer[] indices;
+
+        private Snapshot(String[] names, JavaScriptKeyTypes[] types, Integer[] indices) {
+            this.names = names;
+            this.types = types;
+            this.indices = indices;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return Arrays.equals(names, other.names) && Arrays.equals(types, other.types)
+                    && Arrays.equals(indices, other.indices);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(names) * 31 + Arrays.hashCode(indices);
+        }
+    }
+
+    Snapshot snapshot() {
+        String[] names = new String[keyNames.size()];
+        JavaScriptKeyTypes[] types = new JavaScriptKeyTypes[keyNames.size()];
+        for (int i = 0; i < names.length; i++) {
+            KeyAndType k = keyNames.get(i);
+            names[i] = k.name;
+            types[i] = k.type;
+        }
+        return new Snapshot(names, types, currentArrayIndex.toArray(new Integer[0]));
+    }
+
+    void restore(Snapshot snapshot) {
+        keyNames.clear();
+        for (int i = 0; i < snapshot.names.length; i++) {
+            keyNames.push(new KeyAndType(snapshot.names[i], snapshot.types[i]));
+        }
+        currentArrayIndex.clear();
+        currentArrayIndex.addAll(Arrays.asList(snapshot.indices));
+    }
+
+    // build the full path of the key if wanted
+    // otherwise return the original key
+    public String build(String key) {
+        StringBuilder keyPath = new StringBuilder();
+
+        if (!useFullKeyPath) {
+            // all values in a list use the immediate parent list key name
+            if (!keyNames.isEmpty() && keyNames.peek().type == JavaScriptKeyTypes.LIST) {
+                return keyNames.peek().name;
+            }
+            return key;
+        }
+
+        // if we don't have a key, and we are inside an array
+        // it must be a keyless array value. Use its index value to create a key
+        if (key == null && !currentArrayIndex.isEmpty()) {
+            StringBuilder arrayKey = new StringBuilder();
+            // increment array index
+            currentArrayIndex.push(currentArrayIndex.pop() + 1);
+            arrayKey.append("array:");
+            Iterator<Integer> it = currentArrayIndex.listIterator();
+            Integer k = it.next();
+            arrayKey.append(k);
+            while (it.hasNext()) {
+                k = it.next();
+                arrayKey.append("/array:");
+                arrayKey.append(k);
+            }
+            key = arrayKey.toString();
+        }
+
+        if (!keyNames.isEmpty()) {
+            Iterator<KeyAndType> it = keyNames.listIterator();
+            while (it.hasNext()) {
+                KeyAndType k = it.next();
+                if (k != null && k.name != null) {
+                    keyPath.append("/").append(k.name);
+                }
+            }
+        }
+
+        if (key != null && !key.isEmpty()) {
+            keyPath.append("/").append(key);
+        }
+
+        if (!useLeadingSlashOnKeyPath) {
+            if (keyPath.charAt(0) == '/') {
+                keyPath.deleteCharAt(0);
+            }
+        }
+
+        return keyPath.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package net.sf.okapi.filters.javascript;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounds the memory held by the documents open in the filters of a
+ * process. A {@link JavaScriptFilter} reserves an estimate of what the
+ * events of a document will hold, from the size of the document and
+ * whether a skeleton is built, from its open until it returns its last
+ * event or is closed. A document that does not fit waits, in the order of
+ * arrival, until enough is released; the cancellation token of the filter
+ * is checked while it waits.
+ * <p>
+ * A document estimated larger than the whole budget has its skeleton
+ * spilled to disk, the path using the least memory, and then waits until
+ * no other document holds memory.
+ * <p>
+ * The default budget, used by the filters unless they are given another,
+ * has no limit until {@link #setLimit(long)} is called: it then only
+ * collects the metrics.
+ */
+public final class JavaScriptMemoryBudget {
+    // bytes held per input character, measured with large bundles
+    static final int SKELETON_FACTOR = 128;
+    static final int SPILLED_SKELETON_FACTOR = 48;
+    static final int EXTRACTION_FACTOR = 24;
+    static final int PASS_THROUGH_FACTOR = 4;
+    // the skeleton spill threshold of the documents too large for the budget
+    static final int LOW_MEMORY_SPILL_THRESHOLD = 64 * 1024;
+    // how often a waiting document checks its cancellation token
+    private static final long WAIT_MILLIS = 100;
+
+    private static final JavaScriptMemoryBudget DEFAULT = new JavaScriptMemoryBudget(0);
+
+    /**
+     * The memory held by an open document, released by {@link #close()}.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final long bytes;
+        private boolean released;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    private long limit;
+    private final Deque<Long> waiting = new ArrayDeque<>();
+    private long nextTicket;
+    private long reservedBytes;
+    private long peakReservedBytes;
+    private int activeDocuments;
+    private long admittedDocuments;
+    private long delayedDocuments;
+    private long lowMemoryDocuments;
+    private long waitNanos;
+
+    /**
+     * @param limit the bytes the documents may hold together, or 0 for no
+     *              limit
+     */
+    public JavaScriptMemoryBudget(long limit) {
+        setLimit(limit);
+    }
+
+    /**
+     * @return the budget of the filters not given another one.
+     */
+    public static JavaScriptMemoryBudget getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Sets the bytes the documents may hold together, or 0 for no limit.
+     * The documents already open keep their memory.
+     */
+    public synchronized void setLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative memory limit: " + limit);
+        }
+        this.limit = limit == 0 ? Long.MAX_VALUE : limit;
+        notifyAll();
+    }
+
+    /**
+     * @return the limit, or 0 for none.
+     */
+    public synchronized long getLimit() {
+        return limit == Long.MAX_VALUE ? 0 : limit;
+    }
+
+    /**
+     * @return the bytes reserved by the documents open now.
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return the most bytes reserved at once.
+     */
+    public synchronized long getPeakReservedBytes() {
+        return peakReservedBytes;
+    }
+
+    /**
+     * @return the number of documents holding memory now.
+     */
+    public synchronized int getActiveDocuments() {
+        return activeDocuments;
+    }
+
+    /**
+     * @return the number of documents waiting for memory now.
+     */
+    public synchronized int getWaitingDocuments() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the number of documents admitted so far.
+     */
+    public synchronized long getAdmittedDocuments() {
+        return admittedDocuments;
+    }
+
+    /**
+     * @return the number of documents that had to wait to be admitted.
+     */
+    public synchronized long getDelayedDocuments() {
+        return delayedDocuments;
+    }
+
+    /**
+     * @return the number of documents switched to the lowest-memory path
+     * because they were larger than the limit.
+     */
+    public synchronized long getLowMemoryDocuments() {
+        return lowMemoryDocuments;
+    }
+
+    /**
+     * @return the time spent by the documents waiting for memory, in
+     * nanoseconds.
+     */
+    public synchronized long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * @return the bytes held by a document of the given length, in
+     * characters or UTF-8 bytes.
+     */
+    static long estimate(long length, boolean skeleton, boolean spilled) {
+        int factor = !skeleton ? EXTRACTION_FACTOR : spilled ? SPILLED_SKELETON_FACTOR : SKELETON_FACTOR;
+        return length * factor;
+    }
+
+    synchronized boolean isOversized(long bytes) {
+        return bytes > limit;
+    }
+
+    /**
+     * Waits until the given bytes fit in the budget and reserves them.
+     *
+     * @param lowMemory  true if the document was switched to the
+     *                   lowest-memory path, for the metrics
+     * @param cancellationToken the token checked while waiting, or null
+     * @throws JavaScriptCancelledException if the token is cancelled or
+     *                                      the thread interrupted while waiting.
+     */
+    synchronized Reservation reserve(long bytes, boolean lowMemory, JavaScriptCancellationToken cancellationToken) {
+        long start = System.nanoTime();
+        long ticket = nextTicket++;
+        waiting.addLast(ticket);
+        boolean delayed = false;
+        try {
+            // the first in line only, so that small documents do not
+            // starve a large one
+            while (waiting.peekFirst() != ticket || !fits(bytes)) {
+                delayed = true;
+                if (cancellationToken != null) {
+                    cancellationToken.throwIfCancelled();
+                }
+                wait(WAIT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JavaScriptCancelledException("Interrupted while waiting for memory.", false);
+        } finally {
+            waiting.remove(ticket);
+            // the next in line may fit
+            notifyAll();
+        }
+
+        reservedBytes += bytes;
+        peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+        activeDocuments++;
+        admittedDocuments++;
+        if (delayed) {
+            delayedDocuments++;
+            waitNanos += System.nanoTime() - start;
+        }
+        if (lowMemory) {
+            lowMemoryDocuments++;
+        }
+        return new Reservation(bytes);
+    }
+
+    // a document larger than the limit fits when it is alone
+    private boolean fits(long bytes) {
+        return reservedBytes + bytes <= limit || activeDocuments == 0;
+    }
+
+    private synchronized void release(Reservation reservation) {
+        if (!reservation.released) {
+            reservation.released = true;
+            reservedBytes -= reservation.bytes;
+            activeDocuments--;
+            notifyAll();
+        }
+    }
+}
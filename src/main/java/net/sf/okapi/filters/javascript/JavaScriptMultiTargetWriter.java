@@ -0,0 +1,198 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.ISkeleton;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.encoder.EncoderManager;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import net.sf.okapi.common.filterwriter.GenericFilterWriter;
+import net.sf.okapi.common.resource.DocumentPart;
+import net.sf.okapi.common.resource.TextFragment;
+import net.sf.okapi.common.skeleton.GenericSkeleton;
+import net.sf.okapi.common.skeleton.GenericSkeletonPart;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the events of one extraction to several target locales at once.
+ * <p>
+ * The skeleton of document parts does not depend on the locale, so it is
+ * resolved once per event and copied to every output; only text units are
+ * rendered for each locale. With an executor, the events are kept until the
+ * end of the document and each locale is then written by its own task from
+ * the same read-only events.
+ */
+public class JavaScriptMultiTargetWriter implements AutoCloseable {
+    private final JavaScriptFilter filter;
+    private final List<Target> targets;
+    private final List<Event> events;
+    private final List<String> sharedTexts;
+    private ExecutorService executor;
+    private int subfilterDepth;
+    private int storageDepth;
+
+    public JavaScriptMultiTargetWriter(JavaScriptFilter filter) {
+        this.filter = filter;
+        this.targets = new ArrayList<>();
+        this.events = new ArrayList<>();
+        this.sharedTexts = new ArrayList<>();
+    }
+
+    public void addTarget(LocaleId locale, String encoding, OutputStream output) {
+        createTarget(locale, encoding).setOutput(output);
+    }
+
+    public void addTarget(LocaleId locale, String encoding, String path) {
+        createTarget(locale, encoding).setOutput(path);
+    }
+
+    /**
+     * Sets the executor used to write the locales in parallel, or null to
+     * write them in turn as the events come.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void handleEvent(Event event) {
+        String sharedText = getSharedText(event);
+        if (executor == null) {
+            for (Target target : targets) {
+                target.write(event, sharedText);
+            }
+            return;
+        }
+
+        events.add(event);
+        sharedTexts.add(sharedText);
+        if (event.isEndDocument()) {
+            writeParallel();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Target target : targets) {
+            target.close();
+        }
+        events.clear();
+        sharedTexts.clear();
+    }
+
+    private Target createTarget(LocaleId locale, String encoding) {
+        Target target = new Target(filter.createEncoderManager());
+        target.setOptions(locale, encoding);
+        targets.add(target);
+        return target;
+    }
+
+    private void writeParallel() {
+        List<Future<Void>> futures = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            Callable<Void> task = () -> {
+                for (int i = 0; i < events.size(); i++) {
+                    target.write(events.get(i), sharedTexts.get(i));
+                }
+                return null;
+            };
+            futures.add(executor.submit(task));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while writing the targets.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new OkapiException("Cannot write the targets.", e.getCause());
+        } finally {
+            events.clear();
+            sharedTexts.clear();
+        }
+    }
+
+    /*
+     * Returns the output of a document part when it is the same for all
+     * locales, or null if the event must be rendered by each target.
+     */
+    private String getSharedText(Event event) {
+        switch (event.getEventType()) {
+            case START_SUBFILTER:
+                subfilterDepth++;
+                return null;
+            case END_SUBFILTER:
+                subfilterDepth--;
+                return null;
+            case START_GROUP:
+                // the skeleton writer stores the content of referent groups
+                if (storageDepth > 0 || event.getStartGroup().isReferent()) {
+                    storageDepth++;
+                }
+                return null;
+            case END_GROUP:
+                if (storageDepth > 0) {
+                    storageDepth--;
+                }
+                return null;
+            case DOCUMENT_PART:
+                break;
+            default:
+                return null;
+        }
+
+        DocumentPart dp = event.getDocumentPart();
+        if (subfilterDepth > 0 || storageDepth > 0 || dp.isReferent()) {
+            return null;
+        }
+        ISkeleton skeleton = dp.getSkeleton();
+        if (skeleton == null) {
+            return "";
+        }
+        if (skeleton instanceof JavaScriptSkeletonReference) {
+            return skeleton.toString();
+        }
+        if (!(skeleton instanceof GenericSkeleton)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (GenericSkeletonPart part : ((GenericSkeleton) skeleton).getParts()) {
+            String data = part.toString();
+            // references to properties or content may depend on the locale
+            if (data.contains(TextFragment.REFMARKER_START)) {
+                return null;
+            }
+            sb.append(data);
+        }
+        return sb.toString();
+    }
+
+    private static class Target extends GenericFilterWriter {
+        Target(EncoderManager encoderManager) {
+            super(new JavaScriptSkeletonWriter(), encoderManager);
+        }
+
+        void write(Event event, String sharedText) {
+            if (sharedText == null) {
+                handleEvent(event);
+                return;
+            }
+            try {
+                writer.write(sharedText);
+            } catch (IOException e) {
+                throw new OkapiIOException("Error writing a document part.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Util;
+
+/**
+ * Checks run before parsing to tell whether a document can have any value
+ * the filter would extract. Documents that cannot are passed through
+ * without being lexed. Both checks are conservative: they may answer yes
+ * for a document without extractable values, never the reverse.
+ */
+final class JavaScriptPreScan {
+    private JavaScriptPreScan() {
+    }
+
+    /**
+     * @return false if no key path can match the extraction rules of the
+     * parameters: no extraction rules, extractAllPairs off and no
+     * exceptions to reverse it.
+     */
+    static boolean canExtract(Parameters params) {
+        return !Util.isEmpty(params.getExtractionRules()) || params.getExtractAllPairs()
+                || !Util.isEmpty(params.getExceptions());
+    }
+
+    /**
+     * Only quoted strings become text units, and only inside an object:
+     * content without a quote after its first '{' has none. Works on any
+     * ASCII-compatible encoding.
+     *
+     * @return true if the content may have a string value inside an object.
+     */
+    static boolean mayHaveStringValues(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end && buf[i] != '{') {
+            i++;
+        }
+        for (; i < end; i++) {
+            if (buf[i] == '"' || buf[i] == '\'') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,289 @@
+package net.sf.okapi.filters.javascript;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads the documents of a batch ahead of the threads extracting them, so
+ * that waiting on slow storage overlaps with parsing. The documents are
+ * read in order with an {@link AsynchronousFileChannel}, into direct
+ * buffers taken from a pool, at most a given number of documents ahead of
+ * the extraction and within a given amount of memory.
+ * <p>
+ * {@link #take(int)} returns null for a document that was not read ahead:
+ * one larger than the memory limit, one taken before its read started or
+ * one that could not be read. The caller reads it itself, and so reports
+ * the error of an unreadable document as usual.
+ */
+final class JavaScriptReadAhead implements AutoCloseable {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * A document read into buffers of the pool; closing it returns them.
+     */
+    static final class Document implements AutoCloseable {
+        private final JavaScriptReadAhead owner;
+        private final List<ByteBuffer> chunks;
+        private boolean closed;
+
+        private Document(JavaScriptReadAhead owner, List<ByteBuffer> chunks) {
+            this.owner = owner;
+            this.chunks = chunks;
+        }
+
+        InputStream getInputStream() {
+            return new InputStream() {
+                private int chunk;
+                private ByteBuffer current = chunks.isEmpty() ? ByteBuffer.allocate(0) : chunks.get(0).duplicate();
+
+                @Override
+                public int read() {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    while (!current.hasRemaining()) {
+                        if (++chunk >= chunks.size()) {
+                            return -1;
+                        }
+                        current = chunks.get(chunk).duplicate();
+                    }
+                    int n = Math.min(len, current.remaining());
+                    current.get(b, off, n);
+                    return n;
+                }
+            };
+        }
+
+        void digest(MessageDigest digest) {
+            for (ByteBuffer chunk : chunks) {
+                digest.update(chunk.duplicate());
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                owner.release(chunks);
+            }
+        }
+    }
+
+    private final List<Path> documents;
+    private final int depth;
+    private final int maxChunks;
+    private final List<CompletableFuture<Document>> reads;
+    private final boolean[] taken;
+    private final Deque<ByteBuffer> pool = new ArrayDeque<>();
+    private int chunksInUse;
+    private int next;
+    private int ahead;
+    private boolean closed;
+
+    /**
+     * Starts reading the first documents.
+     *
+     * @param depth       the number of documents read but not taken yet
+     * @param memoryLimit the bytes held by the documents read and not
+     *                    closed yet
+     */
+    JavaScriptReadAhead(List<Path> documents, int depth, long memoryLimit) {
+        this.documents = documents;
+        this.depth = depth;
+        this.maxChunks = (int) Math.min(Integer.MAX_VALUE, memoryLimit / CHUNK_SIZE);
+        this.reads = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            reads.add(null);
+        }
+        this.taken = new boolean[documents.size()];
+        startReads();
+    }
+
+    /**
+     * Waits for the document at the given index of the list.
+     *
+     * @return the document, to be closed by the caller, or null if it was
+     * not read ahead.
+     */
+    Document take(int index) {
+        CompletableFuture<Document> read;
+        synchronized (this) {
+            taken[index] = true;
+            read = reads.set(index, null);
+            if (read != null) {
+                ahead--;
+            }
+        }
+        startReads();
+        return read == null ? null : read.join();
+    }
+
+    /**
+     * @return the bytes of the buffers in use.
+     */
+    synchronized long getBufferedBytes() {
+        return (long) chunksInUse * CHUNK_SIZE;
+    }
+
+    @Override
+    public void close() {
+        List<CompletableFuture<Document>> left = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (int i = 0; i < reads.size(); i++) {
+                CompletableFuture<Document> read = reads.set(i, null);
+                if (read != null) {
+                    left.add(read);
+                }
+            }
+        }
+        for (CompletableFuture<Document> read : left) {
+            read.thenAccept(document -> {
+                if (document != null) {
+                    document.close();
+                }
+            });
+        }
+    }
+
+    private void startReads() {
+        List<Runnable> started = new ArrayList<>();
+        synchronized (this) {
+            while (!closed && next < documents.size() && ahead < depth) {
+                int index = next;
+                Path document = documents.get(index);
+                long size;
+                try {
+                    size = taken[index] ? -1 : Files.size(document);
+                } catch (IOException e) {
+                    size = -1;
+                }
+                if (size < 0 || size > (long) maxChunks * CHUNK_SIZE) {
+                    // left to the thread taking it
+                    next++;
+                    continue;
+                }
+                int needed = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                if (chunksInUse + needed > maxChunks) {
+                    // until documents are closed
+                    break;
+                }
+                List<ByteBuffer> chunks = borrow(needed);
+                CompletableFuture<Document> read = new CompletableFuture<>();
+                reads.set(index, read);
+                next++;
+                ahead++;
+                started.add(() -> read(document, chunks, read));
+            }
+        }
+        // outside the lock, opening a file may block
+        started.forEach(Runnable::run);
+    }
+
+    private List<ByteBuffer> borrow(int count) {
+        List<ByteBuffer> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer chunk = pool.poll();
+            chunks.add(chunk == null ? ByteBuffer.allocateDirect(CHUNK_SIZE) : chunk);
+        }
+        chunksInUse += count;
+        return chunks;
+    }
+
+    private void release(List<ByteBuffer> chunks) {
+        synchronized (this) {
+            for (ByteBuffer chunk : chunks) {
+                pool.push(chunk.clear());
+            }
+            chunksInUse -= chunks.size();
+        }
+        startReads();
+    }
+
+    private void read(Path document, List<ByteBuffer> chunks, CompletableFuture<Document> result) {
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(document, StandardOpenOption.READ);
+        } catch (IOException e) {
+            release(chunks);
+            result.complete(null);
+            return;
+        }
+        new CompletionHandler<Integer, Void>() {
+            private long position;
+            private int chunk;
+
+            void start() {
+                if (chunk == chunks.size()) {
+                    finish();
+                } else {
+                    channel.read(chunks.get(chunk), position, null, this);
+                }
+            }
+
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (n < 0) {
+                    finish();
+                    return;
+                }
+                position += n;
+                if (!chunks.get(chunk).hasRemaining()) {
+                    chunk++;
+                }
+                start();
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                fail();
+            }
+
+            private void finish() {
+                try {
+                    if (channel.size() > position) {
+                        // grown since its size was taken
+                        fail();
+                        return;
+                    }
+                    channel.close();
+                } catch (IOException e) {
+                    fail();
+                    return;
+                }
+                for (ByteBuffer buffer : chunks) {
+                    buffer.flip();
+                }
+                result.complete(new Document(JavaScriptReadAhead.this, chunks));
+            }
+
+            private void fail() {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // the document is read again by the thread taking it
+                }
+                release(chunks);
+                result.complete(null);
+            }
+        }.start();
+    }
+}
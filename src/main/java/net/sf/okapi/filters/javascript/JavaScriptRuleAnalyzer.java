@@ -0,0 +1,217 @@
+package net.sf.okapi.filters.javascript;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Looks for the regex shapes that make a backtracking engine take
+ * exponential time: a repeated group containing another unbounded
+ * quantifier, like {@code (a+)+}, and a repeated alternation whose branches
+ * can start with the same character, like {@code (a|ab)*}.
+ * <p>
+ * This is a heuristic: it finds the common cases, not every slow regex.
+ * Possessive quantifiers and atomic groups are considered safe.
+ */
+final class JavaScriptRuleAnalyzer {
+    private JavaScriptRuleAnalyzer() {
+    }
+
+    private static class Group {
+        final int start;
+        final boolean atomic;
+        boolean hasUnboundedQuantifier;
+        final List<String> branchStarts = new ArrayList<>();
+        boolean atBranchStart = true;
+
+        Group(int start, boolean atomic) {
+            this.start = start;
+            this.atomic = atomic;
+        }
+    }
+
+    /**
+     * @return a description of the problem found in the regex, or null if
+     * none was found.
+     */
+    static String analyze(String regex) {
+        Deque<Group> groups = new ArrayDeque<>();
+        groups.push(new Group(0, false));
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            Group current = groups.peek();
+            if (c == '|') {
+                current.atBranchStart = true;
+                i++;
+                continue;
+            }
+            if (c == '(') {
+                boolean atomic = regex.startsWith("(?>", i);
+                recordBranchStart(current, "(");
+                groups.push(new Group(i, atomic));
+                i = skipGroupPrefix(regex, i);
+                continue;
+            }
+            if (c == ')') {
+                if (groups.size() == 1) {
+                    // unbalanced, Pattern.compile() reports it
+                    return null;
+                }
+                Group group = groups.pop();
+                int end = i + 1;
+                int quantifierEnd = quantifierEnd(regex, end);
+                boolean unbounded = isUnbounded(regex, end, quantifierEnd);
+                boolean possessive = quantifierEnd > end && quantifierEnd < regex.length()
+                        && regex.charAt(quantifierEnd) == '+';
+                if (unbounded && !possessive && !group.atomic) {
+                    String repeated = regex.substring(group.start, quantifierEnd);
+                    if (group.hasUnboundedQuantifier) {
+                        return String.format("nested quantifiers in '%s'", repeated);
+                    }
+                    if (hasOverlappingBranches(group.branchStarts)) {
+                        return String.format("repeated alternation with overlapping branches in '%s'", repeated);
+                    }
+                }
+                Group parent = groups.peek();
+                parent.hasUnboundedQuantifier |= unbounded || group.hasUnboundedQuantifier;
+                i = quantifierEnd > end ? skipQuantifierSuffix(regex, quantifierEnd) : end;
+                continue;
+            }
+
+            // a single atom
+            int atomEnd = atomEnd(regex, i);
+            recordBranchStart(current, regex.substring(i, atomEnd));
+            int quantifierEnd = quantifierEnd(regex, atomEnd);
+            if (isUnbounded(regex, atomEnd, quantifierEnd)) {
+                current.hasUnboundedQuantifier = true;
+            }
+            i = quantifierEnd > atomEnd ? skipQuantifierSuffix(regex, quantifierEnd) : atomEnd;
+        }
+        return null;
+    }
+
+    private static void recordBranchStart(Group group, String atom) {
+        if (group.atBranchStart) {
+            group.branchStarts.add(atom);
+            group.atBranchStart = false;
+        }
+    }
+
+    private static boolean hasOverlappingBranches(List<String> starts) {
+        if (starts.size() < 2) {
+            return false;
+        }
+        for (int a = 0; a < starts.size(); a++) {
+            String first = starts.get(a);
+            if (isWide(first)) {
+                return true;
+            }
+            for (int b = a + 1; b < starts.size(); b++) {
+                if (first.equals(starts.get(b))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // atoms matching most characters, that overlap with about any other branch
+    private static boolean isWide(String atom) {
+        return atom.equals(".") || atom.equals("\\w") || atom.equals("\\W") || atom.equals("\\S")
+                || atom.equals("\\D") || atom.startsWith("[^");
+    }
+
+    private static int skipGroupPrefix(String regex, int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '?') {
+            // (?:, (?=, (?!, (?>, (?<=, (?<!, (?<name>, inline flags
+            i++;
+            while (i < regex.length() && ":=!>)".indexOf(regex.charAt(i)) < 0) {
+                if (regex.charAt(i) == '<' && i + 1 < regex.length() && "=!".indexOf(regex.charAt(i + 1)) >= 0) {
+                    return i + 2;
+                }
+                i++;
+            }
+            if (i < regex.length() && regex.charAt(i) != ')') {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private static int atomEnd(String regex, int start) {
+        char c = regex.charAt(start);
+        if (c == '\\') {
+            if (regex.startsWith("\\Q", start)) {
+                int end = regex.indexOf("\\E", start + 2);
+                return end < 0 ? regex.length() : end + 2;
+            }
+            return Math.min(start + 2, regex.length());
+        }
+        if (c == '[') {
+            return classEnd(regex, start);
+        }
+        return start + 1;
+    }
+
+    private static int classEnd(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                // a leading ']' or '^]' is a literal
+                if (regex.startsWith("^]", i + 1)) {
+                    i += 2;
+                } else if (regex.startsWith("]", i + 1)) {
+                    i++;
+                }
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return regex.length();
+    }
+
+    // the end of the quantifier at i, or i if there is none
+    private static int quantifierEnd(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        char c = regex.charAt(i);
+        if (c == '*' || c == '+' || c == '?') {
+            return i + 1;
+        }
+        if (c == '{') {
+            int close = regex.indexOf('}', i);
+            if (close > 0 && regex.substring(i + 1, close).matches("\\d+(,\\d*)?")) {
+                return close + 1;
+            }
+        }
+        return i;
+    }
+
+    private static boolean isUnbounded(String regex, int start, int end) {
+        if (end == start) {
+            return false;
+        }
+        char c = regex.charAt(start);
+        return c == '*' || c == '+' || (c == '{' && regex.charAt(end - 2) == ',');
+    }
+
+    // skips the lazy or possessive mark after a quantifier ending at i
+    private static int skipQuantifierSuffix(String regex, int i) {
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            return i + 1;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,151 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Util;
+import net.sf.okapi.common.exceptions.OkapiBadFilterInputException;
+import net.sf.okapi.common.exceptions.OkapiBadFilterParametersException;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The key path rules of a {@link Parameters} instance, pre-compiled once
+ * per document and shared by the filter and the scanner.
+ * <p>
+ * Matches run within the step and time limits of the parameters; a rule
+ * going over them fails the document with an
+ * {@link OkapiBadFilterInputException}.
+ */
+class JavaScriptRules {
+    /**
+     * What to do with a value, in order of rule priority.
+     */
+    enum Action {
+        ID,
+        NOTE,
+        METADATA,
+        SKIP,
+        EXTRACT
+    }
+
+    private final boolean extractAllPairs;
+    private final Pattern exceptions;
+    private final Pattern noteRulesPat;
+    private final Pattern idRulesPat;
+    private final Pattern extractionRulesPat;
+    private final Pattern genericMetaRulesPat;
+    private final Pattern subfilterRulesPat;
+    // null when matches are not limited
+    private final JavaScriptBoundedCharSequence bounded;
+
+    public JavaScriptRules(Parameters params) {
+        if (params.getRejectUnsafeRules()) {
+            List<String> problems = params.checkRules();
+            if (!problems.isEmpty()) {
+                throw new OkapiBadFilterParametersException(
+                        "Key path rules prone to catastrophic backtracking: " + String.join("; ", problems));
+            }
+        }
+        if (params.getRuleMatchStepLimit() > 0 || params.getRuleMatchTimeLimit() > 0) {
+            bounded = new JavaScriptBoundedCharSequence(params.getRuleMatchStepLimit(),
+                    params.getRuleMatchTimeLimit());
+        } else {
+            bounded = null;
+        }
+        extractAllPairs = params.getExtractAllPairs();
+        // Pre-compile exceptions or set them to null
+        exceptions = Util.isEmpty(params.getExceptions()) ? null : Pattern.compile(params.getExceptions());
+        noteRulesPat = compile(params.getNoteRules());
+        idRulesPat = compile(params.getIdRules());
+        extractionRulesPat = compile(params.getExtractionRules());
+        genericMetaRulesPat = compile(params.getGenericMetaRules());
+        subfilterRulesPat = compile(params.getSubfilterRules());
+    }
+
+    private static Pattern compile(String rules) {
+        return rules.isEmpty() ? null : Pattern.compile(rules);
+    }
+
+    /**
+     * Decides what to do with the value at the given key path.
+     *
+     * @param fullPathOrKey the key path, may be null
+     * @return the action of the first matching rule
+     */
+    public Action match(String fullPathOrKey) {
+        if (fullPathOrKey != null) {
+            // only one ID string per extractable string allowed
+            if (idRulesPat != null && matches(idRulesPat, fullPathOrKey)) {
+                return Action.ID;
+            }
+            if (noteRulesPat != null && matches(noteRulesPat, fullPathOrKey)) {
+                return Action.NOTE;
+            }
+            if (genericMetaRulesPat != null && matches(genericMetaRulesPat, fullPathOrKey)) {
+                return Action.METADATA;
+            }
+            // new extraction rules have priority over extraction exceptions
+            if (extractionRulesPat != null) {
+                return matches(extractionRulesPat, fullPathOrKey) ? Action.EXTRACT : Action.SKIP;
+            }
+        }
+
+        // deprecated extraction exceptions
+        // if no extraction rules found fall back on
+        // old extraction logic
+        boolean extract = extractAllPairs;
+        if (exceptions != null && fullPathOrKey != null) {
+            if (find(exceptions, fullPathOrKey)) {
+                // It's an exception, so we reverse the extraction flag
+                extract = !extract;
+            }
+        }
+        return extract ? Action.EXTRACT : Action.SKIP;
+    }
+
+    /**
+     * @return true if values can set the ID, notes or metadata of the TUs
+     * of their object.
+     */
+    public boolean hasScopeRules() {
+        return idRulesPat != null || noteRulesPat != null || genericMetaRulesPat != null;
+    }
+
+    /**
+     * @return true if an extracted value at the given key path goes to the
+     * subfilter (always true when there are no subfilter rules).
+     */
+    public boolean isSubfilterMatch(String fullPathOrKey) {
+        if (subfilterRulesPat == null) {
+            return true;
+        }
+        return fullPathOrKey != null && matches(subfilterRulesPat, fullPathOrKey);
+    }
+
+    private boolean matches(Pattern pattern, String keyPath) {
+        if (bounded == null) {
+            return pattern.matcher(keyPath).matches();
+        }
+        try {
+            return pattern.matcher(bounded.reset(keyPath)).matches();
+        } catch (JavaScriptBoundedCharSequence.BudgetExceededException e) {
+            throw overrun(pattern, keyPath, e);
+        }
+    }
+
+    private boolean find(Pattern pattern, String keyPath) {
+        if (bounded == null) {
+            return pattern.matcher(keyPath).find();
+        }
+        try {
+            return pattern.matcher(bounded.reset(keyPath)).find();
+        } catch (JavaScriptBoundedCharSequence.BudgetExceededException e) {
+            throw overrun(pattern, keyPath, e);
+        }
+    }
+
+    private static OkapiBadFilterInputException overrun(Pattern pattern, String keyPath, RuntimeException e) {
+        return new OkapiBadFilterInputException(String.format(
+                "The key path rule '%s' took %s to match the key path '%s'.", pattern.pattern(), e.getMessage(),
+                keyPath), e);
+    }
+}
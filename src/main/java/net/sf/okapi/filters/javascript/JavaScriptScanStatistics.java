@@ -0,0 +1,84 @@
+package net.sf.okapi.filters.javascript;
+
+import java.text.BreakIterator;
+import java.util.Locale;
+
+/**
+ * A {@link JavaScriptScanner.Listener} counting the segments, words and
+ * characters of the scanned strings. Use one instance per file, or call
+ * {@link #reset()} between files.
+ * <p>
+ * Words are the word-break segments containing at least one letter or
+ * digit. Characters are the non-whitespace code points.
+ */
+public class JavaScriptScanStatistics implements JavaScriptScanner.Listener {
+    private final BreakIterator wordIterator;
+    private long segmentCount;
+    private long wordCount;
+    private long characterCount;
+
+    public JavaScriptScanStatistics() {
+        this(Locale.ENGLISH);
+    }
+
+    public JavaScriptScanStatistics(Locale locale) {
+        wordIterator = BreakIterator.getWordInstance(locale);
+    }
+
+    @Override
+    public void onString(String keyPath, String value, JavaScriptValueTypes quoteType, int offset) {
+        segmentCount++;
+        wordCount += countWords(value);
+        characterCount += countCharacters(value);
+    }
+
+    private long countWords(String text) {
+        long count = 0;
+        wordIterator.setText(text);
+        int start = wordIterator.first();
+        for (int end = wordIterator.next(); end != BreakIterator.DONE; start = end, end = wordIterator.next()) {
+            for (int i = start; i < end; i++) {
+                if (Character.isLetterOrDigit(text.charAt(i))) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long countCharacters(String text) {
+        long count = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            if (!Character.isWhitespace(cp)) {
+                count++;
+            }
+            i += Character.charCount(cp);
+        }
+        return count;
+    }
+
+    public void reset() {
+        segmentCount = 0;
+        wordCount = 0;
+        characterCount = 0;
+    }
+
+    public long getSegmentCount() {
+        return segmentCount;
+    }
+
+    public long getWordCount() {
+        return wordCount;
+    }
+
+    public long getCharacterCount() {
+        return characterCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("segments=%d, words=%d, characters=%d", segmentCount, wordCount, characterCount);
+    }
+}
@@ -0,0 +1,50 @@
+package net.sf.okapi.filters.javascript;
+
+/**
+ * The loops of {@link JavaScriptUtf8Lexer} that cover most of the input:
+ * string literal bodies and whitespace runs.
+ * <p>
+ * This is the portable version. The multi-release jar replaces it on
+ * Java 17 and later with one that uses the Vector API when the
+ * jdk.incubator.vector module is present (--add-modules jdk.incubator.vector).
+ * Keep both versions in sync.
+ */
+final class JavaScriptScanSupport {
+    private JavaScriptScanSupport() {
+    }
+
+    /**
+     * @return true if the Vector API is used.
+     */
+    static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * @return the index of the first quote, backslash, CR or LF at or
+     * after from, or end if there is none.
+     */
+    static int indexOfStringSpecial(byte[] buf, int from, int end, byte quote) {
+        for (int i = from; i < end; i++) {
+            byte b = buf[i];
+            if (b == quote || b == '\\' || b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the index of the first byte at or after from that is not a
+     * tab, vertical tab, form feed or space, or end if there is none.
+     */
+    static int skipBlanks(byte[] buf, int from, int end) {
+        for (int i = from; i < end; i++) {
+            byte b = buf[i];
+            if (b != ' ' && b != '\t' && b != 0x0B && b != 0x0C) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
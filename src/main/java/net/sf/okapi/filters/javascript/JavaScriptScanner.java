@@ -0,0 +1,133 @@
+package net.sf.okapi.filters.javascript;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Lightweight alternative to {@link JavaScriptFilter} for analytics such as
+ * word counts or key inventories. It reports the strings the filter would
+ * extract, using the same {@link Parameters} rules, without creating any
+ * events, TextUnits or TextFragments.
+ * <p>
+ * ID, note and metadata values are not reported. Values that the filter
+ * would send to a subfilter are reported as a whole.
+ */
+public class JavaScriptScanner implements JavaScriptHandler {
+    private final Parameters params;
+    private final JavaScriptKeyPath keyPath;
+    private JavaScriptRules rules;
+    private JavaScriptVisitor visitor;
+    private Listener listener;
+    private boolean extractStandalone;
+    private String currentKeyName;
+    private JavaScriptKeyTypes currentKeyType;
+
+    /**
+     * Receives the extractable strings of a document.
+     */
+    public interface Listener {
+        /**
+         * Called once for each extractable string, in document order.
+         *
+         * @param keyPath   the key or key path the filter would use as TextUnit name
+         * @param value     the decoded string value
+         * @param quoteType the quote type of the value in the source
+         * @param offset    the start index (in code points) of the quoted value in the input
+         */
+        void onString(String keyPath, String value, JavaScriptValueTypes quoteType, int offset);
+    }
+
+    public JavaScriptScanner(Parameters params) {
+        this.params = params;
+        this.keyPath = new JavaScriptKeyPath();
+    }
+
+    /**
+     * Scans a document and reports its extractable strings.
+     *
+     * @param reader   the document content
+     * @param listener receives the strings
+     * @throws IOException if the document cannot be read
+     */
+    public void scan(Reader reader, Listener listener) throws IOException {
+        this.listener = listener;
+        rules = new JavaScriptRules(params);
+        keyPath.reset(params);
+        extractStandalone = params.getExtractStandalone();
+        currentKeyName = null;
+        currentKeyType = JavaScriptKeyTypes.DEFAULT;
+        visitor = new JavaScriptVisitor(this);
+        visitor.visit(reader);
+    }
+
+    @Override
+    public void handleStart() {
+    }
+
+    @Override
+    public void handleEnd() {
+    }
+
+    @Override
+    public void handleComment(String c) {
+    }
+
+    @Override
+    public void handleKey(String key, JavaScriptValueTypes valueType, JavaScriptKeyTypes keyType) {
+        currentKeyName = key;
+        currentKeyType = keyType;
+    }
+
+    @Override
+    public void handleSeparator(String separator) {
+    }
+
+    @Override
+    public void handleValue(String value, JavaScriptValueTypes valueType) {
+        String key = currentKeyName;
+        currentKeyName = null;
+        currentKeyType = JavaScriptKeyTypes.DEFAULT;
+
+        if (!extractStandalone && key == null) {
+            return;
+        }
+        if (valueType != JavaScriptValueTypes.DOUBLE_QUOTED_STRING
+                && valueType != JavaScriptValueTypes.SINGLE_QUOTED_STRING) {
+            return;
+        }
+
+        String fullPathOrKey = keyPath.build(key);
+        if (rules.match(fullPathOrKey) == JavaScriptRules.Action.EXTRACT) {
+            listener.onString(fullPathOrKey, JavaScriptEventBuilder.decode(value), valueType,
+                    visitor.getTokenStartIndex());
+        }
+    }
+
+    @Override
+    public void handleWhitespace(String whitespace) {
+    }
+
+    @Override
+    public void handleObjectStart() {
+        keyPath.startObject(currentKeyName, currentKeyType);
+        currentKeyName = null;
+        currentKeyType = JavaScriptKeyTypes.DEFAULT;
+    }
+
+    @Override
+    public void handleObjectEnd() {
+        keyPath.endObject();
+    }
+
+    @Override
+    public void handleListStart() {
+        keyPath.startList(currentKeyName, currentKeyType);
+        currentKeyName = null;
+        currentKeyType = JavaScriptKeyTypes.DEFAULT;
+    }
+
+    @Override
+    public void handleListEnd() {
+        keyPath.endList();
+    }
+}
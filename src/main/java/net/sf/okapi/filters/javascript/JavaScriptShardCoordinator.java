@@ -0,0 +1,258 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits an extraction over several processes. The coordinator divides the
+ * documents into shards of about the same total size and writes them to a
+ * queue directory; {@link JavaScriptShardWorker} processes, started on this
+ * host or on others sharing the directory, claim the shards and report
+ * their results there. See {@link JavaScriptShardQueue} for the layout,
+ * the leases and the takeover of shards from dead or slow workers.
+ * <p>
+ * The events of each document are written with a
+ * {@link JavaScriptEventWriter} to the output directory, at the path of the
+ * document relative to the root, with an ".events" extension.
+ */
+public class JavaScriptShardCoordinator {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptShardCoordinator.class);
+
+    /**
+     * The outcome of a job.
+     */
+    public static class Result {
+        private final int processed;
+        private final int skipped;
+        private final int retried;
+        private final Map<Path, String> failures;
+
+        Result(int processed, int skipped, int retried, Map<Path, String> failures) {
+            this.processed = processed;
+            this.skipped = skipped;
+            this.retried = retried;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return the number of documents extracted.
+         */
+        public int getProcessed() {
+            return processed;
+        }
+
+        /**
+         * @return the number of documents found completed in the journal of
+         * a restarted worker.
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return the number of shards completed by a later attempt than
+         * the first.
+         */
+        public int getRetried() {
+            return retried;
+        }
+
+        /**
+         * @return the documents that failed, with their error message.
+         */
+        public Map<Path, String> getFailures() {
+            return failures;
+        }
+    }
+
+    private final Path queue;
+    private final Parameters params;
+    private final String encoding;
+    private final LocaleId source;
+    private long leaseMillis = 30_000;
+    private long stealAfterMillis = 300_000;
+    private int maxAttempts = 3;
+
+    /**
+     * @param params the filter parameters, or null for the defaults
+     */
+    public JavaScriptShardCoordinator(Path queue, Parameters params, String encoding, LocaleId source) {
+        this.queue = queue;
+        this.params = params == null ? new Parameters() : params;
+        this.encoding = encoding;
+        this.source = source;
+    }
+
+    /**
+     * Sets the time after which the shard of a worker that stopped renewing
+     * its lease is given to another worker.
+     */
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Sets the time after which an idle worker starts a second attempt on
+     * a shard still being worked on.
+     */
+    public void setStealAfterMillis(long stealAfterMillis) {
+        this.stealAfterMillis = stealAfterMillis;
+    }
+
+    /**
+     * Sets the number of attempts after which the documents of a shard are
+     * reported as failed.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Writes the shards of the documents to the queue, which must be a
+     * new or empty directory.
+     *
+     * @param root the directory the documents are in
+     * @param output the directory the outputs are written to
+     */
+    public void submit(Path root, List<Path> documents, Path output, int shards) {
+        Map<Path, Long> sizes = new LinkedHashMap<>();
+        try {
+            for (Path document : documents) {
+                sizes.put(document, Files.size(document));
+            }
+            List<Map<Path, Path>> lists = new ArrayList<>();
+            for (List<Path> shard : partition(sizes, shards)) {
+                Map<Path, Path> list = new LinkedHashMap<>();
+                for (Path document : shard) {
+                    Path relative = root.toAbsolutePath().normalize().relativize(document.toAbsolutePath().normalize());
+                    if (relative.startsWith("..")) {
+                        throw new OkapiException(document + " is not under " + root);
+                    }
+                    list.put(document.toAbsolutePath(),
+                            output.toAbsolutePath().resolve(relative + ".events"));
+                }
+                lists.add(list);
+            }
+
+            Properties job = new Properties();
+            job.setProperty(JavaScriptShardQueue.ENCODING, encoding);
+            job.setProperty(JavaScriptShardQueue.SOURCE_LOCALE, source.toString());
+            job.setProperty(JavaScriptShardQueue.LEASE_MILLIS, Long.toString(leaseMillis));
+            job.setProperty(JavaScriptShardQueue.STEAL_AFTER_MILLIS, Long.toString(stealAfterMillis));
+            job.setProperty(JavaScriptShardQueue.MAX_ATTEMPTS, Integer.toString(maxAttempts));
+            JavaScriptShardQueue.create(queue, job, params, lists);
+            logger.info("{} documents in {} shards", documents.size(), lists.size());
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot write the shard queue " + queue, e);
+        }
+    }
+
+    /**
+     * Waits until every shard is completed.
+     *
+     * @throws OkapiException if the time runs out first.
+     */
+    public Result await(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            JavaScriptShardQueue shards = new JavaScriptShardQueue(queue);
+            while (!shards.isComplete()) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new OkapiException("Timed out waiting for the shards of " + queue);
+                }
+                Thread.sleep(100);
+            }
+
+            int processed = 0;
+            int skipped = 0;
+            int retried = 0;
+            Map<Path, String> failures = new LinkedHashMap<>();
+            for (int shard = 0; shard < shards.getShardCount(); shard++) {
+                Properties result = shards.getResult(shard);
+                processed += Integer.parseInt(result.getProperty("processed"));
+                skipped += Integer.parseInt(result.getProperty("skipped"));
+                if (Integer.parseInt(result.getProperty("attempt")) > 0) {
+                    retried++;
+                }
+                for (int i = 0; result.containsKey("failure." + i + ".document"); i++) {
+                    failures.put(Path.of(result.getProperty("failure." + i + ".document")),
+                            result.getProperty("failure." + i + ".message"));
+                }
+            }
+            return new Result(processed, skipped, retried, failures);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot read the shard queue " + queue, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while waiting for the shards.", e);
+        }
+    }
+
+    /**
+     * Splits the documents into at most the given number of shards, each
+     * document going to the smallest shard so far, largest documents first.
+     */
+    static List<List<Path>> partition(Map<Path, Long> sizes, int shards) {
+        int count = Math.max(1, Math.min(shards, sizes.size()));
+        long[] totals = new long[count];
+        List<List<Path>> lists = new ArrayList<>();
+        PriorityQueue<Integer> smallest = new PriorityQueue<>(
+                Comparator.<Integer>comparingLong(i -> totals[i]).thenComparingInt(i -> i));
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<>());
+            smallest.add(i);
+        }
+        List<Map.Entry<Path, Long>> bySize = new ArrayList<>(sizes.entrySet());
+        bySize.sort(Map.Entry.<Path, Long>comparingByValue().reversed());
+        for (Map.Entry<Path, Long> entry : bySize) {
+            int shard = smallest.poll();
+            lists.get(shard).add(entry.getKey());
+            totals[shard] += entry.getValue();
+            smallest.add(shard);
+        }
+        return lists;
+    }
+
+    /**
+     * Arguments: the queue directory, the root of the documents, the output
+     * directory, the number of shards and optionally a parameters file.
+     * Submits every .js file under the root and waits for the workers.
+     */
+    public static void main(String[] args) throws IOException {
+        Path root = Path.of(args[1]);
+        List<Path> documents;
+        try (Stream<Path> files = Files.walk(root)) {
+            documents = files.filter(f -> f.toString().endsWith(".js") && Files.isRegularFile(f))
+                    .sorted().collect(Collectors.toList());
+        }
+        Parameters params = new Parameters();
+        if (args.length > 4) {
+            params.fromString(Files.readString(Path.of(args[4])));
+        }
+        JavaScriptShardCoordinator coordinator = new JavaScriptShardCoordinator(Path.of(args[0]), params, "UTF-8",
+                LocaleId.ENGLISH);
+        coordinator.submit(root, documents, Path.of(args[2]), Integer.parseInt(args[3]));
+        Result result = coordinator.await(Long.MAX_VALUE, TimeUnit.DAYS);
+        logger.info("{} documents extracted, {} skipped, {} shards retried, {} failures", result.getProcessed(),
+                result.getSkipped(), result.getRetried(), result.getFailures().size());
+        result.getFailures().forEach((document, message) -> logger.error("{}: {}", document, message));
+    }
+}
@@ -0,0 +1,372 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.LocaleId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * A work queue of shards kept in a directory, shared by a
+ * {@link JavaScriptShardCoordinator} and any number of
+ * {@link JavaScriptShardWorker} processes, on one host or on several hosts
+ * mounting the same file system.
+ * <pre>
+ * job.properties         encoding, locale and queue settings
+ * parameters.fprm        the filter parameters
+ * shards/N.list          document and output paths of shard N
+ * leases/N.A             claim of attempt A on shard N
+ * done/N.properties      result of shard N
+ * journals/ID.journal    checkpoint journal of worker ID
+ * </pre>
+ * Files are only ever created, never rewritten in place. A claim is the
+ * creation of a lease file, which fails if another worker got there first.
+ * The owner of a lease touches it while it works; a lease not touched for
+ * the lease time belongs to a dead worker and its shard can be taken over
+ * by the next attempt, as can the shard of a live worker that has held it
+ * for longer than the steal time. Outputs are replaced atomically and the
+ * first result of a shard wins, so two attempts running side by side
+ * leave the same files behind.
+ */
+final class JavaScriptShardQueue {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptShardQueue.class);
+
+    static final String JOB = "job.properties";
+    static final String PARAMETERS = "parameters.fprm";
+    static final String SHARDS = "shards";
+    static final String LEASES = "leases";
+    static final String DONE = "done";
+    static final String JOURNALS = "journals";
+
+    static final String ENCODING = "encoding";
+    static final String SOURCE_LOCALE = "sourceLocale";
+    static final String SHARD_COUNT = "shards";
+    static final String LEASE_MILLIS = "leaseMillis";
+    static final String STEAL_AFTER_MILLIS = "stealAfterMillis";
+    static final String MAX_ATTEMPTS = "maxAttempts";
+
+    /**
+     * A lease held on a shard.
+     */
+    static final class Claim {
+        final int shard;
+        final int attempt;
+        final Path lease;
+
+        Claim(int shard, int attempt, Path lease) {
+            this.shard = shard;
+            this.attempt = attempt;
+            this.lease = lease;
+        }
+    }
+
+    private final Path directory;
+    private final Properties job;
+    private final int shards;
+    private final long leaseMillis;
+    private final long stealAfterMillis;
+    private final int maxAttempts;
+
+    JavaScriptShardQueue(Path directory) throws IOException {
+        this.directory = directory;
+        this.job = load(directory.resolve(JOB));
+        this.shards = Integer.parseInt(job.getProperty(SHARD_COUNT));
+        this.leaseMillis = Long.parseLong(job.getProperty(LEASE_MILLIS));
+        this.stealAfterMillis = Long.parseLong(job.getProperty(STEAL_AFTER_MILLIS));
+        this.maxAttempts = Integer.parseInt(job.getProperty(MAX_ATTEMPTS));
+    }
+
+    /**
+     * Writes the shards and the job into an empty or missing directory.
+     */
+    static void create(Path directory, Properties job, Parameters params, List<Map<Path, Path>> shards)
+            throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> entries = Files.list(directory)) {
+            if (entries.findAny().isPresent()) {
+                throw new FileAlreadyExistsException(directory.toString(), null, "not an empty directory");
+            }
+        }
+        for (String name : new String[]{SHARDS, LEASES, DONE, JOURNALS}) {
+            Files.createDirectory(directory.resolve(name));
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            StringBuilder list = new StringBuilder();
+            for (Map.Entry<Path, Path> entry : shards.get(i).entrySet()) {
+                list.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+            }
+            Files.writeString(directory.resolve(SHARDS).resolve(i + ".list"), list);
+        }
+        Files.writeString(directory.resolve(PARAMETERS), params.toString());
+        job.setProperty(SHARD_COUNT, Integer.toString(shards.size()));
+        // written last: workers wait for it
+        store(directory.resolve(JOB), job);
+    }
+
+    int getShardCount() {
+        return shards;
+    }
+
+    long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    String getEncoding() {
+        return job.getProperty(ENCODING);
+    }
+
+    LocaleId getSourceLocale() {
+        return LocaleId.fromString(job.getProperty(SOURCE_LOCALE));
+    }
+
+    Parameters getParameters() throws IOException {
+        Parameters params = new Parameters();
+        params.fromString(Files.readString(directory.resolve(PARAMETERS)));
+        return params;
+    }
+
+    Path getJournal(String worker) {
+        return directory.resolve(JOURNALS).resolve(worker + ".journal");
+    }
+
+    /**
+     * @return the documents of a shard, with the path of their output.
+     */
+    Map<Path, Path> getDocuments(int shard) throws IOException {
+        Map<Path, Path> documents = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(directory.resolve(SHARDS).resolve(shard + ".list"))) {
+            int tab = line.indexOf('\t');
+            documents.put(Path.of(line.substring(0, tab)), Path.of(line.substring(tab + 1)));
+        }
+        return documents;
+    }
+
+    /**
+     * Claims a shard nobody has claimed yet or, when there is none, takes
+     * over the shard of a dead worker or of a straggler. Shards whose last
+     * attempt died are completed as failed.
+     *
+     * @return the claim, or null if there is nothing to take now.
+     */
+    Claim claim(String worker) throws IOException {
+        // workers start at different shards so that they rarely compete
+        int offset = Math.floorMod(worker.hashCode(), Math.max(1, shards));
+        for (int i = 0; i < shards; i++) {
+            int shard = (offset + i) % shards;
+            if (!isDone(shard)) {
+                Claim claim = tryClaim(shard, 0, worker);
+                if (claim != null) {
+                    return claim;
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        int candidate = -1;
+        int candidateAttempt = 0;
+        long oldest = Long.MAX_VALUE;
+        for (int shard = 0; shard < shards; shard++) {
+            if (isDone(shard)) {
+                continue;
+            }
+            int attempt = getLastAttempt(shard);
+            Path lease = getLease(shard, attempt);
+            long claimed;
+            boolean expired;
+            try {
+                claimed = getClaimTime(lease);
+                expired = now - Files.getLastModifiedTime(lease).toMillis() > leaseMillis;
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (!expired && now - claimed <= stealAfterMillis) {
+                continue;
+            }
+            if (attempt + 1 >= maxAttempts) {
+                // an earlier attempt stolen from may still complete it
+                if (expired && !hasLiveAttempt(shard, attempt, now)) {
+                    abandon(shard, attempt + 1, worker);
+                }
+                continue;
+            }
+            if (claimed < oldest) {
+                oldest = claimed;
+                candidate = shard;
+                candidateAttempt = attempt + 1;
+            }
+        }
+        if (candidate < 0) {
+            return null;
+        }
+        Claim claim = tryClaim(candidate, candidateAttempt, worker);
+        if (claim != null) {
+            logger.info("{} takes over shard {} for attempt {}", worker, candidate, candidateAttempt);
+        }
+        return claim;
+    }
+
+    /**
+     * Keeps a lease alive.
+     */
+    void renew(Claim claim) throws IOException {
+        Files.setLastModifiedTime(claim.lease, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    /**
+     * Gives up a lease, so that another worker can retry the shard at once.
+     */
+    void release(Claim claim) throws IOException {
+        Files.setLastModifiedTime(claim.lease, FileTime.fromMillis(0));
+    }
+
+    /**
+     * Records the result of a shard.
+     *
+     * @return false if the shard was already completed by another attempt;
+     * this result is dropped.
+     */
+    boolean complete(int shard, Properties result) throws IOException {
+        Path done = getDone(shard);
+        Path temp = directory.resolve(DONE).resolve(shard + "." + result.getProperty("worker") + ".tmp");
+        write(temp, result);
+        try {
+            // linking fails if the result exists, at once: a move checks
+            // and then replaces
+            Files.createLink(done, temp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    boolean isDone(int shard) {
+        return Files.exists(getDone(shard));
+    }
+
+    boolean isComplete() {
+        for (int shard = 0; shard < shards; shard++) {
+            if (!isDone(shard)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the result of a completed shard.
+     */
+    Properties getResult(int shard) throws IOException {
+        return load(getDone(shard));
+    }
+
+    private Claim tryClaim(int shard, int attempt, String worker) throws IOException {
+        Path lease = getLease(shard, attempt);
+        try {
+            Files.writeString(lease, worker + "\n" + System.currentTimeMillis() + "\n",
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            return null;
+        }
+        return new Claim(shard, attempt, lease);
+    }
+
+    // completes a shard whose attempts all died
+    private void abandon(int shard, int attempts, String worker) throws IOException {
+        Properties result = new Properties();
+        result.setProperty("worker", worker);
+        result.setProperty("attempt", Integer.toString(attempts - 1));
+        result.setProperty("processed", "0");
+        result.setProperty("skipped", "0");
+        List<Path> documents = new ArrayList<>(getDocuments(shard).keySet());
+        for (int i = 0; i < documents.size(); i++) {
+            result.setProperty("failure." + i + ".document", documents.get(i).toString());
+            result.setProperty("failure." + i + ".message", "Abandoned after " + attempts + " attempts.");
+        }
+        if (complete(shard, result)) {
+            logger.warn("Shard {} abandoned after {} attempts", shard, attempts);
+        }
+    }
+
+    // true if the lease of one of the attempts up to the given one is
+    // still renewed
+    private boolean hasLiveAttempt(int shard, int lastAttempt, long now) throws IOException {
+        for (int attempt = 0; attempt <= lastAttempt; attempt++) {
+            try {
+                if (now - Files.getLastModifiedTime(getLease(shard, attempt)).toMillis() <= leaseMillis) {
+                    return true;
+                }
+            } catch (NoSuchFileException e) {
+                // not claimed
+            }
+        }
+        return false;
+    }
+
+    private int getLastAttempt(int shard) {
+        int attempt = 0;
+        while (attempt + 1 < maxAttempts && Files.exists(getLease(shard, attempt + 1))) {
+            attempt++;
+        }
+        return attempt;
+    }
+
+    // from the lease, or its modification time while it is being written
+    private static long getClaimTime(Path lease) throws IOException {
+        String[] lines = Files.readString(lease).split("\n");
+        if (lines.length >= 2) {
+            try {
+                return Long.parseLong(lines[1].trim());
+            } catch (NumberFormatException e) {
+                // partly written
+            }
+        }
+        return Files.getLastModifiedTime(lease).toMillis();
+    }
+
+    private Path getLease(int shard, int attempt) {
+        return directory.resolve(LEASES).resolve(shard + "." + attempt);
+    }
+
+    private Path getDone(int shard) {
+        return directory.resolve(DONE).resolve(shard + ".properties");
+    }
+
+    static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    // written to a temporary file and moved, so that readers never see it partly written
+    static void store(Path file, Properties properties) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".part");
+        write(temp, properties);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void write(Path file, Properties properties) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+    }
+}
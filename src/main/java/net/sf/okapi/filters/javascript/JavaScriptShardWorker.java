@@ -0,0 +1,161 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.exceptions.OkapiException;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes shards from the queue of a {@link JavaScriptShardCoordinator}
+ * until all of them are completed. The documents of a shard are extracted
+ * by a {@link JavaScriptBatchExtractor} with the parameters of the job, and
+ * their events written with a {@link JavaScriptEventWriter} to the output
+ * paths of the shard.
+ * <p>
+ * A worker that is restarted with the same id resumes from its checkpoint
+ * journal, so the documents it completed before are not extracted again.
+ */
+public class JavaScriptShardWorker {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptShardWorker.class);
+
+    private final Path queue;
+    private final String id;
+    private final int threads;
+
+    /**
+     * @param id a name unique among the workers of the queue
+     */
+    public JavaScriptShardWorker(Path queue, String id, int threads) {
+        this.queue = queue;
+        this.id = id.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.threads = threads;
+    }
+
+    /**
+     * Works until every shard of the queue is completed, waiting for the
+     * coordinator to write the queue if needed.
+     *
+     * @return the number of shards completed by this worker.
+     */
+    public int run() {
+        try {
+            JavaScriptShardQueue shards = open();
+            long poll = Math.max(10, Math.min(1000, shards.getLeaseMillis() / 4));
+            ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "shard-lease-" + id);
+                thread.setDaemon(true);
+                return thread;
+            });
+            int completed = 0;
+            try (JavaScriptBatchExtractor extractor = new JavaScriptBatchExtractor(shards.getParameters(),
+                    shards.getJournal(id))) {
+                while (!shards.isComplete()) {
+                    JavaScriptShardQueue.Claim claim = shards.claim(id);
+                    if (claim == null) {
+                        Thread.sleep(poll);
+                        continue;
+                    }
+                    ScheduledFuture<?> renewal = heartbeat.scheduleAtFixedRate(() -> renew(shards, claim), poll,
+                            poll, TimeUnit.MILLISECONDS);
+                    try {
+                        if (process(shards, claim, extractor)) {
+                            completed++;
+                        }
+                    } catch (RuntimeException | IOException e) {
+                        logger.warn("{} gives up shard {}", id, claim.shard, e);
+                        renewal.cancel(false);
+                        shards.release(claim);
+                    } finally {
+                        renewal.cancel(false);
+                    }
+                }
+            } finally {
+                heartbeat.shutdownNow();
+            }
+            return completed;
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot use the shard queue " + queue, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OkapiException("Interrupted while waiting for shards.", e);
+        }
+    }
+
+    private JavaScriptShardQueue open() throws IOException, InterruptedException {
+        while (!Files.exists(queue.resolve(JavaScriptShardQueue.JOB))) {
+            Thread.sleep(100);
+        }
+        return new JavaScriptShardQueue(queue);
+    }
+
+    // false if another attempt completed the shard first
+    private boolean process(JavaScriptShardQueue shards, JavaScriptShardQueue.Claim claim,
+            JavaScriptBatchExtractor extractor) throws IOException {
+        Map<Path, Path> documents = shards.getDocuments(claim.shard);
+        JavaScriptBatchExtractor.Result result = extractor.run(List.copyOf(documents.keySet()), shards.getEncoding(),
+                shards.getSourceLocale(), threads, (document, events) -> write(documents.get(document), events));
+
+        Properties properties = new Properties();
+        properties.setProperty("worker", id);
+        properties.setProperty("attempt", Integer.toString(claim.attempt));
+        properties.setProperty("processed", Integer.toString(result.getProcessed()));
+        properties.setProperty("skipped", Integer.toString(result.getSkipped()));
+        int i = 0;
+        for (Map.Entry<Path, Exception> failure : result.getFailures().entrySet()) {
+            properties.setProperty("failure." + i + ".document", failure.getKey().toString());
+            properties.setProperty("failure." + i + ".message", String.valueOf(failure.getValue().getMessage()));
+            i++;
+        }
+        if (!shards.complete(claim.shard, properties)) {
+            logger.info("{}: shard {} was completed by another attempt", id, claim.shard);
+            return false;
+        }
+        return true;
+    }
+
+    // replaced at once, so that a concurrent attempt never leaves a mix of both
+    private Path write(Path output, List<Event> events) throws IOException {
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Path temp = output.resolveSibling(output.getFileName() + "." + id + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp);
+             JavaScriptEventWriter writer = new JavaScriptEventWriter(out)) {
+            events.forEach(writer::write);
+        }
+        Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return output;
+    }
+
+    private void renew(JavaScriptShardQueue shards, JavaScriptShardQueue.Claim claim) {
+        try {
+            shards.renew(claim);
+        } catch (IOException e) {
+            logger.warn("{} cannot renew the lease of shard {}", id, claim.shard, e);
+        }
+    }
+
+    /**
+     * Arguments: the queue directory, then optionally the worker id
+     * (host and process id by default) and the number of threads.
+     */
+    public static void main(String[] args) {
+        String id = args.length > 1 ? args[1] : ManagementFactory.getRuntimeMXBean().getName();
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int completed = new JavaScriptShardWorker(Path.of(args[0]), id, threads).run();
+        logger.info("{} completed {} shards", id, completed);
+    }
+}
@@ -0,0 +1,177 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.annotation.GenericAnnotation;
+import net.sf.okapi.common.annotation.Note;
+import net.sf.okapi.common.annotation.NoteAnnotation;
+
+import java.lang.reflect.Field;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The notes and metadata of an object, built once and shared by all the
+ * TUs in it. Both annotations are read-only: a step changing the
+ * annotations of one TU sets a copy of them on it instead.
+ * <p>
+ * The annotations of a TU are found by their exact class, so the shared
+ * notes are a plain {@link NoteAnnotation} whose list is replaced by one
+ * that cannot be changed. The notes read from it are copies, which can be
+ * changed without affecting the other TUs.
+ */
+final class JavaScriptSharedAnnotations {
+    // the list of a NoteAnnotation, or null if it cannot be replaced
+    private static final Field NOTES = notesField();
+
+    private JavaScriptSharedAnnotations() {
+    }
+
+    private static Field notesField() {
+        try {
+            Field field = NoteAnnotation.class.getDeclaredField("notes");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the annotations returned by
+     * {@link #notes(NoteAnnotation, List)} can be shared by several TUs.
+     */
+    static boolean canShareNotes() {
+        return NOTES != null;
+    }
+
+    /**
+     * @param first the notes of a nested object, or null
+     * @param second the notes of the object
+     * @return a read-only annotation listing both, or a copy of them if
+     * {@link #canShareNotes()} is false.
+     */
+    static NoteAnnotation notes(NoteAnnotation first, List<Note> second) {
+        List<Note> notes = new ArrayList<>(second.size());
+        if (first != null) {
+            first.forEach(notes::add);
+        }
+        second.forEach(note -> notes.add(copy(note)));
+        NoteAnnotation annotation = new NoteAnnotation();
+        if (NOTES == null) {
+            notes.forEach(annotation::add);
+            return annotation;
+        }
+        try {
+            NOTES.set(annotation, new NoteCopies(notes.toArray(new Note[0])));
+        } catch (IllegalAccessException e) {
+            notes.forEach(annotation::add);
+        }
+        return annotation;
+    }
+
+    /**
+     * @param metadata the metadata of the object, not changed afterwards
+     * @return a read-only copy of it.
+     */
+    static GenericAnnotation metadata(GenericAnnotation metadata) {
+        return new Metadata(metadata);
+    }
+
+    private static Note copy(Note note) {
+        Note copy = new Note(note.getNoteText());
+        copy.setXmlLang(note.getXmLang());
+        copy.setFrom(note.getFrom());
+        copy.setPriority(note.getPriority());
+        copy.setAnnotates(note.getAnnotates());
+        return copy;
+    }
+
+    private static final class NoteCopies extends AbstractList<Note> {
+        private final Note[] notes;
+
+        NoteCopies(Note[] notes) {
+            this.notes = notes;
+        }
+
+        @Override
+        public Note get(int index) {
+            return copy(notes[index]);
+        }
+
+        @Override
+        public int size() {
+            return notes.length;
+        }
+    }
+
+    private static final class Metadata extends GenericAnnotation {
+        private final boolean readOnly;
+
+        Metadata(GenericAnnotation metadata) {
+            super(metadata.getType());
+            super.fromString(metadata.toString());
+            readOnly = true;
+        }
+
+        private void checkNotReadOnly() {
+            if (readOnly) {
+                throw new UnsupportedOperationException("Metadata shared by several text units, change a clone of it.");
+            }
+        }
+
+        @Override
+        public Set<String> getNames() {
+            return Collections.unmodifiableSet(super.getNames());
+        }
+
+        @Override
+        public void setString(String name, String value) {
+            checkNotReadOnly();
+            super.setString(name, value);
+        }
+
+        @Override
+        public void setBoolean(String name, Boolean value) {
+            checkNotReadOnly();
+            super.setBoolean(name, value);
+        }
+
+        @Override
+        public void setDouble(String name, Double value) {
+            checkNotReadOnly();
+            super.setDouble(name, value);
+        }
+
+        @Override
+        public void setInteger(String name, Integer value) {
+            checkNotReadOnly();
+            super.setInteger(name, value);
+        }
+
+        @Override
+        public void setFields(Object... fields) {
+            checkNotReadOnly();
+            super.setFields(fields);
+        }
+
+        @Override
+        public void remove(String name) {
+            checkNotReadOnly();
+            super.remove(name);
+        }
+
+        @Override
+        public void fromString(String storage) {
+            checkNotReadOnly();
+            super.fromString(storage);
+        }
+
+        // a plain annotation, which can be changed
+        @Override
+        public GenericAnnotation clone() {
+            return GenericAnnotation.createFromString(toString());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.ISkeleton;
+
+/**
+ * Skeleton whose text lives in a {@link JavaScriptSkeletonStore} rather
+ * than on the heap. The text can be read until the filter that created the
+ * skeleton is closed or re-opened.
+ */
+public class JavaScriptSkeletonReference implements ISkeleton {
+    private final JavaScriptSkeletonStore store;
+    private final long offset;
+    private final int length;
+    private IResource parent;
+
+    JavaScriptSkeletonReference(JavaScriptSkeletonStore store, long offset, int length) {
+        this.store = store;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return store.read(offset, length);
+    }
+
+    @Override
+    public ISkeleton clone() {
+        JavaScriptSkeletonReference copy = new JavaScriptSkeletonReference(store, offset, length);
+        copy.setParent(parent);
+        return copy;
+    }
+
+    @Override
+    public void setParent(IResource parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public IResource getParent() {
+        return parent;
+    }
+}
@@ -0,0 +1,128 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap storage for skeleton text. Text is appended as UTF-16 to a
+ * temporary file and read back through read-only memory-mapped segments,
+ * so offsets and lengths are in chars.
+ */
+class JavaScriptSkeletonStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(JavaScriptSkeletonStore.class);
+    // in bytes, must be even so that no char spans two segments
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer;
+    private final List<MappedByteBuffer> segments;
+    // chars appended so far, including buffered ones
+    private long length;
+    // bytes covered by the mapped segments
+    private long mapped;
+
+    public JavaScriptSkeletonStore() {
+        try {
+            file = Files.createTempFile("okapi-js-skeleton-", ".tmp");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot create the skeleton spill file.", e);
+        }
+        writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        segments = new ArrayList<>();
+    }
+
+    /**
+     * Appends text to the store.
+     *
+     * @return the offset of the text in the store
+     */
+    public synchronized long append(String text) {
+        long offset = length;
+        for (int i = 0; i < text.length(); i++) {
+            if (writeBuffer.remaining() < 2) {
+                flush();
+            }
+            writeBuffer.putChar(text.charAt(i));
+        }
+        length += text.length();
+        return offset;
+    }
+
+    /**
+     * Reads text previously appended to the store.
+     */
+    public String read(long offset, int count) {
+        long start = offset * 2;
+        long end = start + count * 2L;
+        List<MappedByteBuffer> current = map(end);
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            long position = start + i * 2L;
+            // absolute reads: safe for concurrent readers
+            chars[i] = current.get((int) (position / SEGMENT_SIZE)).getChar((int) (position % SEGMENT_SIZE));
+        }
+        return new String(chars);
+    }
+
+    private synchronized List<MappedByteBuffer> map(long end) {
+        if (end > mapped) {
+            flush();
+            try {
+                long size = channel.size();
+                // remap the last, partially mapped segment and add the new ones
+                if (!segments.isEmpty() && mapped % SEGMENT_SIZE != 0) {
+                    segments.remove(segments.size() - 1);
+                    mapped -= mapped % SEGMENT_SIZE;
+                }
+                while (mapped < size) {
+                    long segmentSize = Math.min(SEGMENT_SIZE, size - mapped);
+                    segments.add(channel.map(FileChannel.MapMode.READ_ONLY, mapped, segmentSize));
+                    mapped += segmentSize;
+                }
+            } catch (IOException e) {
+                throw new OkapiIOException("Cannot read the skeleton spill file.", e);
+            }
+        }
+        return new ArrayList<>(segments);
+    }
+
+    private void flush() {
+        writeBuffer.flip();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer, channel.size());
+            }
+        } catch (IOException e) {
+            throw new OkapiIOException("Cannot write the skeleton spill file.", e);
+        }
+        writeBuffer.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        segments.clear();
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // still mapped on some platforms
+            logger.debug("Cannot delete the skeleton spill file {}", file, e);
+            file.toFile().deleteOnExit();
+        }
+    }
+}
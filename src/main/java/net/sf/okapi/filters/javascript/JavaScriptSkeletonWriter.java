@@ -1,5 +1,6 @@
 package net.sf.okapi.filters.javascript;
 
+import net.sf.okapi.common.ISkeleton;
 import net.sf.okapi.common.LocaleId;
 import net.sf.okapi.common.encoder.EncoderContext;
 import net.sf.okapi.common.resource.ITextUnit;
@@ -10,6 +11,15 @@ import net.sf.okapi.common.skeleton.GenericSkeletonWriter;
 import java.util.List;
 
 public class JavaScriptSkeletonWriter extends GenericSkeletonWriter {
+    @Override
+    protected String getString(ISkeleton skeleton, EncoderContext context) {
+        // spilled skeleton text is written as is
+        if (skeleton instanceof JavaScriptSkeletonReference) {
+            return skeleton.toString();
+        }
+        return super.getString(skeleton, context);
+    }
+
     protected String getString(ITextUnit tu, LocaleId locToUse, EncoderContext context) {
         if (!context.equals(EncoderContext.TEXT)) {
             return super.getString(tu, locToUse, context);
@@ -0,0 +1,272 @@
+package net.sf.okapi.filters.javascript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal tar support for {@link JavaScriptArchiveProcessor}: regular files
+ * and directories in ustar format, with GNU and pax long names on input and
+ * GNU long names on output. Other entries, such as links and global pax
+ * headers, are read with the blocks of their headers and written back as
+ * they are.
+ */
+final class JavaScriptTar {
+    private static final int BLOCK = 512;
+    // blocks per record, the unit tar archives are padded to
+    private static final int RECORD_BLOCKS = 20;
+    private static final String LONG_LINK = "././@LongLink";
+
+    private JavaScriptTar() {
+    }
+
+    static final class Reader {
+        private final InputStream in;
+        private final byte[] header = new byte[BLOCK];
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next entry, a file or directory with its content or
+         * another entry with its blocks, or null at the end of the archive.
+         */
+        JavaScriptArchiveProcessor.Entry next() throws IOException {
+            String longName = null;
+            // the blocks of the entry and of the extended headers before it,
+            // kept for an entry written back as it is
+            ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+            while (true) {
+                int n = in.readNBytes(header, 0, BLOCK);
+                if (n == 0 || isZero(header)) {
+                    return null;
+                }
+                if (n < BLOCK) {
+                    throw new EOFException("Truncated tar header.");
+                }
+                if (parseOctal(header, 148, 8) != checksum(header)) {
+                    throw new IOException("Bad tar header checksum.");
+                }
+                byte type = header[156];
+                boolean rewritten = type == '0' || type == 0 || type == '5';
+                if (!rewritten) {
+                    blocks.write(header);
+                }
+                byte[] data = readData(parseOctal(header, 124, 12), rewritten ? null : blocks);
+                switch (type) {
+                    case 'L':
+                        longName = cString(data, 0, data.length);
+                        continue;
+                    case 'K':
+                        // the long link name of the next entry, in its blocks
+                        continue;
+                    case 'x':
+                        String path = paxPath(data);
+                        if (path != null) {
+                            longName = path;
+                        }
+                        continue;
+                    default:
+                        break;
+                }
+                String name = longName != null ? longName : ustarName(header);
+                JavaScriptArchiveProcessor.Entry entry = new JavaScriptArchiveProcessor.Entry(name, type == '5',
+                        parseOctal(header, 136, 12) * 1000L);
+                if (rewritten) {
+                    entry.mode = (int) parseOctal(header, 100, 8);
+                    entry.data = data;
+                } else {
+                    entry.blocks = blocks.toByteArray();
+                    entry.data = new byte[0];
+                }
+                return entry;
+            }
+        }
+
+        // the content of an entry, copied with its padding if blocks is not null
+        private byte[] readData(long size, ByteArrayOutputStream blocks) throws IOException {
+            if (size > Integer.MAX_VALUE - BLOCK) {
+                throw new IOException("Tar entry too large: " + size + " bytes.");
+            }
+            byte[] data = in.readNBytes((int) size);
+            int padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+            byte[] pad = in.readNBytes(padding);
+            if (data.length < size || pad.length < padding) {
+                throw new EOFException("Truncated tar entry.");
+            }
+            if (blocks != null) {
+                blocks.write(data);
+                blocks.write(pad);
+            }
+            return data;
+        }
+    }
+
+    static final class Writer {
+        private final OutputStream out;
+        private long blocks;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(JavaScriptArchiveProcessor.Entry entry, byte[] data) throws IOException {
+            if (entry.blocks != null) {
+                out.write(entry.blocks);
+                blocks += entry.blocks.length / BLOCK;
+                return;
+            }
+            String name = entry.directory && !entry.name.endsWith("/") ? entry.name + "/" : entry.name;
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            byte[] prefix = null;
+            if (nameBytes.length > 100) {
+                int split = prefixSplit(nameBytes);
+                if (split >= 0) {
+                    prefix = Arrays.copyOf(nameBytes, split);
+                    nameBytes = Arrays.copyOfRange(nameBytes, split + 1, nameBytes.length);
+                } else {
+                    // NUL-terminated name in the data of a GNU long name entry
+                    byte[] link = Arrays.copyOf(nameBytes, nameBytes.length + 1);
+                    writeEntry(header(LONG_LINK.getBytes(StandardCharsets.US_ASCII), null, 0, (byte) 'L',
+                            link.length, 0), link);
+                    nameBytes = Arrays.copyOf(nameBytes, 100);
+                }
+            }
+            writeEntry(header(nameBytes, prefix, entry.mode, entry.directory ? (byte) '5' : (byte) '0',
+                    data.length, entry.lastModified), data);
+        }
+
+        /**
+         * Writes the end of archive blocks. Does not close the stream.
+         */
+        void finish() throws IOException {
+            long end = blocks + 2;
+            long padded = (end + RECORD_BLOCKS - 1) / RECORD_BLOCKS * RECORD_BLOCKS;
+            out.write(new byte[(int) (padded - blocks) * BLOCK]);
+            out.flush();
+        }
+
+        private void writeEntry(byte[] header, byte[] data) throws IOException {
+            out.write(header);
+            out.write(data);
+            int padding = (BLOCK - data.length % BLOCK) % BLOCK;
+            out.write(new byte[padding]);
+            blocks += 1 + (data.length + padding) / BLOCK;
+        }
+
+        private static byte[] header(byte[] name, byte[] prefix, int mode, byte type, long size,
+                                     long lastModified) {
+            byte[] h = new byte[BLOCK];
+            System.arraycopy(name, 0, h, 0, Math.min(name.length, 100));
+            if (prefix != null) {
+                System.arraycopy(prefix, 0, h, 345, prefix.length);
+            }
+            if (mode == 0) {
+                mode = type == '5' ? 0755 : 0644;
+            }
+            writeOctal(h, 100, 8, mode);
+            writeOctal(h, 108, 8, 0);
+            writeOctal(h, 116, 8, 0);
+            writeOctal(h, 124, 12, size);
+            writeOctal(h, 136, 12, Math.max(0, lastModified / 1000L));
+            h[156] = type;
+            System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+            writeOctal(h, 148, 7, checksum(h));
+            h[155] = ' ';
+            return h;
+        }
+
+        // index of the '/' splitting the name into a ustar prefix and name, or -1
+        private static int prefixSplit(byte[] name) {
+            if (name.length <= 100) {
+                return -1;
+            }
+            for (int i = Math.min(155, name.length - 2); i > 0; i--) {
+                if (name[i] == '/' && name.length - i - 1 <= 100) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the checksum field itself counts as spaces
+    private static long checksum(byte[] h) {
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : h[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    private static long parseOctal(byte[] h, int offset, int length) throws IOException {
+        long value = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end && h[i] == ' ') {
+            i++;
+        }
+        for (; i < end && h[i] != 0 && h[i] != ' '; i++) {
+            if (h[i] < '0' || h[i] > '7') {
+                throw new IOException("Bad octal number in tar header.");
+            }
+            value = (value << 3) + (h[i] - '0');
+        }
+        return value;
+    }
+
+    // digits followed by a NUL
+    private static void writeOctal(byte[] h, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int pad = length - 1 - digits.length();
+        for (int i = 0; i < pad; i++) {
+            h[offset + i] = '0';
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            h[offset + pad + i] = (byte) digits.charAt(i);
+        }
+        h[offset + length - 1] = 0;
+    }
+
+    private static String ustarName(byte[] h) {
+        String name = cString(h, 0, 100);
+        if (h[257] == 'u' && h[258] == 's' && h[259] == 't' && h[260] == 'a' && h[261] == 'r' && h[345] != 0) {
+            return cString(h, 345, 155) + "/" + name;
+        }
+        return name;
+    }
+
+    private static String cString(byte[] b, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && b[end] != 0) {
+            end++;
+        }
+        return new String(b, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // the path record of a pax extended header, as "<length> path=<value>\n"
+    private static String paxPath(byte[] data) {
+        String records = new String(data, StandardCharsets.UTF_8);
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 6);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,518 @@
+package net.sf.okapi.filters.javascript;
+
+import org.antlr.v4.runtime.Token;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hand-written equivalent of the generated {@link JavaScriptLexer} that
+ * works directly on UTF-8 bytes. Token boundaries are found on the bytes
+ * and only the text of the tokens asked for is decoded. Keep it in sync
+ * with JavaScriptLexer.g4.
+ * <p>
+ * The input must be well-formed UTF-8, see {@link #isWellFormed(byte[], int, int)}.
+ */
+class JavaScriptUtf8Lexer {
+    private static final String[] ASCII = new String[128];
+
+    static {
+        for (int i = 0; i < ASCII.length; i++) {
+            ASCII[i] = String.valueOf((char) i);
+        }
+    }
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private int tokenStart;
+    // code point index of indexedPos, for token offsets
+    private int indexedPos;
+    private int indexedCodePoints;
+
+    public JavaScriptUtf8Lexer(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.end = offset + length;
+        this.pos = offset;
+        this.tokenStart = offset;
+        this.indexedPos = offset;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return the token type, one of the {@link JavaScriptLexer} types or
+     * {@link Token#EOF}.
+     */
+    public int nextToken() {
+        tokenStart = pos;
+        if (pos >= end) {
+            return Token.EOF;
+        }
+        int b = buf[pos] & 0xFF;
+        switch (b) {
+            case '/':
+                if (pos + 1 < end && buf[pos + 1] == '*') {
+                    // unterminated: up to the end of the input
+                    int close = indexOfCommentEnd(pos + 2);
+                    pos = close >= 0 ? close + 2 : end;
+                    return JavaScriptLexer.COMMENT;
+                } else if (pos + 1 < end && buf[pos + 1] == '/') {
+                    pos += 2;
+                    while (pos < end && lineTerminatorLength(pos) == 0) {
+                        pos++;
+                    }
+                    return JavaScriptLexer.COMMENT;
+                }
+                pos++;
+                return JavaScriptLexer.OTHERS;
+            case ',':
+            case ':':
+                pos++;
+                return JavaScriptLexer.SEPARATOR;
+            case '{':
+                pos++;
+                return JavaScriptLexer.OBJECT_START;
+            case '}':
+                pos++;
+                return JavaScriptLexer.OBJECT_END;
+            case '\t':
+            case 0x0B:
+            case 0x0C:
+            case ' ':
+                skipWhitespace();
+                return JavaScriptLexer.WHITE_SPACE;
+            case '\r':
+            case '\n':
+                pos++;
+                return JavaScriptLexer.WHITE_SPACE;
+            case '"':
+            case '\'':
+                return scanString(b);
+            case '-':
+            case '.':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                return scanNumber();
+            case '\\':
+                if (unicodeEscapeLength(pos + 1, 2) > 0) {
+                    return scanIdentifier();
+                }
+                pos++;
+                return JavaScriptLexer.OTHERS;
+            default:
+                break;
+        }
+
+        if (b < 0x80) {
+            if (isAsciiIdentifierStart(b)) {
+                return scanIdentifier();
+            }
+            pos++;
+            return JavaScriptLexer.OTHERS;
+        }
+
+        int cp = codePointAt(pos);
+        if (cp == 0x00A0) {
+            skipWhitespace();
+            return JavaScriptLexer.WHITE_SPACE;
+        }
+        if (cp == 0x2028 || cp == 0x2029) {
+            pos += 3;
+            return JavaScriptLexer.WHITE_SPACE;
+        }
+        if (isIdentifierStart(cp)) {
+            return scanIdentifier();
+        }
+        pos += codePointLength(b);
+        return JavaScriptLexer.OTHERS;
+    }
+
+    /**
+     * @return the text of the current token.
+     */
+    public String getText() {
+        int length = pos - tokenStart;
+        if (length == 1 && buf[tokenStart] >= 0) {
+            return ASCII[buf[tokenStart]];
+        }
+        for (int i = tokenStart; i < pos; i++) {
+            if (buf[i] < 0) {
+                return new String(buf, tokenStart, length, StandardCharsets.UTF_8);
+            }
+        }
+        // pure ASCII: no decoding needed
+        return new String(buf, tokenStart, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the start index of the current token in code points, like
+     * {@link Token#getStartIndex()}. Tokens must be asked for in order.
+     */
+    public int getTokenStartIndex() {
+        for (; indexedPos < tokenStart; indexedPos++) {
+            if ((buf[indexedPos] & 0xC0) != 0x80) {
+                indexedCodePoints++;
+            }
+        }
+        return indexedCodePoints;
+    }
+
+    /**
+     * @return the byte offset of the current token.
+     */
+    int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return the byte offset after the current token.
+     */
+    int getPosition() {
+        return pos;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            pos = JavaScriptScanSupport.skipBlanks(buf, pos, end);
+            if (pos + 1 < end && (buf[pos] & 0xFF) == 0xC2 && (buf[pos + 1] & 0xFF) == 0xA0) {
+                pos += 2;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int indexOfCommentEnd(int from) {
+        for (int i = from; i + 1 < end; i++) {
+            if (buf[i] == '*' && buf[i + 1] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // length of the line terminator at p (CR, LF, U+2028 or U+2029), or 0
+    private int lineTerminatorLength(int p) {
+        int b = buf[p] & 0xFF;
+        if (b == '\r' || b == '\n') {
+            return 1;
+        }
+        if (b == 0xE2 && p + 2 < end && (buf[p + 1] & 0xFF) == 0x80
+                && ((buf[p + 2] & 0xFF) == 0xA8 || (buf[p + 2] & 0xFF) == 0xA9)) {
+            return 3;
+        }
+        return 0;
+    }
+
+    private int scanString(int quote) {
+        int p = pos + 1;
+        while (p < end) {
+            p = JavaScriptScanSupport.indexOfStringSpecial(buf, p, end, (byte) quote);
+            if (p >= end) {
+                break;
+            }
+            int b = buf[p] & 0xFF;
+            if (b == quote) {
+                pos = p + 1;
+                return JavaScriptLexer.STRING;
+            }
+            if (b == '\r' || b == '\n') {
+                break;
+            }
+            // a backslash
+            int length = escapeLength(p + 1);
+            if (length < 0) {
+                break;
+            }
+            p += 1 + length;
+        }
+        // unterminated: up to the line end or invalid escape, so that its
+        // quotes are not scanned again
+        pos = Math.min(p, end);
+        return JavaScriptLexer.OTHERS;
+    }
+
+    // length of the escape sequence or line continuation after a backslash, or -1
+    private int escapeLength(int p) {
+        if (p >= end) {
+            return -1;
+        }
+        int c = buf[p] & 0xFF;
+        switch (c) {
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                return -1;
+            case 'x':
+                return isHexDigit(p + 1) && isHexDigit(p + 2) ? 3 : -1;
+            case 'u':
+                return unicodeEscapeLength(p, 1);
+            default:
+                // single escape, non escape character, '0' or line continuation
+                return c < 0x80 ? 1 : codePointLength(c);
+        }
+    }
+
+    /*
+     * Length of a \\u escape starting at the 'u' at p, or -1. The braced
+     * form needs at least minBracedDigits hex digits.
+     */
+    private int unicodeEscapeLength(int p, int minBracedDigits) {
+        if (p >= end || buf[p] != 'u') {
+            return -1;
+        }
+        if (isHexDigit(p + 1) && isHexDigit(p + 2) && isHexDigit(p + 3) && isHexDigit(p + 4)) {
+            return 5;
+        }
+        if (p + 1 < end && buf[p + 1] == '{') {
+            int i = p + 2;
+            while (isHexDigit(i)) {
+                i++;
+            }
+            if (i - (p + 2) >= minBracedDigits && i < end && buf[i] == '}') {
+                return i + 1 - p;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isHexDigit(int p) {
+        if (p >= end) {
+            return false;
+        }
+        int c = buf[p];
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '_';
+    }
+
+    private int scanNumber() {
+        int p = numberEnd(buf[pos] == '-' ? pos + 1 : pos);
+        if (p < 0) {
+            // a sign or dot alone
+            pos++;
+            return JavaScriptLexer.OTHERS;
+        }
+        if (p < end && buf[p] == 'n') {
+            p++;
+        }
+        pos = p;
+        return JavaScriptLexer.NUMBER;
+    }
+
+    // end of the unsigned number at p, without BigInt suffix, or -1
+    private int numberEnd(int p) {
+        if (p >= end) {
+            return -1;
+        }
+        if (buf[p] == '0' && p + 1 < end) {
+            int radix = buf[p + 1] | 0x20;
+            if (radix == 'x' || radix == 'o' || radix == 'b') {
+                int i = p + 2;
+                while (i < end && isRadixDigit(buf[i], radix)) {
+                    i++;
+                }
+                if (i > p + 2) {
+                    return i;
+                }
+                // just the 0
+            }
+        }
+        int i;
+        if (isDecimalDigit(buf[p])) {
+            i = skipDigits(p + 1);
+            if (i < end && buf[i] == '.') {
+                i = skipDigits(i + 1);
+            }
+        } else if (buf[p] == '.' && p + 1 < end && isDecimalDigit(buf[p + 1])) {
+            i = skipDigits(p + 2);
+        } else {
+            return -1;
+        }
+        // the exponent needs a digit, else it is not part of the number
+        if (i < end && (buf[i] | 0x20) == 'e') {
+            int e = i + 1;
+            if (e < end && (buf[e] == '+' || buf[e] == '-')) {
+                e++;
+            }
+            if (e < end && (isDecimalDigit(buf[e]) || buf[e] == '_')) {
+                i = skipDigits(e + 1);
+            }
+        }
+        return i;
+    }
+
+    // digits and separators
+    private int skipDigits(int p) {
+        while (p < end && (isDecimalDigit(buf[p]) || buf[p] == '_')) {
+            p++;
+        }
+        return p;
+    }
+
+    private static boolean isDecimalDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isRadixDigit(int c, int radix) {
+        if (c == '_') {
+            return true;
+        }
+        switch (radix) {
+            case 'x':
+                return isDecimalDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+            case 'o':
+                return c >= '0' && c <= '7';
+            default:
+                return c == '0' || c == '1';
+        }
+    }
+
+    private int scanIdentifier() {
+        while (pos < end) {
+            int b = buf[pos] & 0xFF;
+            if (b < 0x80) {
+                if (isAsciiIdentifierStart(b) || (b >= '0' && b <= '9')) {
+                    pos++;
+                } else if (b == '\\') {
+                    int length = unicodeEscapeLength(pos + 1, 2);
+                    if (length < 0) {
+                        break;
+                    }
+                    pos += 1 + length;
+                } else {
+                    break;
+                }
+            } else {
+                int cp = codePointAt(pos);
+                if (!isIdentifierPart(cp)) {
+                    break;
+                }
+                pos += codePointLength(b);
+            }
+        }
+
+        // keywords win over identifiers of the same length
+        int length = pos - tokenStart;
+        if (length == 4) {
+            if (matches("null")) {
+                return JavaScriptLexer.NULL;
+            }
+            if (matches("true")) {
+                return JavaScriptLexer.BOOL;
+            }
+        } else if (length == 5 && matches("false")) {
+            return JavaScriptLexer.BOOL;
+        }
+        return JavaScriptLexer.ID;
+    }
+
+    private boolean matches(String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buf[tokenStart + i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiIdentifierStart(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '$' || b == '_';
+    }
+
+    private static boolean isIdentifierStart(int cp) {
+        return Character.isLetter(cp) || cp == '$' || cp == '_';
+    }
+
+    private static boolean isIdentifierPart(int cp) {
+        if (isIdentifierStart(cp) || cp == 0x200C || cp == 0x200D) {
+            return true;
+        }
+        int type = Character.getType(cp);
+        return type == Character.NON_SPACING_MARK || type == Character.DECIMAL_DIGIT_NUMBER
+                || type == Character.CONNECTOR_PUNCTUATION;
+    }
+
+    private static int codePointLength(int b) {
+        if (b < 0x80) {
+            return 1;
+        }
+        if (b < 0xE0) {
+            return 2;
+        }
+        return b < 0xF0 ? 3 : 4;
+    }
+
+    private int codePointAt(int p) {
+        int b = buf[p] & 0xFF;
+        if (b < 0x80) {
+            return b;
+        }
+        if (b < 0xE0) {
+            return ((b & 0x1F) << 6) | (buf[p + 1] & 0x3F);
+        }
+        if (b < 0xF0) {
+            return ((b & 0x0F) << 12) | ((buf[p + 1] & 0x3F) << 6) | (buf[p + 2] & 0x3F);
+        }
+        return ((b & 0x07) << 18) | ((buf[p + 1] & 0x3F) << 12) | ((buf[p + 2] & 0x3F) << 6) | (buf[p + 3] & 0x3F);
+    }
+
+    /**
+     * Checks that the bytes are well-formed UTF-8: no invalid or truncated
+     * sequences, overlong forms, surrogates or code points above U+10FFFF.
+     */
+    public static boolean isWellFormed(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = buf[i];
+            if (b >= 0) {
+                i++;
+                continue;
+            }
+            b &= 0xFF;
+            int count;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                count = 1;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                count = 2;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                count = 3;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (i + count >= end) {
+                return false;
+            }
+            int cp = b & (0x3F >> count);
+            for (int k = 1; k <= count; k++) {
+                int c = buf[i + k] & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                cp = (cp << 6) | (c & 0x3F);
+            }
+            if (cp < min || cp > 0x10FFFF || (cp >= 0xD800 && cp <= 0xDFFF)) {
+                return false;
+            }
+            i += count + 1;
+        }
+        return true;
+    }
+}
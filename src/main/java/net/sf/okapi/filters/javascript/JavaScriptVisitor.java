@@ -8,60 +8,189 @@ import java.io.IOException;
 import java.io.Reader;
 
 public class JavaScriptVisitor {
+    // how often the cancellation token is checked, in tokens
+    private static final int CANCELLATION_CHECK_MASK = 0xFF;
     private final JavaScriptHandler handler;
     private int objectIndex = 0;
     private boolean ExpectValue = false;
+    private Token token;
+    private JavaScriptUtf8Lexer utf8Lexer;
+    private JavaScriptCancellationToken cancellationToken;
+    private int tokenCount;
     public JavaScriptVisitor(JavaScriptHandler handler) {
         this.handler = handler;
     }
 
+    /**
+     * Sets the token checked while visiting, or null for none.
+     */
+    public void setCancellationToken(JavaScriptCancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
     public void visit(Reader reader) throws IOException {
-        CharStream stream = CharStreams.fromReader(reader);
+        visit(CharStreams.fromReader(reader));
+    }
+
+    public void visit(CharStream stream) {
         JavaScriptLexer lexer = new JavaScriptLexer(stream);
-        Token token = lexer.nextToken();
+        utf8Lexer = null;
+        token = lexer.nextToken();
         handler.handleStart();
         while (token.getType() != JavaScriptLexer.EOF) {
-            if (token.getType() == JavaScriptLexer.SEPARATOR) {
-                handler.handleSeparator(token.getText());
-            } else if (token.getType() == JavaScriptLexer.WHITE_SPACE) {
-                handler.handleWhitespace(token.getText());
-            } else if (token.getType() == JavaScriptLexer.OBJECT_START) {
-                objectIndex++;
-                ExpectValue = false;
-                handler.handleObjectStart();
-            } else if (token.getType() == JavaScriptLexer.OBJECT_END) {
-                objectIndex--;
-                ExpectValue = false;
-                handler.handleObjectEnd();
-            } else {
-                String text = token.getText();
-                if (objectIndex > 0) {
-                    if (ExpectValue) {
-                        if (text.startsWith("'")) {
-                            handler.handleValue(text.substring(1, text.length() -1).replace("\\'", "'").replace("\"", "\\\""), JavaScriptValueTypes.SINGLE_QUOTED_STRING);
-                        } else if (text.startsWith("\"")) {
-                            handler.handleValue(text.substring(1, text.length() -1), JavaScriptValueTypes.DOUBLE_QUOTED_STRING);
-                        } else {
-                            handler.handleValue(text, JavaScriptValueTypes.DEFAULT);
-                        }
-                        ExpectValue = false;
+            visitToken(token.getType(), token.getText());
+            token = lexer.nextToken();
+        }
+        handler.handleEnd();
+    }
+
+    /**
+     * Visits UTF-8 content without decoding it to chars first. Only the
+     * tokens passed to the handler are decoded.
+     *
+     * @param utf8   well-formed UTF-8 content, without BOM
+     * @param offset start of the content in the array
+     * @param length length of the content in bytes
+     */
+    public void visit(byte[] utf8, int offset, int length) {
+        utf8Lexer = new JavaScriptUtf8Lexer(utf8, offset, length);
+        token = null;
+        int type = utf8Lexer.nextToken();
+        handler.handleStart();
+        while (type != JavaScriptLexer.EOF) {
+            switch (type) {
+                case JavaScriptLexer.OBJECT_START:
+                case JavaScriptLexer.OBJECT_END:
+                    // text not needed
+                    visitToken(type, null);
+                    break;
+                default:
+                    visitToken(type, utf8Lexer.getText());
+                    break;
+            }
+            type = utf8Lexer.nextToken();
+        }
+        handler.handleEnd();
+    }
+
+    /**
+     * Starts visiting UTF-8 content at a token boundary, in the state the
+     * visitor had there before. Tokens are then visited one at a time by
+     * {@link #visitNextToken()}; handleStart and handleEnd are not called.
+     */
+    void start(byte[] utf8, int offset, int length, int objectIndex, boolean expectValue) {
+        utf8Lexer = new JavaScriptUtf8Lexer(utf8, offset, length);
+        token = null;
+        this.objectIndex = objectIndex;
+        this.ExpectValue = expectValue;
+    }
+
+    /**
+     * @return false at the end of the content.
+     */
+    boolean visitNextToken() {
+        int type = utf8Lexer.nextToken();
+        if (type == JavaScriptLexer.EOF) {
+            return false;
+        }
+        boolean brace = type == JavaScriptLexer.OBJECT_START || type == JavaScriptLexer.OBJECT_END;
+        visitToken(type, brace ? null : utf8Lexer.getText());
+        return true;
+    }
+
+    int getObjectIndex() {
+        return objectIndex;
+    }
+
+    boolean isExpectValue() {
+        return ExpectValue;
+    }
+
+    /**
+     * @return the byte offsets of the current token in the UTF-8 content.
+     */
+    int getTokenStartOffset() {
+        return utf8Lexer.getTokenStart();
+    }
+
+    int getTokenEndOffset() {
+        return utf8Lexer.getPosition();
+    }
+
+    private void visitToken(int type, String text) {
+        if ((++tokenCount & CANCELLATION_CHECK_MASK) == 0 && cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
+        }
+        if (type == JavaScriptLexer.SEPARATOR) {
+            handler.handleSeparator(text);
+        } else if (type == JavaScriptLexer.WHITE_SPACE) {
+            handler.handleWhitespace(text);
+        } else if (type == JavaScriptLexer.OBJECT_START) {
+            objectIndex++;
+            ExpectValue = false;
+            handler.handleObjectStart();
+        } else if (type == JavaScriptLexer.OBJECT_END) {
+            if (objectIndex == 0) {
+                // stray brace, kept as is
+                handler.handleWhitespace("}");
+                return;
+            }
+            objectIndex--;
+            ExpectValue = false;
+            handler.handleObjectEnd();
+        } else if (type == JavaScriptLexer.COMMENT) {
+            handler.handleComment(text);
+        } else {
+            // quotes are only stripped from complete string literals, not
+            // from an unterminated one
+            JavaScriptValueTypes valueType = getValueType(type, text);
+            boolean string = type == JavaScriptLexer.STRING;
+            if (objectIndex > 0) {
+                if (ExpectValue) {
+                    if (valueType == JavaScriptValueTypes.SINGLE_QUOTED_STRING) {
+                        handler.handleValue(text.substring(1, text.length() -1).replace("\\'", "'").replace("\"", "\\\""), valueType);
                     } else {
-                        if (text.startsWith("'")) {
-                            handler.handleKey(text.substring(1, text.length() -1), JavaScriptValueTypes.SINGLE_QUOTED_STRING, JavaScriptKeyTypes.VALUE);
-                        } else if (text.startsWith("\"")) {
-                            handler.handleKey(text.substring(1, text.length() -1), JavaScriptValueTypes.DOUBLE_QUOTED_STRING, JavaScriptKeyTypes.VALUE);
-                        } else {
-                            handler.handleKey(text, JavaScriptValueTypes.DEFAULT, JavaScriptKeyTypes.VALUE);
-                        }
-                        ExpectValue = true;
+                        handler.handleValue(string ? text.substring(1, text.length() -1) : text, valueType);
                     }
+                    ExpectValue = false;
                 } else {
-                    handler.handleWhitespace(text);
+                    handler.handleKey(string ? text.substring(1, text.length() -1) : text, valueType, JavaScriptKeyTypes.VALUE);
+                    ExpectValue = true;
                 }
+            } else {
+                handler.handleWhitespace(text);
             }
-            token = lexer.nextToken();
         }
-        handler.handleEnd();
+    }
+
+    private static JavaScriptValueTypes getValueType(int type, String text) {
+        switch (type) {
+            case JavaScriptLexer.STRING:
+                return text.startsWith("'") ? JavaScriptValueTypes.SINGLE_QUOTED_STRING
+                        : JavaScriptValueTypes.DOUBLE_QUOTED_STRING;
+            case JavaScriptLexer.NUMBER:
+                return JavaScriptValueTypes.NUMBER;
+            case JavaScriptLexer.BOOL:
+                return JavaScriptValueTypes.BOOLEAN;
+            case JavaScriptLexer.NULL:
+                return JavaScriptValueTypes.NULL;
+            case JavaScriptLexer.ID:
+                return JavaScriptValueTypes.SYMBOL;
+            default:
+                // punctuation and unterminated strings
+                return JavaScriptValueTypes.DEFAULT;
+        }
+    }
+
+    /**
+     * @return the start index (in code points) of the token currently
+     * passed to the handler, or -1 before the first token is read.
+     */
+    public int getTokenStartIndex() {
+        if (utf8Lexer != null) {
+            return utf8Lexer.getTokenStartIndex();
+        }
+        return token == null ? -1 : token.getStartIndex();
     }
 
 }
@@ -6,8 +6,15 @@ import net.sf.okapi.common.filters.InlineCodeFinder;
 import net.sf.okapi.common.resource.Code;
 import net.sf.okapi.core.simplifierrules.ParseException;
 import net.sf.okapi.core.simplifierrules.SimplifierRules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class Parameters extends StringParameters implements ISimplifierRulesParameters {
+    private static final Logger logger = LoggerFactory.getLogger(Parameters.class);
+
     private static final String EXTRACTISOLATEDSTRINGS = "extractIsolatedStrings";
     private static final String EXTRACTALLPAIRS = "extractAllPairs";
     private static final String EXCEPTIONS = "exceptions";
@@ -20,6 +27,12 @@ public class Parameters extends StringParameters implements ISimplifierRulesPara
     private static final String ESCAPEFORWARDSLASHES = "escapeForwardSlashes";
     private static final String NOTERULES = "noteRules";
     private static final String SUBFILTERRULES = "subfilterRules";
+    private static final String SKELETONSPILLTHRESHOLD = "skeletonSpillThreshold";
+    private static final String RULEMATCHSTEPLIMIT = "ruleMatchStepLimit";
+    private static final String RULEMATCHTIMELIMIT = "ruleMatchTimeLimit";
+    private static final String REJECTUNSAFERULES = "rejectUnsafeRules";
+    private static final String PRESCAN = "preScan";
+    private static final String POSTPROCESSINGTHREADS = "postProcessingThreads";
 
     // new rule types supersede and override older exception rules if present
     private static final String EXTRACTIONRULES = "extractionRules";
@@ -204,6 +217,137 @@ public class Parameters extends StringParameters implements ISimplifierRulesPara
         }
     }
 
+    /**
+     * Number of skeleton characters per document kept in memory. Past this
+     * threshold the skeleton text is spilled to a temporary file and
+     * consecutive skeleton parts are merged. When set, a UTF-8 document is
+     * also parsed as its events are read, so that they are not all held at
+     * once; the events of an object are still held until it closes if ID,
+     * note or metadata rules are set.
+     *
+     * @return the threshold, or 0 if the skeleton is always kept in memory.
+     */
+    public int getSkeletonSpillThreshold() {
+        return getInteger(SKELETONSPILLTHRESHOLD);
+    }
+
+    /**
+     * @see #getSkeletonSpillThreshold()
+     * @param skeletonSpillThreshold number of characters, or 0 to disable spilling.
+     */
+    public void setSkeletonSpillThreshold(int skeletonSpillThreshold) {
+        setInteger(SKELETONSPILLTHRESHOLD, skeletonSpillThreshold);
+    }
+
+    /**
+     * Maximum number of characters a key path rule may read while matching
+     * one key path, backtracking included.
+     *
+     * @return the limit, or 0 for no limit.
+     */
+    public int getRuleMatchStepLimit() {
+        return getInteger(RULEMATCHSTEPLIMIT);
+    }
+
+    /**
+     * @see #getRuleMatchStepLimit()
+     * @param ruleMatchStepLimit number of characters, or 0 for no limit.
+     */
+    public void setRuleMatchStepLimit(int ruleMatchStepLimit) {
+        setInteger(RULEMATCHSTEPLIMIT, ruleMatchStepLimit);
+    }
+
+    /**
+     * Maximum time a key path rule may take to match one key path.
+     *
+     * @return the limit in milliseconds, or 0 for no limit.
+     */
+    public int getRuleMatchTimeLimit() {
+        return getInteger(RULEMATCHTIMELIMIT);
+    }
+
+    /**
+     * @see #getRuleMatchTimeLimit()
+     * @param ruleMatchTimeLimit milliseconds, or 0 for no limit.
+     */
+    public void setRuleMatchTimeLimit(int ruleMatchTimeLimit) {
+        setInteger(RULEMATCHTIMELIMIT, ruleMatchTimeLimit);
+    }
+
+    /**
+     * Whether documents are refused when {@link #checkRules()} finds a
+     * problem. Otherwise the problems are only logged when the parameters
+     * are loaded.
+     */
+    public boolean getRejectUnsafeRules() {
+        return getBoolean(REJECTUNSAFERULES);
+    }
+
+    public void setRejectUnsafeRules(boolean rejectUnsafeRules) {
+        setBoolean(REJECTUNSAFERULES, rejectUnsafeRules);
+    }
+
+    /**
+     * Whether UTF-8 documents are checked before parsing, so that those
+     * that cannot contain any extractable value are passed through as a
+     * single document part.
+     *
+     * @return true to pre-scan documents.
+     */
+    public boolean getPreScan() {
+        return getBoolean(PRESCAN);
+    }
+
+    public void setPreScan(boolean preScan) {
+        setBoolean(PRESCAN, preScan);
+    }
+
+    /**
+     * Looks for key path rules prone to exponential backtracking, such as
+     * nested quantifiers.
+     *
+     * @return one message per problem found, empty if none.
+     */
+    public List<String> checkRules() {
+        List<String> problems = new ArrayList<>();
+        checkRule(EXCEPTIONS, getExceptions(), problems);
+        checkRule(EXTRACTIONRULES, getExtractionRules(), problems);
+        checkRule(IDRULES, getIdRules(), problems);
+        checkRule(NOTERULES, getNoteRules(), problems);
+        checkRule(GENERICMETARULES, getGenericMetaRules(), problems);
+        checkRule(SUBFILTERRULES, getSubfilterRules(), problems);
+        return problems;
+    }
+
+    private static void checkRule(String name, String rule, List<String> problems) {
+        if (rule == null || rule.isEmpty()) {
+            return;
+        }
+        String problem = JavaScriptRuleAnalyzer.analyze(rule);
+        if (problem != null) {
+            problems.add(String.format("%s: %s", name, problem));
+        }
+    }
+
+    /**
+     * Number of threads that post-process extracted text (unescaping and
+     * inline code finding) while the document is parsed. Events are still
+     * returned in document order.
+     *
+     * @return the number of threads, or 0 to post-process on the parsing thread.
+     */
+    public int getPostProcessingThreads() {
+        return getInteger(POSTPROCESSINGTHREADS);
+    }
+
+    /**
+     * @see #getPostProcessingThreads()
+     * @param postProcessingThreads number of threads, or 0.
+     */
+    public void setPostProcessingThreads(int postProcessingThreads) {
+        setInteger(POSTPROCESSINGTHREADS, postProcessingThreads);
+    }
+
     public boolean getUseCodeFinder() {
         return getBoolean(USECODEFINDER);
     }
@@ -258,11 +402,20 @@ public class Parameters extends StringParameters implements ISimplifierRulesPara
         setExtractionRules("");
         setIdRules("");
         setGenericMetaRules("");
+        setSkeletonSpillThreshold(0);
+        setRuleMatchStepLimit(1000000);
+        setRuleMatchTimeLimit(0);
+        setRejectUnsafeRules(false);
+        setPreScan(true);
+        setPostProcessingThreads(0);
     }
 
     public void fromString(String data) {
         super.fromString(data);
         codeFinder.fromString(buffer.getGroup(CODEFINDERRULES, ""));
+        for (String problem : checkRules()) {
+            logger.warn("Key path rule prone to catastrophic backtracking, {}", problem);
+        }
     }
 
     @Override
@@ -0,0 +1,53 @@
+package net.sf.okapi.filters.javascript;
+
+/**
+ * Java 17 version of the lexer scanning loops: uses
+ * {@link JavaScriptVectorScan} when the jdk.incubator.vector module is
+ * present and the platform has vector registers, the scalar loops
+ * otherwise. Keep in sync with the portable version in src/main/java.
+ */
+final class JavaScriptScanSupport {
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && JavaScriptVectorScan.isSupported();
+
+    private JavaScriptScanSupport() {
+    }
+
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    static int indexOfStringSpecial(byte[] buf, int from, int end, byte quote) {
+        if (VECTORIZED) {
+            return JavaScriptVectorScan.indexOfStringSpecial(buf, from, end, quote);
+        }
+        return scalarIndexOfStringSpecial(buf, from, end, quote);
+    }
+
+    static int skipBlanks(byte[] buf, int from, int end) {
+        if (VECTORIZED) {
+            return JavaScriptVectorScan.skipBlanks(buf, from, end);
+        }
+        return scalarSkipBlanks(buf, from, end);
+    }
+
+    static int scalarIndexOfStringSpecial(byte[] buf, int from, int end, byte quote) {
+        for (int i = from; i < end; i++) {
+            byte b = buf[i];
+            if (b == quote || b == '\\' || b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    static int scalarSkipBlanks(byte[] buf, int from, int end) {
+        for (int i = from; i < end; i++) {
+            byte b = buf[i];
+            if (b != ' ' && b != '\t' && b != 0x0B && b != 0x0C) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,50 @@
+package net.sf.okapi.filters.javascript;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the {@link JavaScriptScanSupport} loops. Only
+ * loaded when the jdk.incubator.vector module is present. The tail shorter
+ * than a vector is scanned with the scalar loops.
+ */
+final class JavaScriptVectorScan {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private JavaScriptVectorScan() {
+    }
+
+    // without vector registers the API falls back to much slower Java code
+    static boolean isSupported() {
+        return SPECIES.vectorBitSize() >= 128;
+    }
+
+    static int indexOfStringSpecial(byte[] buf, int from, int end, byte quote) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(end - from);
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> special = v.eq(quote).or(v.eq((byte) '\\'))
+                    .or(v.eq((byte) '\n')).or(v.eq((byte) '\r'));
+            if (special.anyTrue()) {
+                return i + special.firstTrue();
+            }
+        }
+        return JavaScriptScanSupport.scalarIndexOfStringSpecial(buf, i, end, quote);
+    }
+
+    static int skipBlanks(byte[] buf, int from, int end) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(end - from);
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector v = ByteVector.fromArray(SPECIES, buf, i);
+            VectorMask<Byte> blank = v.eq((byte) ' ').or(v.eq((byte) '\t'))
+                    .or(v.eq((byte) 0x0B)).or(v.eq((byte) 0x0C));
+            if (!blank.allTrue()) {
+                return i + blank.not().firstTrue();
+            }
+        }
+        return JavaScriptScanSupport.scalarSkipBlanks(buf, i, end);
+    }
+}
@@ -0,0 +1,160 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.RawDocument;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hostile and broken inputs: each must be lexed in linear time and memory
+ * by both lexers, and survive an extract and merge round trip unchanged.
+ * A quadratic pass over any of these inputs takes minutes, far above the
+ * bounds asserted here.
+ */
+public class JavaScriptAdversarialInputTest {
+    private static final int MB = 1 << 20;
+    private static final long LEX_TIME_LIMIT_MS = 3000;
+    private static final long FILTER_TIME_LIMIT_MS = 10000;
+    // allocated bytes per input byte
+    private static final long LEX_ALLOCATION_LIMIT = 64;
+    private static final long FILTER_ALLOCATION_LIMIT = 4096;
+
+    private static final Map<String, String> CORPUS = new LinkedHashMap<>();
+
+    static {
+        CORPUS.put("unterminated comments", "define({a: 'x'});\n" + "/*x".repeat(MB / 3));
+        CORPUS.put("unterminated comment", "define({a: 'x'}); /* " + "*".repeat(MB));
+        CORPUS.put("unterminated string", "define({a: '" + "x".repeat(MB));
+        CORPUS.put("escape storm", "define({a: '" + "\\'".repeat(MB / 2));
+        CORPUS.put("quote storm", "define({a: " + "'\\".repeat(MB / 2));
+        CORPUS.put("unterminated lines", "define({\n" + "a: 'abc\n".repeat(MB / 32) + "});");
+        CORPUS.put("megabyte string", "define({a: '" + "x".repeat(MB) + "'});");
+        CORPUS.put("megabyte escapes", "define({a: \"" + "\\n\\\"\\\\\\t".repeat(MB / 8) + "\"});");
+        CORPUS.put("stray braces", "}".repeat(MB / 4) + "define({a: 'x'});");
+        CORPUS.put("unbalanced braces", "define(" + "{a: 'x', b:".repeat(MB / 48));
+        CORPUS.put("deep nesting", "define(" + "{a:".repeat(MB / 16) + "'x'" + "}".repeat(MB / 16) + ");");
+        CORPUS.put("long line", "define({" + "k: 'v', ".repeat(MB / 32) + "});");
+    }
+
+    @Test
+    public void testLexers() {
+        for (Map.Entry<String, String> entry : CORPUS.entrySet()) {
+            String js = entry.getValue();
+            byte[] utf8 = js.getBytes(StandardCharsets.UTF_8);
+
+            long start = System.nanoTime();
+            long allocated = allocatedBytes();
+            long utf8Tokens = lexUtf8(utf8);
+            assertBounds(entry.getKey() + " (UTF-8 lexer)", js.length(), start, allocated, LEX_TIME_LIMIT_MS,
+                    LEX_ALLOCATION_LIMIT);
+
+            start = System.nanoTime();
+            allocated = allocatedBytes();
+            long antlrTokens = lexAntlr(js);
+            assertBounds(entry.getKey() + " (ANTLR lexer)", js.length(), start, allocated, LEX_TIME_LIMIT_MS,
+                    LEX_ALLOCATION_LIMIT);
+
+            // same types at the same offsets
+            assertEquals(entry.getKey(), antlrTokens, utf8Tokens);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (Map.Entry<String, String> entry : CORPUS.entrySet()) {
+            String js = entry.getValue();
+            for (boolean utf8 : new boolean[]{true, false}) {
+                String name = entry.getKey() + (utf8 ? " (UTF-8)" : " (reader)");
+                long start = System.nanoTime();
+                long allocated = allocatedBytes();
+                String output = roundTrip(js, utf8);
+                assertBounds(name, js.length(), start, allocated, FILTER_TIME_LIMIT_MS, FILTER_ALLOCATION_LIMIT);
+                assertTrue(name, js.equals(output));
+            }
+        }
+    }
+
+    @Test
+    public void testUnterminatedTokens() throws IOException {
+        // quotes and comment starts of unterminated tokens are kept as text
+        for (String js : new String[]{"define({a: 'x', b: 'y", "x = '\\'\\'\\'", "define({a: 1}) /* /* /*",
+                "{ \"a\\", "} } define({a: 'x'}) }"}) {
+            assertEquals(js, roundTrip(js, true));
+            assertEquals(js, roundTrip(js, false));
+        }
+    }
+
+    private static String roundTrip(String js, boolean utf8) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(js.length() + 1024);
+        try (JavaScriptFilter filter = new JavaScriptFilter();
+             IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(LocaleId.FRENCH, "UTF-8");
+            writer.setOutput(output);
+            filter.open(utf8
+                    ? new RawDocument(new ByteArrayInputStream(js.getBytes(StandardCharsets.UTF_8)), "UTF-8",
+                    LocaleId.ENGLISH, LocaleId.FRENCH)
+                    : new RawDocument(js, LocaleId.ENGLISH, LocaleId.FRENCH));
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                writer.handleEvent(event);
+            }
+        }
+        return output.toString("UTF-8");
+    }
+
+    // a hash of the types and offsets of the tokens
+    private static long lexUtf8(byte[] utf8) {
+        JavaScriptUtf8Lexer lexer = new JavaScriptUtf8Lexer(utf8, 0, utf8.length);
+        long hash = 0;
+        int type;
+        while ((type = lexer.nextToken()) != Token.EOF) {
+            hash = hash * 31 + type;
+            hash = hash * 31 + lexer.getTokenStartIndex();
+        }
+        return hash;
+    }
+
+    private static long lexAntlr(String js) {
+        JavaScriptLexer lexer = new JavaScriptLexer(CharStreams.fromString(js));
+        long hash = 0;
+        Token token;
+        while ((token = lexer.nextToken()).getType() != Token.EOF) {
+            hash = hash * 31 + token.getType();
+            hash = hash * 31 + token.getStartIndex();
+        }
+        return hash;
+    }
+
+    private static void assertBounds(String name, int length, long start, long allocated, long timeLimit,
+            long allocationLimit) {
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(name + " took " + elapsed + " ms", elapsed < timeLimit);
+        long bytes = allocatedBytes() - allocated;
+        if (allocated >= 0) {
+            assertTrue(name + " allocated " + bytes + " bytes", bytes < allocationLimit * length);
+        }
+    }
+
+    // bytes allocated by this thread so far, or -1 if not supported
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,288 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.RawDocument;
+import net.sf.okapi.common.resource.TextFragment;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class JavaScriptArchiveProcessorTest {
+    private static final LocaleId TARGET = LocaleId.fromString("ja-JP");
+    private static final String LONG_DIRECTORY = "very/" + "long-directory-name/".repeat(8);
+
+    @Test
+    public void testZip() throws IOException {
+        check(JavaScriptArchiveProcessor.Format.ZIP);
+    }
+
+    @Test
+    public void testTarGz() throws IOException {
+        check(JavaScriptArchiveProcessor.Format.TAR_GZ);
+    }
+
+    @Test
+    public void testTarSpecialEntries() throws IOException {
+        // links, a GNU long link name and a global pax header around files
+        List<JavaScriptArchiveProcessor.Entry> entries = new ArrayList<>();
+        entries.add(special((byte) 'g', "pax_global_header", null, "22 comment=generated\n"));
+        entries.add(file("nls/a.js", bundle(1, false)));
+        entries.add(special((byte) '2', "nls/link.js", "a.js", null));
+        entries.add(special((byte) '1', "nls/hard.js", "nls/a.js", null));
+        String longTarget = LONG_DIRECTORY + "target.js";
+        JavaScriptArchiveProcessor.Entry link = special((byte) '2', "nls/long.js", longTarget.substring(0, 100), null);
+        link.blocks = concat(special((byte) 'K', "././@LongLink", null, longTarget + "\0").blocks, link.blocks);
+        entries.add(link);
+        entries.add(special((byte) '3', "dev/tty0", null, null));
+        entries.add(file("nls/b.js", bundle(2, false)));
+        byte[] archive = tarGz(entries);
+
+        try (JavaScriptArchiveProcessor processor = new JavaScriptArchiveProcessor(null, 2)) {
+            List<String> names = new ArrayList<>();
+            processor.extract(new ByteArrayInputStream(archive), JavaScriptArchiveProcessor.Format.TAR_GZ, "UTF-8",
+                    LocaleId.ENGLISH, (name, events) -> names.add(name));
+            assertEquals(Arrays.asList("nls/a.js", "nls/b.js"), names);
+
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            processor.merge(new ByteArrayInputStream(archive), JavaScriptArchiveProcessor.Format.TAR_GZ, merged,
+                    "UTF-8", LocaleId.ENGLISH, TARGET, (name, tu, target) -> translate(tu));
+
+            // written back block for block, in their place
+            JavaScriptTar.Reader tar = new JavaScriptTar.Reader(
+                    new GZIPInputStream(new ByteArrayInputStream(merged.toByteArray())));
+            for (JavaScriptArchiveProcessor.Entry expected : entries) {
+                JavaScriptArchiveProcessor.Entry actual = tar.next();
+                assertNotNull(actual);
+                assertEquals(expected.name, actual.name);
+                if (expected.blocks == null) {
+                    assertNull(actual.blocks);
+                    assertArrayEquals(mergeSingle(expected.data), actual.data);
+                } else {
+                    assertArrayEquals(expected.name, expected.blocks, actual.blocks);
+                }
+            }
+            assertNull(tar.next());
+        }
+    }
+
+    @Test
+    public void testFormatFromFileName() {
+        assertEquals(JavaScriptArchiveProcessor.Format.ZIP, JavaScriptArchiveProcessor.Format.fromFileName("a.ZIP"));
+        assertEquals(JavaScriptArchiveProcessor.Format.TAR_GZ,
+                JavaScriptArchiveProcessor.Format.fromFileName("bundles.tar.gz"));
+        assertEquals(JavaScriptArchiveProcessor.Format.TAR_GZ,
+                JavaScriptArchiveProcessor.Format.fromFileName("bundles.tgz"));
+    }
+
+    private void check(JavaScriptArchiveProcessor.Format format) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("nls/", new byte[0]);
+        entries.put("readme.txt", "not a bundle".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 20; i++) {
+            entries.put("nls/bundle" + i + ".js", bundle(i, i % 3 == 0));
+        }
+        entries.put(LONG_DIRECTORY + "last.js", bundle(99, false));
+        entries.put(LONG_DIRECTORY + "x".repeat(120) + ".js", bundle(100, false));
+        byte[] archive = format == JavaScriptArchiveProcessor.Format.ZIP ? zip(entries) : tarGz(entries);
+
+        try (JavaScriptArchiveProcessor processor = new JavaScriptArchiveProcessor(null, 3)) {
+            List<String> names = new ArrayList<>();
+            processor.extract(new ByteArrayInputStream(archive), format, "UTF-8", LocaleId.ENGLISH,
+                    (name, events) -> {
+                        names.add(name);
+                        List<ITextUnit> tus = new ArrayList<>();
+                        events.stream().filter(Event::isTextUnit).forEach(e -> tus.add(e.getTextUnit()));
+                        assertEquals(2, tus.size());
+                        assertEquals("Café " + name, tus.get(0).getSource().getFirstContent().toText());
+                    });
+            List<String> expectedNames = new ArrayList<>(entries.keySet());
+            expectedNames.removeIf(n -> !n.endsWith(".js"));
+            assertEquals(expectedNames, names);
+
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            processor.merge(new ByteArrayInputStream(archive), format, merged, "UTF-8", LocaleId.ENGLISH, TARGET,
+                    (name, tu, target) -> translate(tu));
+
+            Map<String, byte[]> actual = new LinkedHashMap<>();
+            processor.extract(new ByteArrayInputStream(merged.toByteArray()), format, "UTF-8", LocaleId.ENGLISH,
+                    (name, events) -> actual.put(name, null));
+            assertEquals(expectedNames, new ArrayList<>(actual.keySet()));
+            readBack(merged.toByteArray(), format, entries);
+        }
+    }
+
+    // checks the merged archive against single document merges
+    private static void readBack(byte[] merged, JavaScriptArchiveProcessor.Format format,
+                                 Map<String, byte[]> entries) throws IOException {
+        List<byte[]> actual = contents(merged, format);
+        assertEquals(entries.size(), actual.size());
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            byte[] expected = entry.getKey().endsWith(".js") ? mergeSingle(entry.getValue()) : entry.getValue();
+            assertArrayEquals(entry.getKey(), expected, actual.get(i++));
+        }
+    }
+
+    private static List<byte[]> contents(byte[] archive, JavaScriptArchiveProcessor.Format format)
+            throws IOException {
+        List<byte[]> contents = new ArrayList<>();
+        if (format == JavaScriptArchiveProcessor.Format.ZIP) {
+            try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+                while (zip.getNextEntry() != null) {
+                    contents.add(zip.readAllBytes());
+                }
+            }
+        } else {
+            JavaScriptTar.Reader tar = new JavaScriptTar.Reader(new GZIPInputStream(new ByteArrayInputStream(archive)));
+            JavaScriptArchiveProcessor.Entry entry;
+            while ((entry = tar.next()) != null) {
+                contents.add(entry.data);
+            }
+        }
+        return contents;
+    }
+
+    private static byte[] mergeSingle(byte[] content) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JavaScriptFilter filter = new JavaScriptFilter();
+             IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(TARGET, "UTF-8");
+            writer.setOutput(output);
+            filter.open(new RawDocument(new ByteArrayInputStream(content), "UTF-8", LocaleId.ENGLISH, TARGET));
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    translate(event.getTextUnit());
+                }
+                writer.handleEvent(event);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static void translate(ITextUnit tu) {
+        TextFragment tf = tu.createTarget(TARGET, true, IResource.COPY_ALL).getFirstContent();
+        tf.setCodedText(tf.getCodedText().toUpperCase());
+    }
+
+    private static byte[] bundle(int i, boolean bom) {
+        String name = i == 99 ? LONG_DIRECTORY + "last.js"
+                : i == 100 ? LONG_DIRECTORY + "x".repeat(120) + ".js" : "nls/bundle" + i + ".js";
+        String content = "define({ title: \"Café " + name + "\", n: 'value " + i + "' });\n";
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (!bom) {
+            return bytes;
+        }
+        byte[] withBom = new byte[bytes.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(bytes, 0, withBom, 3, bytes.length);
+        return withBom;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(output)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static JavaScriptArchiveProcessor.Entry file(String name, byte[] data) {
+        JavaScriptArchiveProcessor.Entry entry = new JavaScriptArchiveProcessor.Entry(name, false, 1_700_000_000_000L);
+        entry.data = data;
+        return entry;
+    }
+
+    // the ustar blocks of an entry other than a file or directory
+    private static JavaScriptArchiveProcessor.Entry special(byte type, String name, String linkName, String data) {
+        byte[] content = data == null ? new byte[0] : data.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[512];
+        System.arraycopy(name.getBytes(StandardCharsets.UTF_8), 0, header, 0, name.length());
+        octal(header, 100, 8, 0777);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, content.length);
+        octal(header, 136, 12, 1_700_000_000L);
+        header[156] = type;
+        if (linkName != null) {
+            System.arraycopy(linkName.getBytes(StandardCharsets.UTF_8), 0, header, 157, linkName.length());
+        }
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        octal(header, 148, 7, sum);
+        JavaScriptArchiveProcessor.Entry entry = new JavaScriptArchiveProcessor.Entry(name, false, 0);
+        entry.blocks = concat(header, Arrays.copyOf(content, (content.length + 511) / 512 * 512));
+        entry.data = new byte[0];
+        return entry;
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static byte[] tarGz(List<JavaScriptArchiveProcessor.Entry> entries) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            JavaScriptTar.Writer tar = new JavaScriptTar.Writer(gzip);
+            for (JavaScriptArchiveProcessor.Entry entry : entries) {
+                tar.write(entry, entry.data);
+            }
+            tar.finish();
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] tarGz(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            JavaScriptTar.Writer tar = new JavaScriptTar.Writer(gzip);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                String name = entry.getKey();
+                JavaScriptArchiveProcessor.Entry e = new JavaScriptArchiveProcessor.Entry(name, name.endsWith("/"),
+                        1_700_000_000_000L);
+                tar.write(e, entry.getValue());
+            }
+            tar.finish();
+        }
+        return output.toByteArray();
+    }
+}
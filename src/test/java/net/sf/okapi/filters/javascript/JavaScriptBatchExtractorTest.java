@@ -0,0 +1,162 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.ITextUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptBatchExtractorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger written = new AtomicInteger();
+    private Path outputs;
+
+    @Test
+    public void testResume() throws IOException {
+        List<Path> documents = createDocuments(12);
+        Path journal = folder.getRoot().toPath().resolve("run.journal");
+
+        JavaScriptBatchExtractor.Result result = run(null, journal, documents);
+        assertEquals(12, result.getProcessed());
+        assertEquals(0, result.getSkipped());
+        assertEquals("a\tValue 3\nb\tOther 3\n", Files.readString(outputs.resolve("doc3.js.txt")));
+
+        // everything completed
+        written.set(0);
+        result = run(null, journal, documents);
+        assertEquals(0, result.getProcessed());
+        assertEquals(12, result.getSkipped());
+        assertEquals(0, written.get());
+
+        // a changed document and a damaged output are redone
+        Files.writeString(documents.get(4), "define({ a: 'Changed' });");
+        Files.writeString(outputs.resolve("doc7.js.txt"), "damaged");
+        result = run(null, journal, documents);
+        assertEquals(2, result.getProcessed());
+        assertEquals(10, result.getSkipped());
+        assertEquals("a\tChanged\n", Files.readString(outputs.resolve("doc4.js.txt")));
+
+        // other parameters: everything is redone
+        Parameters params = new Parameters();
+        params.setExceptions("b");
+        result = run(params, journal, documents);
+        assertEquals(12, result.getProcessed());
+        assertEquals("a\tValue 3\n", Files.readString(outputs.resolve("doc3.js.txt")));
+    }
+
+    @Test
+    public void testTornJournal() throws IOException {
+        List<Path> documents = createDocuments(5);
+        Path journal = folder.getRoot().toPath().resolve("run.journal");
+        run(null, journal, documents);
+        long size = Files.size(journal);
+
+        // a record cut short by a crash
+        byte[] torn = {0, 0, 0, 100, 1, 2, 3, 4, 'p', 'a', 'r', 't'};
+        Files.write(journal, torn, StandardOpenOption.APPEND);
+        JavaScriptBatchExtractor.Result result = run(null, journal, documents);
+        assertEquals(5, result.getSkipped());
+        assertEquals(size, Files.size(journal));
+
+        // a record with a bad checksum
+        byte[] record = Files.readAllBytes(journal);
+        record[record.length - 1] ^= 1;
+        Files.write(journal, record);
+        result = run(null, journal, documents);
+        assertEquals(1, result.getProcessed());
+        assertEquals(4, result.getSkipped());
+    }
+
+    @Test
+    public void testFailuresAreRetried() throws IOException {
+        List<Path> documents = createDocuments(4);
+        Path journal = folder.getRoot().toPath().resolve("run.journal");
+        Path failing = documents.get(2);
+        try (JavaScriptBatchExtractor extractor = new JavaScriptBatchExtractor(null, journal)) {
+            JavaScriptBatchExtractor.Result result = extractor.run(documents, "UTF-8", LocaleId.ENGLISH, 2,
+                    (document, events) -> {
+                        if (document.equals(failing)) {
+                            throw new IOException("disk full");
+                        }
+                        return write(document, events);
+                    });
+            assertEquals(3, result.getProcessed());
+            assertEquals(1, result.getFailures().size());
+            assertTrue(result.getFailures().containsKey(failing));
+        }
+        JavaScriptBatchExtractor.Result result = run(null, journal, documents);
+        assertEquals(1, result.getProcessed());
+        assertEquals(3, result.getSkipped());
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        List<Path> documents = createDocuments(30);
+        // larger than the memory for reading ahead
+        Files.writeString(documents.get(9), "define({ a: 'Large', b: '" + "x".repeat(200000) + "' });");
+        Path journal = folder.getRoot().toPath().resolve("run.journal");
+        for (int depth : new int[] {0, 1, 16}) {
+            try (JavaScriptBatchExtractor extractor = new JavaScriptBatchExtractor(null, journal)) {
+                extractor.setReadAhead(depth, 128 * 1024);
+                JavaScriptBatchExtractor.Result result = extractor.run(documents, "UTF-8", LocaleId.ENGLISH, 3,
+                        this::write);
+                assertTrue(result.getFailures().isEmpty());
+                // the hashes read ahead match those of the documents read in full
+                assertEquals(depth == 0 ? 30 : 0, result.getProcessed());
+            }
+            assertEquals("a\tValue 29\nb\tOther 29\n", Files.readString(outputs.resolve("doc29.js.txt")));
+            assertTrue(Files.readString(outputs.resolve("doc9.js.txt")).startsWith("a\tLarge\nb\txxx"));
+        }
+    }
+
+    private JavaScriptBatchExtractor.Result run(Parameters params, Path journal, List<Path> documents) {
+        try (JavaScriptBatchExtractor extractor = new JavaScriptBatchExtractor(params, journal)) {
+            JavaScriptBatchExtractor.Result result = extractor.run(documents, "UTF-8", LocaleId.ENGLISH, 3,
+                    this::write);
+            assertTrue(result.getFailures().isEmpty());
+            return result;
+        }
+    }
+
+    private Path write(Path document, List<Event> events) throws IOException {
+        written.incrementAndGet();
+        StringBuilder sb = new StringBuilder();
+        for (Event event : events) {
+            if (event.isTextUnit()) {
+                ITextUnit tu = event.getTextUnit();
+                sb.append(tu.getName()).append('\t').append(tu.getSource().getFirstContent().toText()).append('\n');
+            }
+        }
+        Path output = outputs.resolve(document.getFileName() + ".txt");
+        Files.writeString(output, sb.toString());
+        return output;
+    }
+
+    private List<Path> createDocuments(int count) throws IOException {
+        Path sources = folder.newFolder("src").toPath();
+        outputs = folder.newFolder("out").toPath();
+        List<Path> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path document = sources.resolve("doc" + i + ".js");
+            Files.write(document, String.format("define({ a: 'Value %d', b: \"Other %d\" });", i, i)
+                    .getBytes(StandardCharsets.UTF_8));
+            documents.add(document);
+        }
+        return documents;
+    }
+}
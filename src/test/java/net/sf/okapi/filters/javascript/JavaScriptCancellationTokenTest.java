@@ -0,0 +1,106 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.RawDocument;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaScriptCancellationTokenTest {
+    private static final String BUNDLE = JavaScriptFilterBenchmark.generateBundle(2000);
+
+    @Test
+    public void testCancelledWhileParsing() {
+        JavaScriptCancellationToken token = new JavaScriptCancellationToken();
+        CountingFilter filter = new CountingFilter(token, 10);
+        try {
+            filter.open(document(), true, token);
+            fail("Expected a JavaScriptCancelledException");
+        } catch (JavaScriptCancelledException e) {
+            assertFalse(e.isDeadlineExceeded());
+        }
+        // stopped within a few hundred tokens of the cancellation
+        assertTrue(filter.values < 10 + 256);
+
+        // the filter can be used again
+        assertEquals(2000, countTextUnits(filter, null));
+    }
+
+    @Test
+    public void testCancelledWhileReadingEvents() {
+        JavaScriptCancellationToken token = new JavaScriptCancellationToken();
+        JavaScriptFilter filter = new JavaScriptFilter();
+        filter.open(document(), true, token);
+        filter.next();
+        token.cancel();
+        try {
+            filter.next();
+            fail("Expected a JavaScriptCancelledException");
+        } catch (JavaScriptCancelledException e) {
+            assertFalse(e.isDeadlineExceeded());
+        }
+        assertEquals(2000, countTextUnits(filter, new JavaScriptCancellationToken()));
+    }
+
+    @Test
+    public void testDeadline() {
+        JavaScriptCancellationToken token = JavaScriptCancellationToken.withTimeout(0, TimeUnit.MILLISECONDS);
+        assertTrue(token.isDeadlineExceeded());
+        try {
+            new JavaScriptFilter().open(document(), true, token);
+            fail("Expected a JavaScriptCancelledException");
+        } catch (JavaScriptCancelledException e) {
+            assertTrue(e.isDeadlineExceeded());
+        }
+
+        token = JavaScriptCancellationToken.withTimeout(1, TimeUnit.HOURS);
+        assertFalse(token.isCancelled());
+        assertEquals(2000, countTextUnits(new JavaScriptFilter(), token));
+    }
+
+    private static RawDocument document() {
+        return new RawDocument(new ByteArrayInputStream(BUNDLE.getBytes(StandardCharsets.UTF_8)), "UTF-8",
+                LocaleId.ENGLISH);
+    }
+
+    private static int countTextUnits(JavaScriptFilter filter, JavaScriptCancellationToken token) {
+        int count = 0;
+        filter.open(document(), true, token);
+        while (filter.hasNext()) {
+            Event event = filter.next();
+            if (event.isTextUnit()) {
+                count++;
+            }
+        }
+        filter.close();
+        return count;
+    }
+
+    // cancels its token after the given number of values
+    private static class CountingFilter extends JavaScriptFilter {
+        private final JavaScriptCancellationToken token;
+        private final int cancelAfter;
+        int values;
+
+        CountingFilter(JavaScriptCancellationToken token, int cancelAfter) {
+            this.token = token;
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void handleValue(String value, JavaScriptValueTypes valueType) {
+            if (++values == cancelAfter) {
+                token.cancel();
+            }
+            super.handleValue(value, valueType);
+        }
+    }
+}
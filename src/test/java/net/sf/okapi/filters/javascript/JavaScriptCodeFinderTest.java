@@ -0,0 +1,56 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.encoder.EncoderManager;
+import net.sf.okapi.common.filters.InlineCodeFinder;
+import net.sf.okapi.common.resource.TextFragment;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptCodeFinderTest {
+    @Test
+    public void testTriggerChars() {
+        assertEquals("<", JavaScriptCodeFinder.triggerChars(new Parameters().getCodeFinder().getRules()));
+        assertEquals("%<{", JavaScriptCodeFinder.triggerChars(Arrays.asList("\\{\\d+\\}", "%[sd]|</?b>")));
+        assertEquals("$%", JavaScriptCodeFinder.triggerChars(Collections.singletonList("(?:\\$|%)[a-z]+")));
+        assertEquals("abc", JavaScriptCodeFinder.triggerChars(Collections.singletonList("[a-c]x")));
+        // rules that can start anywhere disable the prefilter
+        assertNull(JavaScriptCodeFinder.triggerChars(Arrays.asList("<br/>", "\\w+")));
+        assertNull(JavaScriptCodeFinder.triggerChars(Collections.singletonList("<?tag>")));
+        assertNull(JavaScriptCodeFinder.triggerChars(Collections.singletonList("[^a]")));
+        assertNull(JavaScriptCodeFinder.triggerChars(Collections.singletonList("(?i)x")));
+        assertNull(JavaScriptCodeFinder.triggerChars(Collections.singletonList("a|.")));
+    }
+
+    @Test
+    public void testProcessWithPrefilterAndCache() {
+        InlineCodeFinder rules = new Parameters().getCodeFinder();
+        rules.compile();
+        JavaScriptCodeFinder finder = new JavaScriptCodeFinder(rules);
+        EncoderManager encoderManager = new EncoderManager();
+
+        assertFalse(finder.mayMatch("No tags here"));
+        assertTrue(finder.mayMatch("a < b"));
+
+        TextFragment first = new TextFragment("Say <b>hi</b>");
+        finder.process(first, encoderManager);
+        TextFragment second = new TextFragment("Say <b>hi</b>");
+        finder.process(second, encoderManager);
+
+        assertEquals(2, first.getCodes().size());
+        assertEquals(first.getCodedText(), second.getCodedText());
+        assertEquals(first.toText(), second.toText());
+        assertNotSame(first.getCode(0), second.getCode(0));
+
+        TextFragment plain = new TextFragment("No tags here");
+        finder.process(plain, encoderManager);
+        assertEquals(0, plain.getCodes().size());
+    }
+}
@@ -0,0 +1,131 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.exceptions.OkapiException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaScriptDaemonTest {
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        byte[] cem;
+        try (InputStream input = Objects.requireNonNull(getClass().getResourceAsStream("/cem.js"))) {
+            cem = input.readAllBytes();
+        }
+
+        PipedInputStream daemonIn = new PipedInputStream(1 << 16);
+        PipedInputStream clientIn = new PipedInputStream(1 << 16);
+        PipedOutputStream toDaemon = new PipedOutputStream(daemonIn);
+        PipedOutputStream toClient = new PipedOutputStream(clientIn);
+
+        JavaScriptDaemon daemon = new JavaScriptDaemon(4);
+        daemon.warmUp();
+        Thread server = new Thread(() -> {
+            try {
+                daemon.serve(daemonIn, toClient);
+                toClient.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        server.start();
+
+        try (JavaScriptDaemonClient client = new JavaScriptDaemonClient(clientIn, toDaemon)) {
+            List<JavaScriptDaemonClient.ExtractedUnit> units = client.extract(null, cem, "UTF-8", LocaleId.ENGLISH);
+            assertTrue(units.size() > 1);
+
+            Map<String, String> translations = new HashMap<>();
+            for (JavaScriptDaemonClient.ExtractedUnit unit : units) {
+                translations.put(unit.getId(), unit.getText().toUpperCase());
+            }
+            Parameters useFullKeyPath = new Parameters();
+            useFullKeyPath.setUseFullKeyPath(true);
+
+            List<CompletableFuture<String>> merges = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Parameters params = i % 2 == 0 ? null : useFullKeyPath;
+                merges.add(CompletableFuture.supplyAsync(() -> new String(client.merge(params, cem, "UTF-8",
+                        LocaleId.ENGLISH, LocaleId.FRENCH, translations), StandardCharsets.UTF_8)));
+            }
+            String first = merges.get(0).get();
+            assertTrue(first.contains("'ACTIVESYNC USER EMAIL'"));
+            for (CompletableFuture<String> merge : merges) {
+                assertEquals(first, merge.get());
+            }
+
+            // a failed request does not affect the others
+            try {
+                client.extract(null, cem, "NO-SUCH-ENCODING", LocaleId.ENGLISH);
+                fail("Expected an error response");
+            } catch (OkapiException e) {
+                assertTrue(e.getMessage().contains("OkapiUnsupportedEncodingException"));
+            }
+            assertEquals(units.size(), client.extract(null, cem, "UTF-8", LocaleId.ENGLISH).size());
+        }
+        server.join();
+        daemon.shutdown();
+    }
+
+    @Test(timeout = 30000)
+    public void testBadRequests() throws IOException {
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(requests);
+        // cut short after the id
+        JavaScriptDaemonProtocol.writeFrame(out, new byte[] {0, 0, 0, 7, 0, 0});
+        for (int id = 8; id <= 10; id++) {
+            JavaScriptDaemonProtocol.Request request = new JavaScriptDaemonProtocol.Request();
+            request.id = id;
+            request.operation = id == 8 ? 99 : JavaScriptDaemonProtocol.EXTRACT;
+            request.content = "define({ a: 'One' });".getBytes(StandardCharsets.UTF_8);
+            JavaScriptDaemonProtocol.writeFrame(out, request.toFrame());
+        }
+
+        JavaScriptDaemon daemon = new JavaScriptDaemon(2) {
+            @Override
+            JavaScriptDaemonProtocol.Response handle(JavaScriptDaemonProtocol.Request request) {
+                if (request.id == 9) {
+                    throw new StackOverflowError();
+                }
+                return super.handle(request);
+            }
+        };
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        daemon.serve(new ByteArrayInputStream(requests.toByteArray()), responses);
+        daemon.shutdown();
+
+        // every request is answered
+        Map<Integer, JavaScriptDaemonProtocol.Response> answers = new HashMap<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(responses.toByteArray()));
+        byte[] frame;
+        while ((frame = JavaScriptDaemonProtocol.readFrame(in)) != null) {
+            JavaScriptDaemonProtocol.Response response = JavaScriptDaemonProtocol.Response.fromFrame(frame);
+            answers.put(response.id, response);
+        }
+        assertEquals(4, answers.size());
+        assertTrue(answers.get(7).message.startsWith("Malformed request"));
+        assertTrue(answers.get(8).message.contains("Unknown operation"));
+        assertTrue(answers.get(9).message.contains("StackOverflowError"));
+        assertEquals(JavaScriptDaemonProtocol.ERROR, answers.get(9).status);
+        assertEquals(JavaScriptDaemonProtocol.OK, answers.get(10).status);
+        assertEquals("One", answers.get(10).units.get(0).getText());
+    }
+}
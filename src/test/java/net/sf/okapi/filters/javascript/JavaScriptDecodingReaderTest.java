@@ -0,0 +1,45 @@
+package net.sf.okapi.filters.javascript;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class JavaScriptDecodingReaderTest {
+    private static final String[] PIECES = {
+            "a", " ", "\\n", "\\t", "\\\\", "\\\"", "\\/", "\\'", "\\x", "\\u0041", "<b>", "é", "中",
+            "😀", "\\b", "\\f", "\\r"
+    };
+
+    @Test
+    public void testSameAsDecode() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder sb = new StringBuilder();
+            int pieces = random.nextInt(3000);
+            for (int k = 0; k < pieces; k++) {
+                sb.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            String value = sb.toString();
+            String expected = JavaScriptEventBuilder.decode(value);
+
+            // small reads exercise escapes split across calls
+            JavaScriptDecodingReader reader = new JavaScriptDecodingReader(value);
+            StringBuilder actual = new StringBuilder();
+            char[] buffer = new char[1 + random.nextInt(3)];
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) >= 0) {
+                actual.append(buffer, 0, n);
+            }
+            assertEquals(expected, actual.toString());
+
+            try (InputStream stream = new JavaScriptDecodingReader(value).toUtf8Stream()) {
+                assertEquals(expected, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.annotation.GenericAnnotations;
+import net.sf.okapi.common.annotation.Note;
+import net.sf.okapi.common.annotation.NoteAnnotation;
+import net.sf.okapi.common.encoder.JSONEncoder;
+import net.sf.okapi.common.exceptions.OkapiIOException;
+import net.sf.okapi.common.filters.FilterConfigurationMapper;
+import net.sf.okapi.common.filters.IFilterConfigurationMapper;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.Code;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.RawDocument;
+import net.sf.okapi.common.resource.StartSubfilter;
+import net.sf.okapi.common.resource.TextFragment;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaScriptEventWriterTest {
+    private static final String CONTENT = "define({\n"
+            + "  \"menu\": { id: 'm1', note: 'Top menu', meta: 'ui', label: \"<b>File</b> menu\" },\n"
+            + "  items: [ 'Open', \"Close <br/> all\" ],\n"
+            + "  count: 3, enabled: true,\n"
+            + "  plain: 'It\\'s here'\n"
+            + "});\n";
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Parameters params = new Parameters();
+        params.setIdRules("id");
+        params.setNoteRules("note");
+        params.setGenericMetaRules("meta");
+        params.setUseCodeFinder(true);
+        List<Event> events = extract(params, CONTENT);
+        List<Event> replayed = read(write(events));
+
+        assertEquals(events.size(), replayed.size());
+        for (int i = 0; i < events.size(); i++) {
+            Event expected = events.get(i);
+            Event actual = replayed.get(i);
+            assertEquals(expected.getEventType(), actual.getEventType());
+            IResource resource = expected.getResource();
+            assertEquals(resource.getId(), actual.getResource().getId());
+            assertEquals(String.valueOf(resource.getSkeleton()), String.valueOf(actual.getResource().getSkeleton()));
+            if (expected.isTextUnit()) {
+                assertTextUnit(expected.getTextUnit(), actual.getTextUnit());
+            }
+        }
+
+        ITextUnit label = replayed.stream().filter(Event::isTextUnit).map(Event::getTextUnit)
+                .filter(tu -> "m1".equals(tu.getName())).findFirst().orElseThrow(AssertionError::new);
+        assertEquals("Top menu", label.getAnnotation(NoteAnnotation.class).getNote(0).getNoteText());
+        assertEquals("ui", label.getAnnotation(GenericAnnotations.class).getAllAnnotations().get(0)
+                .getString("meta"));
+        assertFalse(label.getSource().getFirstContent().getCodes().isEmpty());
+
+        assertEquals(merge(events), merge(replayed));
+    }
+
+    @Test
+    public void testStringTable() {
+        List<Event> events = extract(null, JavaScriptFilterBenchmark.generateBundle(500));
+        int once = write(events).length;
+        List<Event> twice = new ArrayList<>(events);
+        twice.addAll(events);
+        // the second copy reuses the strings of the first
+        assertTrue(write(twice).length < once * 7 / 4);
+
+        List<Event> replayed = read(write(twice));
+        assertEquals(twice.size(), replayed.size());
+        assertEquals(events.get(events.size() - 1).getEventType(), replayed.get(replayed.size() - 1).getEventType());
+    }
+
+    @Test
+    public void testVersioning() {
+        byte[] stream = write(extract(null, CONTENT));
+
+        try {
+            read("<?xml".getBytes(StandardCharsets.UTF_8));
+            fail("Expected an OkapiIOException");
+        } catch (OkapiIOException e) {
+            // not an event stream
+        }
+
+        byte[] newer = stream.clone();
+        newer[4] = (byte) (JavaScriptEventFormat.VERSION + 1);
+        try {
+            read(newer);
+            fail("Expected an OkapiIOException");
+        } catch (OkapiIOException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+
+        // records of an unknown type are skipped
+        ByteArrayOutputStream extended = new ByteArrayOutputStream();
+        extended.write(stream, 0, 5);
+        extended.write(new byte[]{0x7F, 3, 1, 2, 3}, 0, 5);
+        extended.write(stream, 5, stream.length - 5);
+        assertEquals(read(stream).size(), read(extended.toByteArray()).size());
+
+        try {
+            read(Arrays.copyOf(stream, stream.length - 3));
+            fail("Expected an OkapiIOException");
+        } catch (OkapiIOException e) {
+            // truncated
+        }
+    }
+
+    // set by the static initializer of Tripwire
+    static volatile boolean tripped;
+
+    static class Tripwire {
+        static {
+            tripped = true;
+        }
+    }
+
+    @Test
+    public void testParametersClass() throws IOException {
+        try {
+            JavaScriptEventReader.createParameters(Tripwire.class.getName());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Not a filter parameters class"));
+        }
+        // rejected without being initialized
+        assertFalse(tripped);
+        assertTrue(JavaScriptEventReader.createParameters(Parameters.class.getName()) instanceof Parameters);
+    }
+
+    @Test
+    public void testSubfilter() throws IOException {
+        FilterConfigurationMapper mapper = new FilterConfigurationMapper();
+        mapper.addConfigurations(JavaScriptFilter.class.getName());
+        Parameters params = new Parameters();
+        params.setSubfilter("okf_js");
+        params.setSubfilterRules("tpl");
+        List<Event> events = extract(params, "define({ tpl: \"{ a: \\\"one\\\\/two\\\", b: 'three' }\", c: 'four' });",
+                mapper);
+        List<Event> replayed = read(write(events));
+
+        assertEquals(events.size(), replayed.size());
+        for (int i = 0; i < events.size(); i++) {
+            Event expected = events.get(i);
+            Event actual = replayed.get(i);
+            assertEquals(expected.getEventType(), actual.getEventType());
+            IResource resource = expected.getResource();
+            assertEquals(resource.getId(), actual.getResource().getId());
+            assertEquals(String.valueOf(resource.getSkeleton()), String.valueOf(actual.getResource().getSkeleton()));
+            if (expected.isStartSubfilter()) {
+                StartSubfilter ssf = actual.getStartSubfilter();
+                assertEquals(expected.getStartSubfilter().getName(), ssf.getName());
+                assertEquals(expected.getStartSubfilter().getParentId(), ssf.getParentId());
+                assertEquals("okf_js", ssf.getStartDoc().getFilterId());
+                assertTrue(ssf.getParentEncoder() instanceof JSONEncoder);
+            }
+        }
+        String merged = merge(replayed);
+        assertEquals(merge(events), merged);
+        assertTrue(merged.contains("THREE"));
+        assertTrue(merged.contains("FOUR"));
+    }
+
+    private static void assertTextUnit(ITextUnit expected, ITextUnit actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getMimeType(), actual.getMimeType());
+        assertEquals(expected.isTranslatable(), actual.isTranslatable());
+        TextFragment source = expected.getSource().getFirstContent();
+        assertEquals(source.getCodedText(), actual.getSource().getFirstContent().getCodedText());
+        assertEquals(Code.codesToString(source.getCodes()),
+                Code.codesToString(actual.getSource().getFirstContent().getCodes()));
+        NoteAnnotation notes = expected.getAnnotation(NoteAnnotation.class);
+        if (notes != null) {
+            Note note = notes.getNote(0);
+            Note replayed = actual.getAnnotation(NoteAnnotation.class).getNote(0);
+            assertEquals(note, replayed);
+        }
+        GenericAnnotations annotations = expected.getAnnotation(GenericAnnotations.class);
+        if (annotations != null) {
+            assertEquals(annotations.toString(), actual.getAnnotation(GenericAnnotations.class).toString());
+        }
+    }
+
+    private static List<Event> extract(Parameters params, String content) {
+        return extract(params, content, null);
+    }
+
+    private static List<Event> extract(Parameters params, String content, IFilterConfigurationMapper mapper) {
+        List<Event> events = new ArrayList<>();
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setFilterConfigurationMapper(mapper);
+            if (params != null) {
+                filter.setParameters(params);
+            }
+            filter.open(new RawDocument(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "UTF-8",
+                    LocaleId.ENGLISH, LocaleId.FRENCH));
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+        }
+        return events;
+    }
+
+    private static byte[] write(List<Event> events) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JavaScriptEventWriter writer = new JavaScriptEventWriter(output)) {
+            events.forEach(writer::write);
+        }
+        return output.toByteArray();
+    }
+
+    private static List<Event> read(byte[] stream) {
+        List<Event> events = new ArrayList<>();
+        try (JavaScriptEventReader reader = new JavaScriptEventReader(new ByteArrayInputStream(stream))) {
+            while (reader.hasNext()) {
+                events.add(reader.next());
+            }
+        }
+        return events;
+    }
+
+    // merged with the writer of the start document
+    private static String merge(List<Event> events) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        IFilterWriter writer = events.get(0).getStartDocument().getFilterWriter();
+        assertNotNull(writer);
+        writer.setOptions(LocaleId.FRENCH, "UTF-8");
+        writer.setOutput(output);
+        for (Event event : events) {
+            if (event.isTextUnit()) {
+                ITextUnit tu = event.getTextUnit().clone();
+                TextFragment tf = tu.createTarget(LocaleId.FRENCH, true, IResource.COPY_ALL).getFirstContent();
+                tf.setCodedText(tf.getCodedText().toUpperCase());
+                event = new Event(event.getEventType(), tu);
+            }
+            writer.handleEvent(event);
+        }
+        writer.close();
+        return output.toString("UTF-8");
+    }
+}
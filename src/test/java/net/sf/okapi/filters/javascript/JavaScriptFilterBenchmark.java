@@ -0,0 +1,145 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.RawDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the filter. Run from the test classpath, e.g.:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main JavaScriptFilterBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaScriptFilterBenchmark {
+    @Param({"10000"})
+    public int keys;
+
+    private byte[] bundle;
+    private byte[] configBundle;
+    private JavaScriptFilter filter;
+
+    @Setup
+    public void setUp() {
+        bundle = generateBundle(keys).getBytes(StandardCharsets.UTF_8);
+        configBundle = generateConfigBundle(keys).getBytes(StandardCharsets.UTF_8);
+        filter = new JavaScriptFilter();
+    }
+
+    @Benchmark
+    public void extractWithSkeleton(Blackhole bh) {
+        extract(true, bh);
+    }
+
+    @Benchmark
+    public void extractWithoutSkeleton(Blackhole bh) {
+        extract(false, bh);
+    }
+
+    @Benchmark
+    public void extractConfig(Blackhole bh) {
+        extract(configBundle, true, bh);
+    }
+
+    private void extract(boolean generateSkeleton, Blackhole bh) {
+        extract(bundle, generateSkeleton, bh);
+    }
+
+    private void extract(byte[] content, boolean generateSkeleton, Blackhole bh) {
+        filter.open(new RawDocument(new ByteArrayInputStream(content), "UTF-8", LocaleId.ENGLISH),
+                generateSkeleton);
+        while (filter.hasNext()) {
+            Event event = filter.next();
+            bh.consume(event);
+        }
+        filter.close();
+    }
+
+    /**
+     * Generates a define() style resource bundle with the given number of keys,
+     * split into groups of 100 keys.
+     */
+    static String generateBundle(int keys) {
+        StringBuilder sb = new StringBuilder(keys * 48);
+        sb.append("define({\n");
+        for (int i = 0; i < keys; i++) {
+            if (i % 100 == 0) {
+                if (i > 0) {
+                    sb.append("\n  },\n");
+                }
+                sb.append("  \"group").append(i / 100).append("\": {\n");
+            } else {
+                sb.append(",\n");
+            }
+            sb.append("    KEY_").append(i).append(": ");
+            if (i % 2 == 0) {
+                sb.append("'Value number ").append(i).append(" isn\\'t here'");
+            } else {
+                sb.append("\"Another \\\"value\\\" number ").append(i).append('"');
+            }
+        }
+        sb.append("\n  }\n});\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a configuration-style bundle with the given number of keys,
+     * mostly numbers, booleans, nulls and symbols, with one string in ten.
+     */
+    static String generateConfigBundle(int keys) {
+        StringBuilder sb = new StringBuilder(keys * 32);
+        sb.append("define({\n");
+        for (int i = 0; i < keys; i++) {
+            sb.append(i == 0 ? "" : ",\n").append("  setting_").append(i).append(": ");
+            switch (i % 10) {
+                case 0:
+                    sb.append("'Label ").append(i).append('\'');
+                    break;
+                case 1:
+                case 2:
+                    sb.append(i * 37);
+                    break;
+                case 3:
+                    sb.append(-i).append(".25e-3");
+                    break;
+                case 4:
+                    sb.append("0x").append(Integer.toHexString(i));
+                    break;
+                case 5:
+                case 6:
+                    sb.append(i % 3 == 0);
+                    break;
+                case 7:
+                    sb.append("null");
+                    break;
+                default:
+                    sb.append("MODE_").append(i % 4);
+                    break;
+            }
+        }
+        sb.append("\n});\n");
+        return sb.toString();
+    }
+}
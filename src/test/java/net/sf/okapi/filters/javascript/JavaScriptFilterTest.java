@@ -4,6 +4,12 @@ import net.sf.okapi.common.Event;
 import net.sf.okapi.common.EventType;
 import net.sf.okapi.common.IResource;
 import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.annotation.GenericAnnotation;
+import net.sf.okapi.common.annotation.GenericAnnotationType;
+import net.sf.okapi.common.annotation.GenericAnnotations;
+import net.sf.okapi.common.annotation.Note;
+import net.sf.okapi.common.annotation.NoteAnnotation;
+import net.sf.okapi.common.filters.FilterConfigurationMapper;
 import net.sf.okapi.common.filters.IFilter;
 import net.sf.okapi.common.filterwriter.IFilterWriter;
 import net.sf.okapi.common.resource.ITextUnit;
@@ -12,13 +18,30 @@ import net.sf.okapi.common.resource.TextContainer;
 import net.sf.okapi.common.resource.TextFragment;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class JavaScriptFilterTest {
+    // the subfilter output is re-encoded, '/' included
+    private static final String SUBFILTER_OUTPUT =
+            "define({ tpl: \"{ a: \\\"one\\\\\\/two\\\", b: 'three' }\", c: 'four' });";
+
     @Test
     public void testCemResourceFile() throws URISyntaxException {
         IFilter filter = new JavaScriptFilter();
@@ -69,4 +92,405 @@ public class JavaScriptFilterTest {
         filter.close();
         writer.close();
     }
+
+    @Test
+    public void testExtractionWithoutSkeleton() {
+        List<Event> full = extract(true);
+        List<Event> bare = extract(false);
+
+        for (Event event : bare) {
+            assertFalse(event.isDocumentPart());
+            assertFalse(event.isStartGroup());
+            assertFalse(event.isEndGroup());
+        }
+
+        List<ITextUnit> expected = textUnits(full);
+        List<ITextUnit> actual = textUnits(bare);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(expected.get(i).getSource().getFirstContent().toText(),
+                    actual.get(i).getSource().getFirstContent().toText());
+        }
+    }
+
+    @Test
+    public void testSkeletonSpill() throws IOException {
+        Parameters params = new Parameters();
+        String expected = merge(params);
+
+        params.setSkeletonSpillThreshold(16);
+        List<Event> events = new ArrayList<>();
+        String actual;
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            actual = merge(filter, events);
+        }
+        assertEquals(expected, actual);
+        assertTrue(events.stream().anyMatch(
+                e -> e.isDocumentPart() && e.getResource().getSkeleton() instanceof JavaScriptSkeletonReference));
+    }
+
+    @Test
+    public void testSkeletonSpillParsedByNext() {
+        StringBuilder content = new StringBuilder("define({\n");
+        for (int i = 0; i < 20000; i++) {
+            content.append("  k").append(i).append(": 'v").append(i).append("',\n");
+        }
+        content.append("  o: { text: 'T', id: 'X', note: 'N' }\n});\n");
+        Parameters params = new Parameters();
+        params.setSkeletonSpillThreshold(16);
+
+        // the fingerprint records the values as they are parsed
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            filter.setPreviousFingerprint(new JavaScriptFingerprint());
+            filter.open(new RawDocument(new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)),
+                    "UTF-8", LocaleId.ENGLISH));
+            while (!filter.next().isTextUnit()) {
+            }
+            assertTrue(filter.getFingerprint().size() < 20000);
+            int tus = 1;
+            while (filter.hasNext()) {
+                tus += filter.next().isTextUnit() ? 1 : 0;
+            }
+            assertEquals(20003, tus);
+            assertEquals(20003, filter.getFingerprint().size());
+        }
+
+        // the TUs of an object are returned once its ID and notes are known
+        params.setIdRules("id");
+        params.setNoteRules("note");
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            filter.open(new RawDocument(new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)),
+                    "UTF-8", LocaleId.ENGLISH));
+            List<Event> events = new ArrayList<>();
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+            List<ITextUnit> tus = textUnits(events);
+            ITextUnit last = tus.get(tus.size() - 1);
+            assertEquals("X", last.getName());
+            assertEquals("[N]", notes(last).toString());
+        }
+    }
+
+    @Test
+    public void testIncrementalExtraction() throws IOException {
+        String v1 = "define({ a: \"one\", b: 'two', c: \"three\", l: { k: \"x\" }, m: { k: \"x\" } });";
+        String v2 = "define({ a: \"one\", b: 'TWO', d: \"four\", l: { k: \"x\" }, m: { k: \"x\" } });";
+
+        JavaScriptFingerprint previous;
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setPreviousFingerprint(new JavaScriptFingerprint());
+            assertEquals(5, textUnits(extract(filter, v1)).size());
+            previous = filter.getFingerprint();
+        }
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        previous.write(saved);
+        previous = JavaScriptFingerprint.read(new ByteArrayInputStream(saved.toByteArray()));
+        assertEquals(5, previous.size());
+
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setPreviousFingerprint(previous);
+            List<Event> events = extract(filter, v2);
+            List<ITextUnit> tus = textUnits(events);
+            assertEquals(2, tus.size());
+            assertEquals("TWO", tus.get(0).getSource().getFirstContent().toText());
+            assertEquals("four", tus.get(1).getSource().getFirstContent().toText());
+            assertEquals(Collections.singletonList("c"), filter.getRemovedKeys());
+            assertEquals(5, filter.getFingerprint().size());
+
+            // unchanged values are still written from the skeleton
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (IFilterWriter writer = filter.createFilterWriter()) {
+                writer.setOptions(LocaleId.FRENCH, "UTF-8");
+                writer.setOutput(output);
+                events.forEach(writer::handleEvent);
+            }
+            assertEquals(v2, output.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testSubfilter() throws IOException {
+        String js = "define({ tpl: \"{ a: \\\"one\\\\/two\\\", b: 'three' }\", c: 'four' });";
+        FilterConfigurationMapper mapper = new FilterConfigurationMapper();
+        mapper.addConfigurations(JavaScriptFilter.class.getName());
+        Parameters params = new Parameters();
+        params.setSubfilter("okf_js");
+        params.setSubfilterRules("tpl");
+
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setFilterConfigurationMapper(mapper);
+            filter.setParameters(params);
+            List<Event> events = extract(filter, js);
+            List<ITextUnit> tus = textUnits(events);
+            assertEquals(3, tus.size());
+            assertEquals("one/two", tus.get(0).getSource().getFirstContent().toText());
+            assertEquals("three", tus.get(1).getSource().getFirstContent().toText());
+            assertEquals("four", tus.get(2).getSource().getFirstContent().toText());
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (IFilterWriter writer = filter.createFilterWriter()) {
+                writer.setOptions(LocaleId.FRENCH, "UTF-8");
+                writer.setOutput(output);
+                events.forEach(writer::handleEvent);
+            }
+            assertEquals(SUBFILTER_OUTPUT, output.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testParallelPostProcessing() throws IOException {
+        // more text units than the post-processing window
+        StringBuilder content = new StringBuilder("define({");
+        for (int i = 0; i < 3000; i++) {
+            content.append(String.format("k%d: \"<b>v%d</b> \\\"%d\\\" <br/>\",%n", i, i, i));
+        }
+        content.append("last: 'end'});");
+
+        Parameters params = new Parameters();
+        params.setUseCodeFinder(true);
+        List<ITextUnit> expected;
+        String expectedOutput;
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            expected = textUnits(extract(filter, content.toString()));
+            expectedOutput = merge(filter, new ArrayList<>());
+        }
+
+        params.setPostProcessingThreads(4);
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            List<ITextUnit> actual = textUnits(extract(filter, content.toString()));
+            assertEquals(3001, actual.size());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                TextFragment expectedText = expected.get(i).getSource().getFirstContent();
+                TextFragment actualText = actual.get(i).getSource().getFirstContent();
+                assertEquals(expected.get(i).getName(), actual.get(i).getName());
+                assertEquals(expectedText.getCodedText(), actualText.getCodedText());
+                assertEquals(expectedText.getCodes().toString(), actualText.getCodes().toString());
+            }
+            assertEquals(3, actual.get(0).getSource().getFirstContent().getCodes().size());
+            assertEquals(expectedOutput, merge(filter, new ArrayList<>()));
+        }
+    }
+
+    @Test
+    public void testPreScan() throws IOException {
+        // passed through unchanged, unquoted values included
+        String code = "function f(x) {\n  return x + 1; // no strings\n}\n";
+        String strings = "define({ a: 'one', b: \"two\" });\n";
+        Parameters noPreScan = new Parameters();
+        noPreScan.setPreScan(false);
+        Parameters nothingExtracted = new Parameters();
+        nothingExtracted.setExtractAllPairs(false);
+
+        long skipped = JavaScriptFilter.getSkippedDocumentCount();
+        assertEquals(code, writeBack(new Parameters(), code, 0));
+        assertEquals(skipped + 1, JavaScriptFilter.getSkippedDocumentCount());
+        assertEquals(strings, writeBack(nothingExtracted, strings, 0));
+        assertEquals(skipped + 2, JavaScriptFilter.getSkippedDocumentCount());
+        assertEquals(strings, writeBack(new Parameters(), strings, 2));
+        writeBack(noPreScan, code, 0);
+        assertEquals(skipped + 2, JavaScriptFilter.getSkippedDocumentCount());
+
+        // spilled skeleton
+        Parameters spill = new Parameters();
+        spill.setSkeletonSpillThreshold(8);
+        assertEquals(code, writeBack(spill, code, 0));
+    }
+
+    @Test
+    public void testTypedValues() throws IOException {
+        // numbers are single values: the strings after them are still values
+        String config = "define({ port: 8080, ratio: -1.5e3, mask: 0xFF, big: 10n, on: true, off: null,\n"
+                + "  mode: DEBUG, label: 'Port', other: { id: 42, title: \"Title\" } });\n";
+        Parameters params = new Parameters();
+        params.setIdRules("id");
+        assertEquals(config, writeBack(params, config, 2));
+
+        List<ITextUnit> tus = textUnits(extract(new JavaScriptFilter(), config));
+        assertEquals("label", tus.get(0).getName());
+        assertEquals("Port", tus.get(0).getSource().toString());
+        assertEquals("title", tus.get(1).getName());
+        assertEquals("Title", tus.get(1).getSource().toString());
+    }
+
+    @Test
+    public void testNestedScopes() throws IOException {
+        // the notes and metadata of an object apply to the objects nested
+        // in it, before or after them; an ID only to its own object
+        String config = "define({ note: 'Outer', inner: { id: 'I1', note: 'Inner', text: 'A', meta: 'm1' },\n"
+                + "  label: 'B', other: { text: 'C' }, id: 'O1', meta: 'm0', list: [ { text: 'D' } ] });\n"
+                + "define({ text: 'E' });\n";
+        Parameters params = new Parameters();
+        params.setIdRules("id");
+        params.setNoteRules("note");
+        params.setGenericMetaRules("meta");
+        assertEquals(config, writeBack(params, config, 5));
+
+        JavaScriptFilter filter = new JavaScriptFilter();
+        filter.setParameters(params);
+        List<ITextUnit> tus = textUnits(extract(filter, config));
+        assertEquals("I1", tus.get(0).getName());
+        assertEquals("O1", tus.get(1).getName());
+        assertEquals("text", tus.get(2).getName());
+        assertEquals("[Inner, Outer]", notes(tus.get(0)).toString());
+        assertEquals("[Outer]", notes(tus.get(1)).toString());
+        assertEquals("[m1, m0]", metadata(tus.get(0)).toString());
+        assertEquals("[m0]", metadata(tus.get(3)).toString());
+        assertNull(tus.get(4).getAnnotation(NoteAnnotation.class));
+        assertNull(tus.get(4).getAnnotation(GenericAnnotations.class));
+
+        // one read-only instance for the object, shared by its TUs
+        NoteAnnotation notes = tus.get(1).getAnnotation(NoteAnnotation.class);
+        GenericAnnotation metadata = tus.get(1).getAnnotation(GenericAnnotations.class)
+                .getFirstAnnotation(GenericAnnotationType.MISC_METADATA);
+        for (int i = 2; i < 4; i++) {
+            assertSame(notes, tus.get(i).getAnnotation(NoteAnnotation.class));
+            assertSame(metadata, tus.get(i).getAnnotation(GenericAnnotations.class)
+                    .getFirstAnnotation(GenericAnnotationType.MISC_METADATA));
+        }
+        try {
+            notes.add(new Note("Added"));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("[Outer]", notes(tus.get(2)).toString());
+        }
+        try {
+            metadata.setString("added", "m2");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("[m0]", metadata(tus.get(2)).toString());
+        }
+
+        // the notes read from it are copies
+        notes.getNote(0).setNoteText("Changed");
+        notes.iterator().next().setFrom("changed");
+        assertEquals("[Outer]", notes(tus.get(2)).toString());
+        assertEquals("note", notes.getNote(0).getFrom());
+
+        // a step changing the annotations of one TU sets copies on it
+        ITextUnit changed = tus.get(1);
+        NoteAnnotation changedNotes = new NoteAnnotation();
+        notes.forEach(changedNotes::add);
+        changedNotes.add(new Note("Added"));
+        changed.setAnnotation(changedNotes);
+        GenericAnnotation changedMetadata = metadata.clone();
+        changedMetadata.setString(changedMetadata.getNames().iterator().next(), "changed");
+        changedMetadata.setString("added", "m2");
+        changed.getAnnotation(GenericAnnotations.class).remove(metadata);
+        GenericAnnotation.addAnnotation(changed, changedMetadata);
+        assertEquals("[Outer, Added]", notes(changed).toString());
+        assertEquals("[changed, m2]", metadata(changed).toString());
+        for (int i : new int[]{0, 2, 3}) {
+            assertFalse(notes(tus.get(i)).contains("Added"));
+            assertTrue(metadata(tus.get(i)).contains("m0"));
+            assertFalse(metadata(tus.get(i)).contains("m2"));
+        }
+    }
+
+    private static List<String> notes(ITextUnit tu) {
+        List<String> notes = new ArrayList<>();
+        for (Note note : tu.getAnnotation(NoteAnnotation.class)) {
+            notes.add(note.getNoteText());
+        }
+        return notes;
+    }
+
+    private static List<String> metadata(ITextUnit tu) {
+        List<String> values = new ArrayList<>();
+        for (GenericAnnotation annotation : tu.getAnnotation(GenericAnnotations.class)
+                .getAnnotations(GenericAnnotationType.MISC_METADATA)) {
+            for (String name : annotation.getNames()) {
+                values.add(annotation.getString(name));
+            }
+        }
+        return values;
+    }
+
+    // extracts and writes back the content, checking the number of text units
+    private String writeBack(Parameters params, String content, int expectedTextUnits) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JavaScriptFilter filter = new JavaScriptFilter();
+             IFilterWriter writer = filter.createFilterWriter()) {
+            filter.setParameters(params);
+            writer.setOptions(LocaleId.FRENCH, "UTF-8");
+            writer.setOutput(output);
+            List<Event> events = new ArrayList<>();
+            // pre-scanned as UTF-8 bytes
+            filter.open(new RawDocument(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "UTF-8",
+                    LocaleId.ENGLISH, LocaleId.FRENCH));
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+            assertEquals(expectedTextUnits, textUnits(events).size());
+            events.forEach(writer::handleEvent);
+        }
+        return output.toString("UTF-8");
+    }
+
+    private List<Event> extract(IFilter filter, String content) {
+        List<Event> events = new ArrayList<>();
+        filter.open(new RawDocument(content, LocaleId.ENGLISH));
+        while (filter.hasNext()) {
+            events.add(filter.next());
+        }
+        return events;
+    }
+
+    private String merge(Parameters params) throws IOException {
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            return merge(filter, new ArrayList<>());
+        }
+    }
+
+    private String merge(IFilter filter, List<Event> events) throws IOException {
+        LocaleId tgtLocaleId = LocaleId.fromString("ja-JP");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(tgtLocaleId, "UTF-8");
+            writer.setOutput(output);
+            filter.open(new RawDocument(Objects.requireNonNull(getClass().getResourceAsStream("/cem.js")), "UTF-8",
+                    new LocaleId("en"), tgtLocaleId));
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    TextFragment tf = event.getTextUnit().createTarget(tgtLocaleId, true, IResource.COPY_ALL)
+                            .getFirstContent();
+                    tf.setCodedText(tf.getCodedText().toUpperCase());
+                }
+                events.add(event);
+                writer.handleEvent(event);
+            }
+        }
+        return output.toString("UTF-8");
+    }
+
+    private List<Event> extract(boolean generateSkeleton) {
+        List<Event> events = new ArrayList<>();
+        try (IFilter filter = new JavaScriptFilter()) {
+            filter.open(new RawDocument(Objects.requireNonNull(getClass().getResourceAsStream("/cem.js")), "UTF-8",
+                    new LocaleId("en")), generateSkeleton);
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+        }
+        return events;
+    }
+
+    private static List<ITextUnit> textUnits(List<Event> events) {
+        List<ITextUnit> tus = new ArrayList<>();
+        for (Event event : events) {
+            if (event.isTextUnit()) {
+                tus.add(event.getTextUnit());
+            }
+        }
+        return tus;
+    }
 }
@@ -0,0 +1,49 @@
+package net.sf.okapi.filters.javascript;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class JavaScriptFingerprintTest {
+    @Test(timeout = 10000)
+    public void testRepeatedKeys() {
+        // 200000 repeats of the same key path, within the timeout only if
+        // each one is numbered in constant time
+        JavaScriptFingerprint fingerprint = new JavaScriptFingerprint();
+        for (int i = 0; i < 200000; i++) {
+            fingerprint.put("label", i);
+        }
+        assertEquals(200000, fingerprint.size());
+        assertEquals(Long.valueOf(199999), fingerprint.get("label#200000"));
+
+        JavaScriptFingerprint v1 = new JavaScriptFingerprint();
+        JavaScriptFingerprint v2 = new JavaScriptFingerprint();
+        for (int i = 0; i < 1000; i++) {
+            v1.put("a", i);
+            v1.put("b", i);
+            if (i == 10) {
+                // one more "a" near the start
+                v2.put("a", -1);
+            }
+            v2.put("a", i);
+            v2.put("b", i);
+        }
+        assertEquals(Collections.singletonList("a#1001"), v2.keysNotIn(v1));
+        for (int i = 2; i <= 1000; i++) {
+            assertEquals(v1.get("b#" + i), v2.get("b#" + i));
+        }
+    }
+
+    @Test
+    public void testSuffixedKeyPath() {
+        JavaScriptFingerprint fingerprint = new JavaScriptFingerprint();
+        assertEquals("k#2", fingerprint.put("k#2", 1));
+        assertEquals("k", fingerprint.put("k", 2));
+        assertEquals("k#3", fingerprint.put("k", 3));
+        assertEquals("k#4", fingerprint.put("k", 4));
+        assertEquals(Arrays.asList("k#2", "k", "k#3", "k#4"), Arrays.asList(fingerprint.keys().toArray()));
+    }
+}
@@ -0,0 +1,119 @@
+package net.sf.okapi.filters.javascript;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptIncrementalDocumentTest {
+    private static final String[] EDITS = {
+            "", "'", "\"", "{", "}", ",", ":", " ", "\n", "/*", "*/", "//", "\\", "key", "x", "12", "-",
+            "'text'", "\"more text\"", "{ k: 'v' }", "null", "é", "中文"
+    };
+
+    @Test
+    public void testEdits() throws Exception {
+        Parameters params = new Parameters();
+        params.setUseFullKeyPath(true);
+        String js = JavaScriptFilterBenchmark.generateBundle(300);
+        JavaScriptIncrementalDocument document = new JavaScriptIncrementalDocument(params, utf8(js));
+        assertEquals(scan(params, js), strings(document.getEntries()));
+
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            byte[] content = document.getContent();
+            int offset = boundary(content, random.nextInt(content.length + 1));
+            int end = boundary(content, Math.min(content.length, offset + random.nextInt(8)));
+            byte[] inserted = utf8(EDITS[random.nextInt(EDITS.length)]);
+            List<String> before = strings(document.getEntries());
+
+            JavaScriptIncrementalDocument.Delta delta = document.edit(offset, end - offset, inserted);
+            String updated = new String(document.getContent(), StandardCharsets.UTF_8);
+            JavaScriptIncrementalDocument expected = new JavaScriptIncrementalDocument(params, utf8(updated));
+            assertEquals(offsets(expected.getEntries()), offsets(document.getEntries()));
+
+            // the delta turns the previous strings into the new ones
+            List<String> after = strings(document.getEntries());
+            int removed = delta.getRemoved().size();
+            int added = delta.getAdded().size();
+            int prefix = 0;
+            while (prefix < before.size() - removed && prefix < after.size() - added
+                    && before.get(prefix).equals(after.get(prefix))) {
+                prefix++;
+            }
+            List<String> patched = new ArrayList<>(before);
+            patched.subList(prefix, prefix + removed).clear();
+            patched.addAll(prefix, strings(delta.getAdded()));
+            assertEquals(after, patched);
+        }
+        String updated = new String(document.getContent(), StandardCharsets.UTF_8);
+        assertEquals(scan(params, updated), strings(document.getEntries()));
+    }
+
+    @Test
+    public void testEditCost() {
+        String js = JavaScriptFilterBenchmark.generateBundle(20000);
+        JavaScriptIncrementalDocument document = new JavaScriptIncrementalDocument(null, utf8(js));
+        int offset = js.indexOf("Value number 10000");
+
+        JavaScriptIncrementalDocument.Delta delta = document.edit(offset, 5, utf8("Price"));
+        assertTrue(document.getRelexedBytes() < 3 * 4096);
+        assertEquals(1, delta.getRemoved().size());
+        assertEquals("Price number 10000 isn't here", delta.getAdded().get(0).getValue());
+        assertEquals("KEY_10000", delta.getAdded().get(0).getKeyPath());
+
+        // a new key in the middle of a group
+        int next = js.indexOf("KEY_10001");
+        delta = document.edit(next, 0, utf8("NEW: 'Inserted', "));
+        assertTrue(document.getRelexedBytes() < 3 * 4096);
+        assertTrue(delta.getRemoved().isEmpty());
+        assertEquals("NEW=Inserted", delta.getAdded().get(0).toString());
+
+        // an unterminated comment hides the rest of the document, until it is closed
+        int key = js.indexOf("KEY_10000");
+        delta = document.edit(key, 0, utf8("/*"));
+        assertEquals(10000, document.getEntries().size());
+        assertEquals(10001, delta.getRemoved().size());
+        delta = document.edit(key + 2, 0, utf8("*/"));
+        assertEquals(20001, document.getEntries().size());
+        assertEquals(10001, delta.getAdded().size());
+        assertEquals("KEY_10000=Price number 10000 isn't here", delta.getAdded().get(0).toString());
+    }
+
+    private static List<String> scan(Parameters params, String js) throws Exception {
+        List<String> strings = new ArrayList<>();
+        new JavaScriptScanner(params).scan(new StringReader(js),
+                (keyPath, value, quoteType, offset) -> strings.add(keyPath + "=" + value));
+        return strings;
+    }
+
+    private static List<String> strings(List<JavaScriptIncrementalDocument.Entry> entries) {
+        List<String> strings = new ArrayList<>();
+        entries.forEach(entry -> strings.add(entry.toString()));
+        return strings;
+    }
+
+    private static List<String> offsets(List<JavaScriptIncrementalDocument.Entry> entries) {
+        List<String> strings = new ArrayList<>();
+        entries.forEach(entry -> strings.add(entry + "@" + entry.getStart() + "-" + entry.getEnd()));
+        return strings;
+    }
+
+    // not inside a multi-byte character
+    private static int boundary(byte[] content, int offset) {
+        while (offset < content.length && (content[offset] & 0xC0) == 0x80) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
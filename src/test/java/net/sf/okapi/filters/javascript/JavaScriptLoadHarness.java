@@ -0,0 +1,371 @@
+package net.sf.okapi.filters.javascript;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.RawDocument;
+import net.sf.okapi.common.resource.TextFragment;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Load test of extract and merge round trips: each request extracts a
+ * document, translates its text units and merges them back with the
+ * skeleton writer. Every output is compared with the output of a
+ * sequential round trip made before the run.
+ * <p>
+ * With a rate, requests are started on a fixed schedule and their latency
+ * is measured from their scheduled start, so that a stalled filter shows
+ * in the percentiles instead of slowing the schedule down. Without a rate,
+ * each thread starts its next request when the previous one completes.
+ * <p>
+ * Run from the test classpath, e.g.:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) net.sf.okapi.filters.javascript.JavaScriptLoadHarness \
+ *     --threads 4 --rate 200 --duration 60 --corpus src/test/resources --report load.json
+ * </pre>
+ */
+public class JavaScriptLoadHarness {
+    private static final LocaleId TARGET = LocaleId.FRENCH;
+
+    static class Config {
+        int threads = Runtime.getRuntime().availableProcessors();
+        // round trips per second, 0 for as fast as possible
+        double rate;
+        double warmupSeconds = 5;
+        double durationSeconds = 30;
+        // a directory of .js files, or null for generated bundles
+        Path corpus;
+        int generatedDocuments = 20;
+        int generatedKeys = 2000;
+        Path report;
+    }
+
+    static class Report {
+        Config config;
+        int documents;
+        long corpusBytes;
+        long requests;
+        long mismatches;
+        long failures;
+        long missed;
+        double elapsedSeconds;
+        Histogram latency;
+        long gcCount;
+        long gcTimeMillis;
+        long gcMaxPauseMillis;
+        long allocatedBytes;
+
+        double getThroughput() {
+            return requests / elapsedSeconds;
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\n");
+            sb.append("  \"config\": {");
+            sb.append(String.format(Locale.ROOT, "\"threads\": %d, \"rate\": %.1f, \"warmupSeconds\": %.1f, "
+                            + "\"durationSeconds\": %.1f, \"corpus\": %s},\n", config.threads, config.rate,
+                    config.warmupSeconds, config.durationSeconds,
+                    config.corpus == null ? "null" : quote(config.corpus.toString())));
+            sb.append(String.format(Locale.ROOT, "  \"documents\": %d,\n  \"corpusBytes\": %d,\n", documents,
+                    corpusBytes));
+            sb.append(String.format(Locale.ROOT, "  \"requests\": %d,\n  \"mismatches\": %d,\n  \"failures\": %d,\n"
+                    + "  \"missed\": %d,\n", requests, mismatches, failures, missed));
+            sb.append(String.format(Locale.ROOT, "  \"elapsedSeconds\": %.3f,\n  \"throughput\": %.2f,\n",
+                    elapsedSeconds, getThroughput()));
+            sb.append(String.format(Locale.ROOT, "  \"latencyMicros\": {\"mean\": %.1f, \"p50\": %d, \"p90\": %d, "
+                            + "\"p99\": %d, \"p999\": %d, \"max\": %d},\n", latency.getMean() / 1000,
+                    micros(50), micros(90), micros(99), micros(99.9), latency.getMaxValue() / 1000));
+            sb.append(String.format(Locale.ROOT, "  \"gc\": {\"count\": %d, \"timeMillis\": %d, "
+                    + "\"maxPauseMillis\": %d},\n", gcCount, gcTimeMillis, gcMaxPauseMillis));
+            sb.append(String.format(Locale.ROOT, "  \"allocation\": {\"bytes\": %d, \"bytesPerSecond\": %.0f, "
+                            + "\"bytesPerRequest\": %.0f}\n", allocatedBytes, allocatedBytes / elapsedSeconds,
+                    requests == 0 ? 0.0 : (double) allocatedBytes / requests));
+            sb.append("}\n");
+            return sb.toString();
+        }
+
+        private long micros(double percentile) {
+            return latency.getValueAtPercentile(percentile) / 1000;
+        }
+
+        private static String quote(String value) {
+            return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        }
+    }
+
+    private final Config config;
+    private final List<byte[]> corpus = new ArrayList<>();
+    private final List<byte[]> expected = new ArrayList<>();
+    private final ThreadLocal<JavaScriptFilter> filters = ThreadLocal.withInitial(JavaScriptFilter::new);
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    // nanoseconds, to three significant digits
+    private final Histogram latency = new ConcurrentHistogram(3);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong missed = new AtomicLong();
+    private final AtomicLong gcMaxPause = new AtomicLong();
+    private volatile boolean recording;
+
+    JavaScriptLoadHarness(Config config) throws IOException {
+        this.config = config;
+        if (config.corpus == null) {
+            for (int i = 0; i < config.generatedDocuments; i++) {
+                // documents of different sizes, up to the configured number of keys
+                int keys = Math.max(1, config.generatedKeys * (i % 4 + 1) / 4);
+                corpus.add(JavaScriptFilterBenchmark.generateBundle(keys).getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            try (Stream<Path> files = Files.walk(config.corpus)) {
+                for (Path file : files.filter(p -> p.toString().endsWith(".js")).sorted()
+                        .collect(Collectors.toList())) {
+                    corpus.add(Files.readAllBytes(file));
+                }
+            }
+            if (corpus.isEmpty()) {
+                throw new IllegalArgumentException("No .js file in " + config.corpus);
+            }
+        }
+        for (byte[] document : corpus) {
+            expected.add(roundTrip(new JavaScriptFilter(), document));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--threads": config.threads = Integer.parseInt(value); break;
+                case "--rate": config.rate = Double.parseDouble(value); break;
+                case "--warmup": config.warmupSeconds = Double.parseDouble(value); break;
+                case "--duration": config.durationSeconds = Double.parseDouble(value); break;
+                case "--corpus": config.corpus = Paths.get(value); break;
+                case "--documents": config.generatedDocuments = Integer.parseInt(value); break;
+                case "--keys": config.generatedKeys = Integer.parseInt(value); break;
+                case "--report": config.report = Paths.get(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            i++;
+        }
+        Report report = new JavaScriptLoadHarness(config).run();
+        System.out.print(report.toJson());
+        if (report.mismatches > 0 || report.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    Report run() throws IOException, InterruptedException {
+        List<NotificationEmitter> emitters = new ArrayList<>();
+        NotificationListener gcListener = this::handleGcNotification;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+                emitters.add((NotificationEmitter) gc);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(config.threads, r -> {
+            Thread thread = new Thread(r, "js-load");
+            thread.setDaemon(true);
+            workers.add(thread);
+            return thread;
+        });
+        try {
+            phase(executor, config.warmupSeconds);
+
+            latency.reset();
+            requests.set(0);
+            missed.set(0);
+            gcMaxPause.set(0);
+            long gcCount = gcCount();
+            long gcTime = gcTime();
+            long allocated = allocatedBytes();
+            recording = true;
+            long start = System.nanoTime();
+            phase(executor, config.durationSeconds);
+            long elapsed = System.nanoTime() - start;
+            recording = false;
+
+            Report report = new Report();
+            report.config = config;
+            report.documents = corpus.size();
+            report.corpusBytes = corpus.stream().mapToLong(d -> d.length).sum();
+            report.requests = requests.get();
+            report.mismatches = mismatches.get();
+            report.failures = failures.get();
+            report.missed = missed.get();
+            report.elapsedSeconds = elapsed / 1e9;
+            report.latency = latency.copy();
+            report.gcCount = gcCount() - gcCount;
+            report.gcTimeMillis = gcTime() - gcTime;
+            report.gcMaxPauseMillis = gcMaxPause.get();
+            report.allocatedBytes = allocatedBytes() - allocated;
+            if (config.report != null) {
+                Files.write(config.report, report.toJson().getBytes(StandardCharsets.UTF_8));
+            }
+            return report;
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            for (NotificationEmitter emitter : emitters) {
+                try {
+                    emitter.removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException e) {
+                    // not registered
+                }
+            }
+        }
+    }
+
+    private void phase(ExecutorService executor, double seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        if (config.rate > 0) {
+            long period = (long) (1e9 / config.rate);
+            // requests started late are not queued beyond this
+            int backlogLimit = config.threads * 64;
+            AtomicLong inFlight = new AtomicLong();
+            long next = start;
+            for (int i = 0; next < end; i++, next = start + i * period) {
+                LockSupport.parkNanos(next - System.nanoTime());
+                if (inFlight.get() >= backlogLimit) {
+                    missed.incrementAndGet();
+                    continue;
+                }
+                long scheduled = next;
+                int document = i % corpus.size();
+                inFlight.incrementAndGet();
+                executor.execute(() -> {
+                    try {
+                        request(document, scheduled);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+            }
+            while (inFlight.get() > 0) {
+                Thread.sleep(1);
+            }
+        } else {
+            AtomicLong counter = new AtomicLong();
+            List<Future<?>> loops = new ArrayList<>();
+            for (int t = 0; t < config.threads; t++) {
+                loops.add(executor.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        request((int) (counter.getAndIncrement() % corpus.size()), System.nanoTime());
+                    }
+                }));
+            }
+            for (Future<?> loop : loops) {
+                try {
+                    loop.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+    }
+
+    private void request(int document, long scheduled) {
+        try {
+            byte[] output = roundTrip(filters.get(), corpus.get(document));
+            if (!Arrays.equals(expected.get(document), output)) {
+                mismatches.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            // a filter left in a bad state is not reused
+            filters.remove();
+        }
+        latency.recordValue(Math.max(0, System.nanoTime() - scheduled));
+        requests.incrementAndGet();
+    }
+
+    static byte[] roundTrip(JavaScriptFilter filter, byte[] document) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(document.length + 1024);
+        try (IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(TARGET, "UTF-8");
+            writer.setOutput(output);
+            filter.open(new RawDocument(new ByteArrayInputStream(document), "UTF-8", LocaleId.ENGLISH, TARGET));
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    TextFragment tf = event.getTextUnit().createTarget(TARGET, true, IResource.COPY_ALL)
+                            .getFirstContent();
+                    tf.setCodedText(tf.getCodedText().toUpperCase(Locale.ROOT));
+                }
+                writer.handleEvent(event);
+            }
+        } finally {
+            filter.close();
+        }
+        return output.toByteArray();
+    }
+
+    private void handleGcNotification(Notification notification, Object handback) {
+        if (recording && GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                .equals(notification.getType())) {
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                    .from((CompositeData) notification.getUserData());
+            gcMaxPause.accumulateAndGet(info.getGcInfo().getDuration(), Math::max);
+        }
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(gc -> Math.max(0, gc.getCollectionCount())).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(gc -> Math.max(0, gc.getCollectionTime())).sum();
+    }
+
+    // bytes allocated by the worker threads so far, or -1 if not supported
+    private long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long[] ids = workers.stream().mapToLong(Thread::getId).toArray();
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids)) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,55 @@
+package net.sf.okapi.filters.javascript;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptLoadHarnessTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testClosedLoop() throws Exception {
+        JavaScriptLoadHarness.Config config = config();
+        JavaScriptLoadHarness.Report report = new JavaScriptLoadHarness(config).run();
+        assertTrue(report.requests > 0);
+        assertEquals(0, report.mismatches);
+        assertEquals(0, report.failures);
+        assertEquals(report.requests, report.latency.getTotalCount());
+
+        String json = new String(Files.readAllBytes(config.report), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"p999\": "));
+        assertTrue(json.contains("\"requests\": " + report.requests + ","));
+    }
+
+    @Test
+    public void testFixedRate() throws Exception {
+        JavaScriptLoadHarness.Config config = config();
+        config.rate = 100;
+        JavaScriptLoadHarness.Report report = new JavaScriptLoadHarness(config).run();
+        // about 50 requests in half a second, less the ones dropped by a slow machine
+        assertTrue(report.requests + report.missed >= 45);
+        assertTrue(report.requests + report.missed <= 51);
+        assertEquals(0, report.mismatches);
+        assertEquals(0, report.failures);
+    }
+
+    private JavaScriptLoadHarness.Config config() throws Exception {
+        JavaScriptLoadHarness.Config config = new JavaScriptLoadHarness.Config();
+        config.threads = 2;
+        config.warmupSeconds = 0.2;
+        config.durationSeconds = 0.5;
+        config.generatedDocuments = 4;
+        config.generatedKeys = 200;
+        Path report = folder.getRoot().toPath().resolve("load.json");
+        config.report = report;
+        return config;
+    }
+}
@@ -0,0 +1,124 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.RawDocument;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaScriptMemoryBudgetTest {
+    private static final String DOCUMENT = "define({ a: 'One', b: 'Two', c: { d: 'Three' } });\n";
+    private static final long DOCUMENT_BYTES = JavaScriptMemoryBudget.estimate(DOCUMENT.length(), true, false);
+
+    @Test(timeout = 30000)
+    public void testAdmission() throws Exception {
+        JavaScriptMemoryBudget budget = new JavaScriptMemoryBudget(2 * DOCUMENT_BYTES);
+        JavaScriptFilter first = open(budget, DOCUMENT);
+        JavaScriptFilter second = open(budget, DOCUMENT);
+        assertEquals(2 * DOCUMENT_BYTES, budget.getReservedBytes());
+
+        // the third waits for one of them to be done
+        CompletableFuture<JavaScriptFilter> third = CompletableFuture.supplyAsync(() -> open(budget, DOCUMENT));
+        while (budget.getWaitingDocuments() == 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertFalse(third.isDone());
+        while (first.hasNext()) {
+            first.next();
+        }
+        // released with the last event
+        third.get(10, TimeUnit.SECONDS).close();
+        first.close();
+        second.close();
+
+        assertEquals(0, budget.getReservedBytes());
+        assertEquals(0, budget.getActiveDocuments());
+        assertEquals(3, budget.getAdmittedDocuments());
+        assertEquals(1, budget.getDelayedDocuments());
+        assertEquals(2 * DOCUMENT_BYTES, budget.getPeakReservedBytes());
+        assertTrue(budget.getWaitNanos() > 0);
+    }
+
+    @Test(timeout = 30000)
+    public void testOversized() throws Exception {
+        StringBuilder sb = new StringBuilder("define({\n");
+        for (int i = 0; i < 3000; i++) {
+            sb.append("  key").append(i).append(": 'Value ").append(i).append("', // comment\n");
+        }
+        String large = sb.append("});\n").toString();
+        JavaScriptMemoryBudget budget = new JavaScriptMemoryBudget(10 * DOCUMENT_BYTES);
+
+        // spills its skeleton and still writes back the same document
+        JavaScriptFilter small = open(budget, DOCUMENT);
+        CompletableFuture<String> written = CompletableFuture.supplyAsync(() -> writeBack(budget, large));
+        while (budget.getWaitingDocuments() == 0) {
+            Thread.sleep(10);
+        }
+        // alone once the other one is closed
+        small.close();
+        assertEquals(large, written.get(10, TimeUnit.SECONDS));
+        assertEquals(1, budget.getLowMemoryDocuments());
+        assertEquals(JavaScriptMemoryBudget.estimate(large.length(), true, true), budget.getPeakReservedBytes());
+
+        // the default budget has no limit
+        assertEquals(0, JavaScriptMemoryBudget.getDefault().getLimit());
+        assertFalse(JavaScriptMemoryBudget.getDefault().isOversized(Long.MAX_VALUE / 2));
+    }
+
+    @Test(timeout = 30000)
+    public void testCancelledWhileWaiting() {
+        JavaScriptMemoryBudget budget = new JavaScriptMemoryBudget(DOCUMENT_BYTES);
+        // holds the whole budget
+        JavaScriptFilter first = open(budget, DOCUMENT);
+        try (JavaScriptFilter second = new JavaScriptFilter()) {
+            second.setMemoryBudget(budget);
+            try {
+                second.open(new RawDocument(DOCUMENT, LocaleId.ENGLISH), true,
+                        JavaScriptCancellationToken.withTimeout(200, TimeUnit.MILLISECONDS));
+                fail();
+            } catch (JavaScriptCancelledException e) {
+                assertTrue(e.isDeadlineExceeded());
+            }
+            assertEquals(0, budget.getWaitingDocuments());
+            assertEquals(1, budget.getActiveDocuments());
+        } finally {
+            first.close();
+        }
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    private static JavaScriptFilter open(JavaScriptMemoryBudget budget, String content) {
+        JavaScriptFilter filter = new JavaScriptFilter();
+        filter.setMemoryBudget(budget);
+        filter.open(new RawDocument(content, LocaleId.ENGLISH, LocaleId.FRENCH));
+        return filter;
+    }
+
+    private static String writeBack(JavaScriptMemoryBudget budget, String content) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JavaScriptFilter filter = open(budget, content);
+             IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(LocaleId.FRENCH, "UTF-8");
+            writer.setOutput(output);
+            List<Event> events = new ArrayList<>();
+            while (filter.hasNext()) {
+                events.add(filter.next());
+            }
+            events.forEach(writer::handleEvent);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.IResource;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.filterwriter.IFilterWriter;
+import net.sf.okapi.common.resource.RawDocument;
+import net.sf.okapi.common.resource.TextFragment;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class JavaScriptMultiTargetWriterTest {
+    private static final LocaleId[] LOCALES = {LocaleId.JAPANESE, LocaleId.FRENCH, LocaleId.GERMAN};
+
+    @Test
+    public void testSameOutputAsSingleTargetWriters() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (LocaleId locale : LOCALES) {
+            expected.add(mergeOne(locale));
+        }
+        assertNotEquals(expected.get(0), expected.get(1));
+
+        assertEquals(expected, mergeAll(null));
+        ExecutorService executor = Executors.newFixedThreadPool(LOCALES.length);
+        try {
+            assertEquals(expected, mergeAll(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private String mergeOne(LocaleId locale) throws UnsupportedEncodingException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JavaScriptFilter filter = new JavaScriptFilter();
+             IFilterWriter writer = filter.createFilterWriter()) {
+            writer.setOptions(locale, "UTF-8");
+            writer.setOutput(output);
+            for (Event event : translate(filter)) {
+                writer.handleEvent(event);
+            }
+        }
+        return output.toString("UTF-8");
+    }
+
+    private List<String> mergeAll(ExecutorService executor) throws UnsupportedEncodingException {
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        try (JavaScriptFilter filter = new JavaScriptFilter();
+             JavaScriptMultiTargetWriter writer = new JavaScriptMultiTargetWriter(filter)) {
+            writer.setExecutor(executor);
+            for (LocaleId locale : LOCALES) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                writer.addTarget(locale, "UTF-8", output);
+                outputs.add(output);
+            }
+            for (Event event : translate(filter)) {
+                writer.handleEvent(event);
+            }
+        }
+        List<String> results = new ArrayList<>();
+        for (ByteArrayOutputStream output : outputs) {
+            results.add(output.toString("UTF-8"));
+        }
+        return results;
+    }
+
+    private List<Event> translate(JavaScriptFilter filter) {
+        List<Event> events = new ArrayList<>();
+        filter.open(new RawDocument(Objects.requireNonNull(getClass().getResourceAsStream("/cem.js")), "UTF-8",
+                LocaleId.ENGLISH));
+        while (filter.hasNext()) {
+            Event event = filter.next();
+            if (event.isTextUnit()) {
+                for (LocaleId locale : LOCALES) {
+                    TextFragment tf = event.getTextUnit().createTarget(locale, true, IResource.COPY_ALL)
+                            .getFirstContent();
+                    tf.setCodedText(locale + ":" + tf.getCodedText());
+                }
+            }
+            events.add(event);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,98 @@
+package net.sf.okapi.filters.javascript;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptReadAheadTest {
+    private static final int CHUNK = JavaScriptReadAhead.CHUNK_SIZE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testContent() throws IOException, NoSuchAlgorithmException {
+        int[] sizes = {0, 1, 1000, CHUNK, CHUNK + 1, 3 * CHUNK - 7, 10 * CHUNK};
+        List<Path> documents = new ArrayList<>();
+        for (int size : sizes) {
+            documents.add(createDocument(size));
+        }
+        documents.add(folder.getRoot().toPath().resolve("missing.js"));
+
+        try (JavaScriptReadAhead readAhead = new JavaScriptReadAhead(documents, 3, 4L * CHUNK)) {
+            for (int i = 0; i < sizes.length; i++) {
+                byte[] expected = Files.readAllBytes(documents.get(i));
+                try (JavaScriptReadAhead.Document document = readAhead.take(i)) {
+                    if (sizes[i] > 4 * CHUNK) {
+                        // larger than the memory limit
+                        assertNull(document);
+                        continue;
+                    }
+                    assertNotNull(document);
+                    try (InputStream in = document.getInputStream()) {
+                        assertArrayEquals(expected, in.readAllBytes());
+                    }
+                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                    document.digest(digest);
+                    assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected), digest.digest());
+                }
+            }
+            assertNull(readAhead.take(sizes.length));
+            assertEquals(0, readAhead.getBufferedBytes());
+        }
+    }
+
+    @Test
+    public void testLimits() throws IOException {
+        List<Path> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(createDocument(CHUNK + 100));
+        }
+        try (JavaScriptReadAhead readAhead = new JavaScriptReadAhead(documents, 4, 5L * CHUNK)) {
+            List<JavaScriptReadAhead.Document> held = new ArrayList<>();
+            for (int i = 0; i < documents.size(); i++) {
+                if (held.size() == 2) {
+                    held.remove(0).close();
+                }
+                JavaScriptReadAhead.Document document = readAhead.take(i);
+                if (document != null) {
+                    held.add(document);
+                }
+                assertTrue(readAhead.getBufferedBytes() <= 5L * CHUNK);
+            }
+            held.forEach(JavaScriptReadAhead.Document::close);
+        }
+
+        // taken before it was read: left to the caller
+        try (JavaScriptReadAhead readAhead = new JavaScriptReadAhead(documents, 1, 64L * CHUNK)) {
+            assertNull(readAhead.take(5));
+            JavaScriptReadAhead.Document document = readAhead.take(0);
+            assertNotNull(document);
+            document.close();
+        }
+    }
+
+    private Path createDocument(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path document = folder.newFile().toPath();
+        Files.write(document, content);
+        return document;
+    }
+}
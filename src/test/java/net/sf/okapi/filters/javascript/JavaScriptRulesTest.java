@@ -0,0 +1,75 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.exceptions.OkapiBadFilterInputException;
+import net.sf.okapi.common.exceptions.OkapiBadFilterParametersException;
+import net.sf.okapi.common.resource.RawDocument;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaScriptRulesTest {
+    @Test
+    public void testAnalyzer() {
+        assertNotNull(JavaScriptRuleAnalyzer.analyze("(a+)+b"));
+        assertNotNull(JavaScriptRuleAnalyzer.analyze("^(\\w+\\s?)*$"));
+        assertNotNull(JavaScriptRuleAnalyzer.analyze("x(?:[a-z]*/){2,}y"));
+        assertNotNull(JavaScriptRuleAnalyzer.analyze("(a|ab)*c"));
+        assertNotNull(JavaScriptRuleAnalyzer.analyze("(.|x)+"));
+
+        assertNull(JavaScriptRuleAnalyzer.analyze("/html/.*"));
+        assertNull(JavaScriptRuleAnalyzer.analyze("(a|b)*c"));
+        assertNull(JavaScriptRuleAnalyzer.analyze("(a+)?b"));
+        assertNull(JavaScriptRuleAnalyzer.analyze("(?>a+)+b"));
+        assertNull(JavaScriptRuleAnalyzer.analyze("(a+)++b"));
+        assertNull(JavaScriptRuleAnalyzer.analyze("[(a+)]+\\(b+\\)*"));
+        assertNull(JavaScriptRuleAnalyzer.analyze("(?<name>[a-z]+)/(?i)id"));
+    }
+
+    @Test
+    public void testCheckRules() {
+        Parameters params = new Parameters();
+        assertTrue(params.checkRules().isEmpty());
+        params.setExtractionRules("(a+)+b");
+        assertEquals(1, params.checkRules().size());
+        assertTrue(params.checkRules().get(0).startsWith("extractionRules: nested quantifiers"));
+
+        params.setRejectUnsafeRules(true);
+        try {
+            new JavaScriptRules(params);
+            fail("Expected the rules to be rejected");
+        } catch (OkapiBadFilterParametersException e) {
+            assertTrue(e.getMessage().contains("(a+)+"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testMatchBudget() {
+        Parameters params = new Parameters();
+        params.setExtractionRules("((x+)*)+y");
+        String js = "define({ " + new String(new char[40]).replace('\0', 'x') + ": 'value' });";
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            filter.open(new RawDocument(js, LocaleId.ENGLISH));
+            fail("Expected the match budget to be exceeded");
+        } catch (OkapiBadFilterInputException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("((x+)*)+y"));
+            assertTrue(e.getMessage(), e.getMessage().contains("more than 1000000 steps"));
+        }
+
+        // a time limit alone works too
+        params.setRuleMatchStepLimit(0);
+        params.setRuleMatchTimeLimit(50);
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.setParameters(params);
+            filter.open(new RawDocument(js, LocaleId.ENGLISH));
+            fail("Expected the match budget to be exceeded");
+        } catch (OkapiBadFilterInputException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("more than 50 ms"));
+        }
+    }
+}
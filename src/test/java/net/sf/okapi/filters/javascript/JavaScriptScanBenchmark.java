@@ -0,0 +1,96 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.RawDocument;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the lexer scanning loops on ASCII and CJK bundles.
+ * The Vector API version is only picked from the multi-release jar, so
+ * run with the packaged jar instead of target/classes, with and without
+ * the incubator module:
+ * <pre>
+ * mvn package dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/okapi-filter-js-1.0-SNAPSHOT.jar:$(cat cp.txt) org.openjdk.jmh.Main JavaScriptScanBenchmark
+ * java -cp ... org.openjdk.jmh.Main JavaScriptScanBenchmark -jvmArgsAppend "--add-modules jdk.incubator.vector"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaScriptScanBenchmark {
+    private static final String ASCII_TEXT = "The quick brown fox jumps over the lazy dog and keeps running";
+    private static final String CJK_TEXT = "敏捷的棕色狐狸跳过了懒狗并继续奔跑，直到天黑才回到森林里的家";
+
+    @Param({"ascii", "cjk"})
+    public String corpus;
+
+    @Param({"10000"})
+    public int keys;
+
+    private byte[] bundle;
+    private JavaScriptFilter filter;
+
+    @Setup
+    public void setUp() {
+        bundle = generateBundle(keys, "cjk".equals(corpus) ? CJK_TEXT : ASCII_TEXT)
+                .getBytes(StandardCharsets.UTF_8);
+        filter = new JavaScriptFilter();
+    }
+
+    @Benchmark
+    public int lex() {
+        JavaScriptUtf8Lexer lexer = new JavaScriptUtf8Lexer(bundle, 0, bundle.length);
+        int tokens = 0;
+        while (lexer.nextToken() != Token.EOF) {
+            tokens++;
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public void extract(Blackhole bh) {
+        filter.open(new RawDocument(new ByteArrayInputStream(bundle), "UTF-8", LocaleId.ENGLISH), false);
+        while (filter.hasNext()) {
+            Event event = filter.next();
+            bh.consume(event);
+        }
+        filter.close();
+    }
+
+    static String generateBundle(int keys, String text) {
+        StringBuilder sb = new StringBuilder(keys * (text.length() * 3 + 32));
+        sb.append("define({\n");
+        for (int i = 0; i < keys; i++) {
+            sb.append("        KEY_").append(i).append(":    \"");
+            // values of varying length, some with escapes
+            sb.append(text, 0, 8 + i % (text.length() - 8));
+            if (i % 4 == 0) {
+                sb.append(" \\\"").append(i).append("\\\"");
+            }
+            sb.append("\",\n");
+        }
+        sb.append("});\n");
+        return sb.toString();
+    }
+}
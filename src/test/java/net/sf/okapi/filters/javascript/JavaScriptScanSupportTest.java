@@ -0,0 +1,106 @@
+package net.sf.okapi.filters.javascript;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptScanSupportTest {
+    private static final String[] PIECES = {
+            "a", " ", "\t", "\u000B", "\f", "\n", "\r", "\\", "\"", "'", "é", "中", "😀", " ", "<b>"
+    };
+
+    @Test
+    public void testPortableVersion() {
+        checkAgainstReference(JavaScriptScanSupport::indexOfStringSpecial, JavaScriptScanSupport::skipBlanks);
+    }
+
+    /*
+     * The Java 17 version is only used from the multi-release jar, so it is
+     * loaded here from the versions directory of the build output.
+     */
+    @Test
+    public void testJava17Version() throws Exception {
+        File classes = new File(JavaScriptScanSupport.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File versions = new File(classes, "META-INF/versions/17");
+        Assume.assumeTrue(versions.isDirectory());
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{versions.toURI().toURL(), classes.toURI().toURL()},
+                ClassLoader.getPlatformClassLoader())) {
+            Class<?> support = loader.loadClass(JavaScriptScanSupport.class.getName());
+            Method isVectorized = support.getDeclaredMethod("isVectorized");
+            Method indexOf = support.getDeclaredMethod("indexOfStringSpecial", byte[].class, int.class, int.class,
+                    byte.class);
+            Method skip = support.getDeclaredMethod("skipBlanks", byte[].class, int.class, int.class);
+            isVectorized.setAccessible(true);
+            indexOf.setAccessible(true);
+            skip.setAccessible(true);
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                assertTrue((Boolean) isVectorized.invoke(null));
+            }
+            checkAgainstReference(
+                    (buf, from, end, quote) -> (Integer) invoke(indexOf, buf, from, end, quote),
+                    (buf, from, end) -> (Integer) invoke(skip, buf, from, end));
+        }
+    }
+
+    private interface IndexOf {
+        int apply(byte[] buf, int from, int end, byte quote);
+    }
+
+    private interface Skip {
+        int apply(byte[] buf, int from, int end);
+    }
+
+    private static void checkAgainstReference(IndexOf indexOf, Skip skip) {
+        Random random = new Random(11);
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int pieces = random.nextInt(200);
+            for (int k = 0; k < pieces; k++) {
+                // long runs cross several vectors
+                String piece = PIECES[random.nextInt(PIECES.length)];
+                sb.append(piece.repeat(1 + random.nextInt(random.nextBoolean() ? 2 : 80)));
+            }
+            byte[] buf = sb.toString().getBytes(StandardCharsets.UTF_8);
+            int from = buf.length == 0 ? 0 : random.nextInt(buf.length);
+            int end = from + random.nextInt(buf.length - from + 1);
+            byte quote = random.nextBoolean() ? (byte) '"' : (byte) '\'';
+
+            assertEquals(referenceIndexOf(buf, from, end, quote), indexOf.apply(buf, from, end, quote));
+            assertEquals(referenceSkip(buf, from, end), skip.apply(buf, from, end));
+        }
+    }
+
+    private static int referenceIndexOf(byte[] buf, int from, int end, byte quote) {
+        int i = from;
+        while (i < end && "\\\r\n".indexOf(buf[i]) < 0 && buf[i] != quote) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int referenceSkip(byte[] buf, int from, int end) {
+        int i = from;
+        while (i < end && " \t\u000B\f".indexOf(buf[i]) >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Object invoke(Method method, Object... args) {
+        try {
+            return method.invoke(null, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import net.sf.okapi.common.resource.ITextUnit;
+import net.sf.okapi.common.resource.RawDocument;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.Assert.assertEquals;
+
+public class JavaScriptScannerTest {
+    @Test
+    public void testScanMatchesFilterExtraction() throws IOException {
+        List<String> scanned = new ArrayList<>();
+        JavaScriptScanner scanner = new JavaScriptScanner(new Parameters());
+        scanner.scan(new InputStreamReader(Objects.requireNonNull(getClass().getResourceAsStream("/cem.js")),
+                StandardCharsets.UTF_8), (keyPath, value, quoteType, offset) -> scanned.add(keyPath + "=" + value));
+
+        List<String> extracted = new ArrayList<>();
+        try (JavaScriptFilter filter = new JavaScriptFilter()) {
+            filter.open(new RawDocument(Objects.requireNonNull(getClass().getResourceAsStream("/cem.js")), "UTF-8",
+                    new LocaleId("en")), false);
+            while (filter.hasNext()) {
+                Event event = filter.next();
+                if (event.isTextUnit()) {
+                    ITextUnit tu = event.getTextUnit();
+                    extracted.add(tu.getName() + "=" + tu.getSource().getFirstContent().toText());
+                }
+            }
+        }
+        assertEquals(extracted, scanned);
+    }
+
+    @Test
+    public void testRulesOffsetsAndStatistics() throws IOException {
+        Parameters params = new Parameters();
+        params.setUseFullKeyPath(true);
+        params.setExtractionRules("/msg/.*");
+        String js = "define({msg: {a: 'Don\\'t stop', b: \"two words\"}, other: 'skipped'});";
+
+        List<Integer> offsets = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        JavaScriptScanStatistics stats = new JavaScriptScanStatistics();
+        new JavaScriptScanner(params).scan(new StringReader(js), (keyPath, value, quoteType, offset) -> {
+            paths.add(keyPath);
+            offsets.add(offset);
+            stats.onString(keyPath, value, quoteType, offset);
+        });
+
+        assertEquals(List.of("/msg/a", "/msg/b"), paths);
+        assertEquals(js.indexOf("'Don"), (int) offsets.get(0));
+        assertEquals(js.indexOf("\"two"), (int) offsets.get(1));
+        assertEquals(2, stats.getSegmentCount());
+        assertEquals(4, stats.getWordCount());
+        assertEquals(17, stats.getCharacterCount());
+    }
+}
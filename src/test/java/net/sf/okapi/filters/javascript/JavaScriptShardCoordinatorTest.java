@@ -0,0 +1,243 @@
+package net.sf.okapi.filters.javascript;
+
+import net.sf.okapi.common.Event;
+import net.sf.okapi.common.LocaleId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JavaScriptShardCoordinatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPartition() {
+        Map<Path, Long> sizes = new LinkedHashMap<>();
+        long largest = 0;
+        for (int i = 0; i < 50; i++) {
+            long size = 100 + (i * 7919L) % 5000;
+            sizes.put(Path.of("doc" + i + ".js"), size);
+            largest = Math.max(largest, size);
+        }
+        List<List<Path>> shards = JavaScriptShardCoordinator.partition(sizes, 6);
+        assertEquals(6, shards.size());
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        int documents = 0;
+        for (List<Path> shard : shards) {
+            long total = shard.stream().mapToLong(sizes::get).sum();
+            min = Math.min(min, total);
+            max = Math.max(max, total);
+            documents += shard.size();
+        }
+        assertEquals(50, documents);
+        assertTrue(max - min <= largest);
+
+        assertEquals(2, JavaScriptShardCoordinator.partition(Map.of(Path.of("a"), 1L, Path.of("b"), 2L), 8).size());
+    }
+
+    @Test(timeout = 120000)
+    public void testWorkerProcesses() throws Exception {
+        Path root = folder.newFolder("src").toPath();
+        List<Path> documents = createDocuments(root, 30);
+        Path queue = folder.getRoot().toPath().resolve("queue");
+        Path output = folder.getRoot().toPath().resolve("out");
+
+        // workers may start before the job is submitted
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            workers.add(startWorker(queue, "worker" + i));
+        }
+        JavaScriptShardCoordinator coordinator = new JavaScriptShardCoordinator(queue, null, "UTF-8",
+                LocaleId.ENGLISH);
+        coordinator.submit(root, documents, output, 7);
+        JavaScriptShardCoordinator.Result result = coordinator.await(100, TimeUnit.SECONDS);
+        for (Process worker : workers) {
+            assertTrue(worker.waitFor(30, TimeUnit.SECONDS));
+            assertEquals(0, worker.exitValue());
+        }
+
+        assertEquals(30, result.getProcessed());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(List.of("a", "b", "c"), getNames(output.resolve("sub/doc17.js.events")));
+    }
+
+    @Test(timeout = 60000)
+    public void testTakeOver() throws IOException {
+        Path root = folder.newFolder("src").toPath();
+        List<Path> documents = createDocuments(root, 6);
+        Path queue = folder.getRoot().toPath().resolve("queue");
+        Path output = folder.getRoot().toPath().resolve("out");
+        JavaScriptShardCoordinator coordinator = new JavaScriptShardCoordinator(queue, null, "UTF-8",
+                LocaleId.ENGLISH);
+        coordinator.setLeaseMillis(200);
+        coordinator.setStealAfterMillis(1000);
+        coordinator.submit(root, documents, output, 3);
+
+        // a dead worker and a straggler: the first stopped renewing its
+        // lease, the second still renews it but claimed its shard long ago
+        Path leases = queue.resolve(JavaScriptShardQueue.LEASES);
+        Files.writeString(leases.resolve("0.0"), "dead\n" + (System.currentTimeMillis() - 5000) + "\n");
+        Files.setLastModifiedTime(leases.resolve("0.0"), FileTime.fromMillis(System.currentTimeMillis() - 5000));
+        Files.writeString(leases.resolve("1.0"), "slow\n" + (System.currentTimeMillis() - 60000) + "\n");
+        Files.setLastModifiedTime(leases.resolve("1.0"), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+
+        assertEquals(3, new JavaScriptShardWorker(queue, "w", 2).run());
+        JavaScriptShardCoordinator.Result result = coordinator.await(1, TimeUnit.SECONDS);
+        assertEquals(6, result.getProcessed());
+        assertEquals(2, result.getRetried());
+        assertTrue(Files.exists(leases.resolve("0.1")));
+        assertTrue(Files.exists(leases.resolve("1.1")));
+
+        // the straggler finishing late is ignored
+        JavaScriptShardQueue shards = new JavaScriptShardQueue(queue);
+        Properties late = new Properties();
+        late.setProperty("worker", "slow");
+        assertFalse(shards.complete(1, late));
+        assertEquals("w", shards.getResult(1).getProperty("worker"));
+
+        // a restarted worker finds nothing left to do
+        assertEquals(0, new JavaScriptShardWorker(queue, "w", 2).run());
+    }
+
+    @Test(timeout = 60000)
+    public void testAbandon() throws IOException {
+        Path root = folder.newFolder("src").toPath();
+        List<Path> documents = createDocuments(root, 4);
+        Path queue = folder.getRoot().toPath().resolve("queue");
+        JavaScriptShardCoordinator coordinator = new JavaScriptShardCoordinator(queue, null, "UTF-8",
+                LocaleId.ENGLISH);
+        coordinator.setLeaseMillis(100);
+        coordinator.setMaxAttempts(1);
+        coordinator.submit(root, documents, folder.getRoot().toPath().resolve("out"), 2);
+        Path lease = queue.resolve(JavaScriptShardQueue.LEASES).resolve("0.0");
+        Files.writeString(lease, "dead\n0\n");
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(0));
+
+        new JavaScriptShardWorker(queue, "w", 1).run();
+        JavaScriptShardCoordinator.Result result = coordinator.await(1, TimeUnit.SECONDS);
+        assertEquals(2, result.getProcessed());
+        assertEquals(2, result.getFailures().size());
+        assertTrue(result.getFailures().values().iterator().next().contains("1 attempts"));
+    }
+
+    @Test(timeout = 60000)
+    public void testNoAbandonWhileAlive() throws IOException {
+        Path root = folder.newFolder("src").toPath();
+        List<Path> documents = createDocuments(root, 2);
+        Path queue = folder.getRoot().toPath().resolve("queue");
+        JavaScriptShardCoordinator coordinator = new JavaScriptShardCoordinator(queue, null, "UTF-8",
+                LocaleId.ENGLISH);
+        coordinator.setLeaseMillis(1000);
+        coordinator.setStealAfterMillis(1000);
+        coordinator.setMaxAttempts(2);
+        coordinator.submit(root, documents, folder.getRoot().toPath().resolve("out"), 1);
+
+        // the first attempt was stolen from but still renews its lease,
+        // the second one died
+        Path leases = queue.resolve(JavaScriptShardQueue.LEASES);
+        Files.writeString(leases.resolve("0.0"), "slow\n" + (System.currentTimeMillis() - 60000) + "\n");
+        Files.writeString(leases.resolve("0.1"), "dead\n" + (System.currentTimeMillis() - 5000) + "\n");
+        Files.setLastModifiedTime(leases.resolve("0.1"), FileTime.fromMillis(System.currentTimeMillis() - 5000));
+
+        JavaScriptShardQueue shards = new JavaScriptShardQueue(queue);
+        assertEquals(null, shards.claim("w"));
+        assertFalse(shards.isDone(0));
+
+        // abandoned once no attempt is alive
+        Files.setLastModifiedTime(leases.resolve("0.0"), FileTime.fromMillis(System.currentTimeMillis() - 5000));
+        assertEquals(null, shards.claim("w"));
+        assertTrue(shards.isDone(0));
+        assertEquals(2, coordinator.await(1, TimeUnit.SECONDS).getFailures().size());
+    }
+
+    @Test(timeout = 60000)
+    public void testFirstResultWins() throws Exception {
+        Path root = folder.newFolder("src").toPath();
+        List<Path> documents = createDocuments(root, 40);
+        Path queue = folder.getRoot().toPath().resolve("queue");
+        new JavaScriptShardCoordinator(queue, null, "UTF-8", LocaleId.ENGLISH).submit(root, documents,
+                folder.getRoot().toPath().resolve("out"), 40);
+        JavaScriptShardQueue shards = new JavaScriptShardQueue(queue);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int shard = 0; shard < 40; shard++) {
+                int s = shard;
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Boolean>> attempts = new ArrayList<>();
+                for (String worker : List.of("a", "b")) {
+                    attempts.add(executor.submit(() -> {
+                        Properties result = new Properties();
+                        result.setProperty("worker", worker);
+                        start.await();
+                        return shards.complete(s, result);
+                    }));
+                }
+                start.countDown();
+                boolean a = attempts.get(0).get();
+                boolean b = attempts.get(1).get();
+                assertTrue(a ^ b);
+                assertEquals(a ? "a" : "b", shards.getResult(s).getProperty("worker"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Process startWorker(Path queue, String id) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                JavaScriptShardWorker.class.getName(), queue.toString(), id, "2");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(queue + "." + id + ".log"));
+        return builder.start();
+    }
+
+    private static List<String> getNames(Path events) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(events);
+             JavaScriptEventReader reader = new JavaScriptEventReader(in)) {
+            while (reader.hasNext()) {
+                Event event = reader.next();
+                if (event.isTextUnit()) {
+                    names.add(event.getTextUnit().getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static List<Path> createDocuments(Path root, int count) throws IOException {
+        List<Path> documents = new ArrayList<>();
+        Files.createDirectories(root.resolve("sub"));
+        for (int i = 0; i < count; i++) {
+            Path document = root.resolve(i % 2 == 0 ? "doc" + i + ".js" : "sub/doc" + i + ".js");
+            // of different sizes
+            Files.writeString(document, "define({ a: 'Value " + i + "', b: 'Other " + i + "', c: 'Text "
+                    + "x".repeat(i * 50) + "' });");
+            documents.add(document);
+        }
+        return documents;
+    }
+}
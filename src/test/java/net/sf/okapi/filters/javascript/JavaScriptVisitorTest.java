@@ -5,14 +5,30 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 public class JavaScriptVisitorTest {
+    private static final String[] FUZZ_PIECES = {
+            "{", "}", ",", ":", "'", "\"", "\\", "/", "*", "/*", "*/", "//", "\n", "\r", "\t", " ", "  ",
+            "a", "key", "null", "true", "false", "nullx", "x", "0", "1", "9", "_", "$", "u", "{41}",
+            "\\u0041", "\\u{41}", "\\x4", "\\x41", "\\0", "\\1", "\\'", "\\\"", "\\\n", "é", "\u00A0", "\u2028",
+            "\u2029", "中文", "\uD83D\uDE00", "\u0301", "\u200C", "[", "]", "(", ")", ";", "-", "\u000B",
+            ".", "e", "E", "+", "n", "12", "0x", "0X1f", "0o7", "0b", "0b1", "1_0", "3.5", ".5", "1e", "1e+", "2e-3"
+    };
+
     @Test
     public void testCemResourceFile() throws URISyntaxException, IOException {
         JavaScriptHandler handler = mock(JavaScriptHandler.class);
@@ -22,4 +38,119 @@ public class JavaScriptVisitorTest {
         visitor.visit(reader);
     }
 
+    @Test
+    public void testUtf8LexerMatchesAntlrLexer() throws IOException {
+        try (InputStream input = getClass().getResourceAsStream("/cem.js")) {
+            assertSameCalls(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertSameCalls("define({ a: 'x\\'y', \"b\": \"\\u{1F600} \\x41\", c: nullish, d: null, e: 中文 });");
+        assertSameCalls("{ 'unterminated: 1, /* unterminated comment");
+        assertSameCalls("{ a: 12, b: -3.5e+2, c: .5, d: 0x1F, e: 0b1012, f: 1_000n, g: 1.e, h: -x, i: 0o }");
+
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int pieces = 1 + random.nextInt(40);
+            for (int k = 0; k < pieces; k++) {
+                sb.append(FUZZ_PIECES[random.nextInt(FUZZ_PIECES.length)]);
+            }
+            assertSameCalls(sb.toString());
+        }
+    }
+
+    @Test
+    public void testWellFormedUtf8() {
+        byte[] valid = "a é 中 \uD83D\uDE00".getBytes(StandardCharsets.UTF_8);
+        assertTrue(JavaScriptUtf8Lexer.isWellFormed(valid, 0, valid.length));
+        assertFalse(JavaScriptUtf8Lexer.isWellFormed(valid, 0, valid.length - 1));
+        assertFalse(JavaScriptUtf8Lexer.isWellFormed(new byte[]{'a', (byte) 0xC3}, 0, 2));
+        assertFalse(JavaScriptUtf8Lexer.isWellFormed(new byte[]{(byte) 0xC0, (byte) 0x80}, 0, 2));
+        assertFalse(JavaScriptUtf8Lexer.isWellFormed(new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}, 0, 3));
+    }
+
+    private static void assertSameCalls(String js) throws IOException {
+        RecordingHandler expected = new RecordingHandler();
+        JavaScriptVisitor antlr = new JavaScriptVisitor(expected);
+        expected.visitor = antlr;
+        try {
+            antlr.visit(new StringReader(js));
+        } catch (RuntimeException e) {
+            expected.calls.add("error");
+        }
+
+        RecordingHandler actual = new RecordingHandler();
+        JavaScriptVisitor utf8 = new JavaScriptVisitor(actual);
+        actual.visitor = utf8;
+        byte[] bytes = js.getBytes(StandardCharsets.UTF_8);
+        try {
+            utf8.visit(bytes, 0, bytes.length);
+        } catch (RuntimeException e) {
+            actual.calls.add("error");
+        }
+        assertEquals(js, expected.calls, actual.calls);
+    }
+
+    private static class RecordingHandler implements JavaScriptHandler {
+        final List<String> calls = new ArrayList<>();
+        JavaScriptVisitor visitor;
+
+        private void record(String call) {
+            calls.add(visitor.getTokenStartIndex() + " " + call);
+        }
+
+        @Override
+        public void handleStart() {
+            calls.add("start");
+        }
+
+        @Override
+        public void handleEnd() {
+            calls.add("end");
+        }
+
+        @Override
+        public void handleComment(String c) {
+            record("comment " + c);
+        }
+
+        @Override
+        public void handleKey(String key, JavaScriptValueTypes valueType, JavaScriptKeyTypes keyType) {
+            record("key " + key + " " + valueType + " " + keyType);
+        }
+
+        @Override
+        public void handleSeparator(String separator) {
+            record("separator " + separator);
+        }
+
+        @Override
+        public void handleValue(String value, JavaScriptValueTypes valueType) {
+            record("value " + value + " " + valueType);
+        }
+
+        @Override
+        public void handleWhitespace(String whitespace) {
+            record("whitespace " + whitespace);
+        }
+
+        @Override
+        public void handleObjectStart() {
+            record("{");
+        }
+
+        @Override
+        public void handleObjectEnd() {
+            record("}");
+        }
+
+        @Override
+        public void handleListStart() {
+            record("[");
+        }
+
+        @Override
+        public void handleListEnd() {
+            record("]");
+        }
+    }
 }